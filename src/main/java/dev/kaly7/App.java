@@ -1,26 +1,225 @@
 package dev.kaly7;
 
+import dev.kaly7.model.GenerationOptions;
+import dev.kaly7.model.KeystoreMode;
+import dev.kaly7.model.OutputEncoding;
+import dev.kaly7.model.ShardSpec;
+import dev.kaly7.service.CertificateRenewer;
 import dev.kaly7.service.CertificateServiceImpl;
-import dev.kaly7.service.api.CertificateService;
+import dev.kaly7.service.ExpiryIndex;
+import dev.kaly7.service.IntermediateCa;
+import dev.kaly7.service.IssuerDataService;
+import dev.kaly7.service.KeyPairCache;
+import dev.kaly7.service.KeysProvider;
+import dev.kaly7.service.MultiInputGenerator;
+import dev.kaly7.service.PipelineWarmup;
+import dev.kaly7.service.ShardMerger;
+import dev.kaly7.service.WatchFolderDaemon;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
 public class App {
     private static final Logger logger = LoggerFactory.getLogger(App.class);
+    private static final Set<String> VALUE_OPTIONS = Set.of("--target_folder", "--shard", "--shard-by", "--heap-budget",
+            "--encoding", "--verify-sample", "--signature-algorithm", "--key-cache", "--key-cache-size", "--key-cache-seed",
+            "--watch", "--done", "--expiring", "--renew-validity", "--keystore", "--keystore-password",
+            "--csr-dir", "--warmup");
 
     public static void main(String[] args) {
         final int ARGS_SIZE = 1;
+        List<String> arguments = Arrays.asList(args);
+        // Optional target folder argument
+        String targetFolder = optionValue(arguments, "--target_folder").orElse("certs");
+
+        // Combine the shards written by several processes into the target folder
+        if (arguments.contains("--merge")) {
+            boolean clean = ShardMerger.merge(Paths.get(targetFolder)).isClean();
+            if (!clean) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        Optional<String> watchFolder = optionValue(arguments, "--watch");
+
         // Check if the required arguments are provided
         if (args.length < ARGS_SIZE) {
-            logger.info("Usage: java App <path/to/yourTppFile.json> [--target_folder <target_folder>]");
+            logger.info("Usage: java App <path/to/yourTppFile.json | folder | glob>... [--target_folder <target_folder>] "
+                    + "[--output-per-input] [--resume] "
+                    + "[--shard <index>/<count> [--shard-by index|hash]] [--heap-budget <MiB>] "
+                    + "[--encoding pem|der | --keystore per-tpp|bundle --keystore-password <password>] "
+                    + "[--signature-algorithm <algorithm>] [--verify | --verify-sample <rate>] [--csr-dir <folder>] [--hierarchy] "
+                    + "[--key-cache <folder> [--key-cache-size <MiB>] [--key-cache-seed <seed>]]");
+            logger.info("       java App --merge [--target_folder <target_folder>]");
+            logger.info("       java App --watch <folder> [--done <folder>] [--warmup <certificates>] [generation options]");
+            logger.info("       java App --expiring <days> [--target_folder <target_folder>] [--renew [--renew-validity <days>]]");
             return;
         }
 
-        String tppJsonFilePath = args[0];
-        // Optional target folder argument
-        String targetFolder = args.length > 1 && "--target_folder".equals(args[1]) ? args[2] : "certs";
+        // Skip the entries completed by a previous, interrupted run; always done when watching a folder
+        boolean resume = arguments.contains("--resume") || watchFolder.isPresent();
+        ShardSpec.Partitioning partitioning = optionValue(arguments, "--shard-by")
+                .map(value -> ShardSpec.Partitioning.valueOf(value.toUpperCase(Locale.ROOT)))
+                .orElse(ShardSpec.Partitioning.INDEX);
+        ShardSpec shard = optionValue(arguments, "--shard")
+                .map(value -> ShardSpec.parse(value, partitioning))
+                .orElse(ShardSpec.NONE);
+        // Upper bound of the heap used by the certificates in flight
+        long heapBudgetBytes = optionValue(arguments, "--heap-budget")
+                .map(value -> Long.parseLong(value) * 1024 * 1024)
+                .orElse(GenerationOptions.DEFAULT_HEAP_BUDGET_BYTES);
+        OutputEncoding encoding = optionValue(arguments, "--encoding")
+                .map(value -> OutputEncoding.valueOf(value.toUpperCase(Locale.ROOT)))
+                .orElse(OutputEncoding.PEM);
+        // Check every certificate, or a share of them, against the issuer and the request
+        double verifySampleRate = optionValue(arguments, "--verify-sample")
+                .map(Double::parseDouble)
+                .orElse(arguments.contains("--verify") ? 1.0 : 0.0);
+        // PKCS#12 keystores instead of separate certificate and key files
+        KeystoreMode keystore = optionValue(arguments, "--keystore")
+                .map(value -> KeystoreMode.valueOf(value.replace('-', '_').toUpperCase(Locale.ROOT)))
+                .orElse(KeystoreMode.NONE);
+        char[] keystorePassword = optionValue(arguments, "--keystore-password").map(String::toCharArray).orElse(null);
+        // A bundle is written once its input is complete, which a resumed file never is
+        if (keystore == KeystoreMode.BUNDLE && watchFolder.isPresent()) {
+            logger.error("--keystore bundle cannot be used with --watch, whose files are always resumed; use --keystore per-tpp");
+            return;
+        }
+
+        GenerationOptions options;
+        try {
+            options = GenerationOptions.builder(targetFolder)
+                    .resume(resume)
+                    .shard(shard)
+                    .heapBudgetBytes(heapBudgetBytes)
+                    .encoding(encoding)
+                    .verifySampleRate(verifySampleRate)
+                    .keystore(keystore, keystorePassword)
+                    // Certificates for the keys of the callers' certification requests, without key generation
+                    .csrFolder(optionValue(arguments, "--csr-dir").orElse(null))
+                    .build();
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid options: {}", e.getMessage());
+            return;
+        }
+
+        // Derived from the issuer key unless given, e.g. SHA256WithRSAAndMGF1 for RSA-PSS with an RSA issuer
+        KeysProvider keysProvider = new KeysProvider()
+                .withSignatureAlgorithm(optionValue(arguments, "--signature-algorithm").orElse(null));
+
+        CertificateServiceImpl certificateService = new CertificateServiceImpl(new IssuerDataService(keysProvider));
+        // Fixture mode: reuse the subject keys of previous runs
+        optionValue(arguments, "--key-cache").ifPresent(keyCacheFolder -> certificateService.withKeyCache(new KeyPairCache(
+                Paths.get(keyCacheFolder),
+                optionValue(arguments, "--key-cache-seed").orElse(null),
+                optionValue(arguments, "--key-cache-size")
+                        .map(value -> Long.parseLong(value) * 1024 * 1024)
+                        .orElse(KeyPairCache.DEFAULT_MAX_BYTES))));
+        // Issue the certificates of each country through an intermediate NCA of that country
+        if (arguments.contains("--hierarchy")) {
+            certificateService.withCountryIntermediates(Paths.get(targetFolder).resolve(IntermediateCa.FOLDER));
+        }
+        Optional<String> expiring = optionValue(arguments, "--expiring");
+        if (expiring.isPresent()) {
+            expiring(certificateService, Paths.get(targetFolder), Duration.ofDays(Long.parseLong(expiring.get())),
+                    arguments.contains("--renew"), optionValue(arguments, "--renew-validity").map(Integer::parseInt)
+                            .orElse(CertificateRenewer.DEFAULT_VALIDITY), heapBudgetBytes);
+            return;
+        }
+        if (watchFolder.isPresent()) {
+            Path watched = Paths.get(watchFolder.get());
+            Path doneFolder = optionValue(arguments, "--done").map(Paths::get).orElse(watched.resolve("done"));
+            // Synthetic certificates issued before watching, to reach steady-state speed; 0 to skip
+            int warmupCertificates = optionValue(arguments, "--warmup").map(Integer::parseInt)
+                    .orElse(PipelineWarmup.DEFAULT_MAX_CERTIFICATES);
+            watch(certificateService, watched, doneFolder, options, warmupCertificates);
+            return;
+        }
+        generate(certificateService, positionalArguments(arguments), options, arguments.contains("--output-per-input"));
+    }
+
+    // A single file is generated as before; several inputs share the issuer and the workers of this JVM
+    private static void generate(CertificateServiceImpl certificateService, List<String> inputArguments,
+                                 GenerationOptions options, boolean outputPerInput) {
+        List<Path> inputs = MultiInputGenerator.expand(inputArguments);
+        if (inputs.isEmpty()) {
+            logger.error("No TPP file found in {}", inputArguments);
+            System.exit(1);
+        }
+        if (inputArguments.size() == 1 && inputs.get(0).equals(Paths.get(inputArguments.get(0))) && !outputPerInput) {
+            certificateService.generateCertificates(inputArguments.get(0), options);
+            return;
+        }
+        boolean failed = new MultiInputGenerator(certificateService).generate(inputs, options, outputPerInput).stream()
+                .anyMatch(result -> !result.succeeded());
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    // The arguments that are neither options nor option values
+    private static List<String> positionalArguments(List<String> arguments) {
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < arguments.size(); i++) {
+            String argument = arguments.get(i);
+            if (VALUE_OPTIONS.contains(argument)) {
+                i++;
+            } else if (!argument.startsWith("--")) {
+                positional.add(argument);
+            }
+        }
+        return positional;
+    }
+
+    // Lists the certificates of the target folder expiring within the window and optionally renews them
+    private static void expiring(CertificateServiceImpl certificateService, Path targetFolder, Duration window,
+                                 boolean renew, int renewalValidity, long heapBudgetBytes) {
+        List<ExpiryIndex.Entry> entries = ExpiryIndex.open(targetFolder).expiringWithin(window);
+        entries.forEach(entry -> logger.info("{} expires {}", entry.certificate(), entry.notAfter()));
+        logger.info("{} certificates expire within {} days", entries.size(), window.toDays());
+        if (renew && !entries.isEmpty()) {
+            new CertificateRenewer(certificateService).renew(entries, renewalValidity, heapBudgetBytes);
+            // Brings the index up to date with the renewed files
+            ExpiryIndex.open(targetFolder);
+        }
+    }
+
+    private static void watch(CertificateServiceImpl certificateService, Path watchFolder, Path doneFolder,
+                              GenerationOptions options, int warmupCertificates) {
+        try (WatchFolderDaemon daemon = new WatchFolderDaemon(certificateService, watchFolder, doneFolder,
+                options, WatchFolderDaemon.DEFAULT_SETTLE_MILLIS)) {
+            if (warmupCertificates > 0) {
+                daemon.withWarmup(new PipelineWarmup(certificateService)
+                        .withLimits(warmupCertificates, PipelineWarmup.DEFAULT_MAX_DURATION));
+            }
+            Thread main = Thread.currentThread();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                main.interrupt();
+                try {
+                    main.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            daemon.run();
+        } catch (IOException e) {
+            logger.error("Could not watch {}", watchFolder, e);
+        }
+    }
 
-        CertificateService certificateService = new CertificateServiceImpl();
-        certificateService.generatePemFilesCerts(tppJsonFilePath, targetFolder);
+    private static Optional<String> optionValue(List<String> arguments, String option) {
+        int index = arguments.indexOf(option);
+        return index >= 0 && index + 1 < arguments.size() ? Optional.of(arguments.get(index + 1)) : Optional.empty();
     }
-}
\ No newline at end of file
+}
@@ -30,6 +30,8 @@ import java.util.List;
  *                            This value must not be null.
  * @param ocspCheckNeeded     Flag indicating whether OCSP (Online Certificate Status Protocol) checks are needed.
  *                            The default value is false.
+ * @param csr                 A PKCS#10 certification request, as PEM or Base64 DER, whose public key the
+ *                            certificate is issued for instead of a generated key pair. This value can be null.
  */
 public record CertificateRequest(
         @NotNull String authorizationNumber,
@@ -42,8 +44,31 @@ public record CertificateRequest(
         String countryCode,
         @Min(-365) @Max(365) @NotNull int validity,
         @NotNull String commonName,
-        boolean ocspCheckNeeded
+        boolean ocspCheckNeeded,
+        String csr
 ) {
     public CertificateRequest {
     }
+
+    /**
+     * A request for which a key pair is generated.
+     */
+    public CertificateRequest(String authorizationNumber, List<PspRole> roles, String organizationName,
+                              String organizationUnit, String domainComponent, String localityName,
+                              String stateOrProvinceName, String countryCode, int validity, String commonName,
+                              boolean ocspCheckNeeded) {
+        this(authorizationNumber, roles, organizationName, organizationUnit, domainComponent, localityName,
+                stateOrProvinceName, countryCode, validity, commonName, ocspCheckNeeded, null);
+    }
+
+    /**
+     * The same request, issued for the public key of the given certification request.
+     *
+     * @param csr the certification request, as PEM or Base64 DER.
+     * @return the request.
+     */
+    public CertificateRequest withCsr(String csr) {
+        return new CertificateRequest(authorizationNumber, roles, organizationName, organizationUnit, domainComponent,
+                localityName, stateOrProvinceName, countryCode, validity, commonName, ocspCheckNeeded, csr);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package dev.kaly7.model;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.service.ExportUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateEncodingException;
+import java.util.Arrays;
+
+/**
+ * A certificate response holding the DER certificate and the PKCS#8 private key as bytes, for callers
+ * that keep many responses in memory or need the binary encodings.
+ *
+ * <p>The PEM text of {@link CertificateResponse} is only rendered when {@link #encodedCert()} or
+ * {@link #privateKey()} is called, and is not kept. Both return the same text as the accessors of
+ * {@link CertificateResponse}, so the two types can be used in the same way.</p>
+ *
+ * <p>The byte arrays are owned by the response: they are not copied on construction, and the binary
+ * encodings are handed out as read-only views.</p>
+ */
+public final class CompactCertificateResponse {
+
+    private final byte[] certificate;
+    private final byte[] privateKey;
+
+    /**
+     * @param certificate the DER encoding of the certificate.
+     * @param privateKey  the PKCS#8 encoding of the private key, or {@code null} for a certificate
+     *                    issued for a certification request.
+     */
+    public CompactCertificateResponse(byte[] certificate, byte[] privateKey) {
+        this.certificate = certificate;
+        this.privateKey = privateKey;
+    }
+
+    /**
+     * Creates the response of an issued certificate.
+     *
+     * @param issued the issued certificate and its private key.
+     * @return the response.
+     * @throws CertificateGeneratorException if the certificate cannot be encoded.
+     */
+    public static CompactCertificateResponse of(IssuedCertificate issued) {
+        try {
+            return new CompactCertificateResponse(issued.certificate().getEncoded(),
+                    issued.privateKey() == null ? null : issued.privateKey().getEncoded());
+        } catch (CertificateEncodingException e) {
+            throw new CertificateGeneratorException("Could not encode certificate", e);
+        }
+    }
+
+    /**
+     * The DER encoding of the certificate, read-only.
+     */
+    public ByteBuffer certificateDer() {
+        return ByteBuffer.wrap(certificate).asReadOnlyBuffer();
+    }
+
+    /**
+     * The PKCS#8 encoding of the private key, read-only, or {@code null} without private key.
+     */
+    public ByteBuffer privateKeyDer() {
+        return privateKey == null ? null : ByteBuffer.wrap(privateKey).asReadOnlyBuffer();
+    }
+
+    /**
+     * The certificate as single-line PEM text, rendered on each call.
+     */
+    public String encodedCert() {
+        return new String(ExportUtil.exportToPemBytes("CERTIFICATE", certificate), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * The private key as single-line PEM text, rendered on each call, or {@code null} without private key.
+     */
+    public String privateKey() {
+        if (privateKey == null) {
+            return null;
+        }
+        byte[] pem = ExportUtil.exportPrivateKeyToPemBytes(privateKey);
+        try {
+            return new String(pem, StandardCharsets.US_ASCII);
+        } finally {
+            Arrays.fill(pem, (byte) 0);
+        }
+    }
+
+    /**
+     * Renders this response as a {@link CertificateResponse}.
+     */
+    public CertificateResponse toCertificateResponse() {
+        return new CertificateResponse(encodedCert(), privateKey());
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CompactCertificateResponse response
+                && Arrays.equals(certificate, response.certificate)
+                && Arrays.equals(privateKey, response.privateKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(certificate) + Arrays.hashCode(privateKey);
+    }
+
+    // The private key is left out, as in logs it would leak
+    @Override
+    public String toString() {
+        return "CompactCertificateResponse[certificate=" + certificate.length + " bytes, privateKey="
+                + (privateKey == null ? "none" : privateKey.length + " bytes") + "]";
+    }
+}
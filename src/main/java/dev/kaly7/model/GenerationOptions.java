@@ -0,0 +1,128 @@
+package dev.kaly7.model;
+
+/**
+ * Options controlling a certificate generation batch.
+ *
+ * <p>Instances are created through {@link #builder(String)}, which starts from the defaults used by
+ * the command line when no option is given.</p>
+ *
+ * @param targetFolder    the directory where the generated files are written.
+ * @param resume          whether entries recorded as completed in the progress journal of a previous
+ *                        run should be skipped.
+ * @param shard           the part of the input this process is responsible for.
+ * @param heapBudgetBytes the heap the certificates in flight may use, which bounds how many entries
+ *                        are processed at the same time.
+ * @param encoding        the encoding of the certificate and key files.
+ * @param verifySampleRate the share, between 0 and 1, of the issued certificates checked against the
+ *                        issuer and the request before they are written; 0 disables verification.
+ * @param keystore        whether the certificates are written as PKCS#12 keystores rather than in
+ *                        {@code encoding}.
+ * @param keystorePassword the password protecting the keystores, or {@code null} without keystores.
+ * @param csrFolder       the directory of the certification requests, {@code <authorizationNumber>.csr},
+ *                        of the entries without an embedded one, or {@code null} to generate key pairs for them.
+ */
+public record GenerationOptions(String targetFolder, boolean resume, ShardSpec shard, long heapBudgetBytes,
+                                OutputEncoding encoding, double verifySampleRate, KeystoreMode keystore,
+                                char[] keystorePassword, String csrFolder) {
+
+    public GenerationOptions {
+        if (verifySampleRate < 0 || verifySampleRate > 1) {
+            throw new IllegalArgumentException("Verification sample rate must be between 0 and 1: " + verifySampleRate);
+        }
+        if (keystore != KeystoreMode.NONE && keystorePassword == null) {
+            throw new IllegalArgumentException("A keystore password is needed to write keystores");
+        }
+        // The entries of a bundle are only written when the input is complete, not as they are journaled
+        if (keystore == KeystoreMode.BUNDLE && resume) {
+            throw new IllegalArgumentException("A keystore bundle cannot be resumed");
+        }
+    }
+
+    public static final long DEFAULT_HEAP_BUDGET_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Starts building options that write into the given folder.
+     *
+     * @param targetFolder the directory where the generated files are written.
+     * @return a builder initialised with the default options.
+     */
+    public static Builder builder(String targetFolder) {
+        return new Builder(targetFolder);
+    }
+
+    /**
+     * The same options, writing into another folder.
+     *
+     * @param targetFolder the directory where the generated files are written.
+     * @return the options.
+     */
+    public GenerationOptions withTargetFolder(String targetFolder) {
+        return new GenerationOptions(targetFolder, resume, shard, heapBudgetBytes, encoding, verifySampleRate,
+                keystore, keystorePassword, csrFolder);
+    }
+
+    // The password is left out
+    @Override
+    public String toString() {
+        return "GenerationOptions[targetFolder=" + targetFolder + ", resume=" + resume + ", shard=" + shard
+                + ", heapBudgetBytes=" + heapBudgetBytes + ", encoding=" + encoding
+                + ", verifySampleRate=" + verifySampleRate + ", keystore=" + keystore + ", csrFolder=" + csrFolder + "]";
+    }
+
+    public static final class Builder {
+        private final String targetFolder;
+        private boolean resume;
+        private ShardSpec shard = ShardSpec.NONE;
+        private long heapBudgetBytes = DEFAULT_HEAP_BUDGET_BYTES;
+        private OutputEncoding encoding = OutputEncoding.PEM;
+        private double verifySampleRate;
+        private KeystoreMode keystore = KeystoreMode.NONE;
+        private char[] keystorePassword;
+        private String csrFolder;
+
+        private Builder(String targetFolder) {
+            this.targetFolder = targetFolder;
+        }
+
+        public Builder resume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        public Builder shard(ShardSpec shard) {
+            this.shard = shard;
+            return this;
+        }
+
+        public Builder heapBudgetBytes(long heapBudgetBytes) {
+            this.heapBudgetBytes = heapBudgetBytes;
+            return this;
+        }
+
+        public Builder encoding(OutputEncoding encoding) {
+            this.encoding = encoding;
+            return this;
+        }
+
+        public Builder verifySampleRate(double verifySampleRate) {
+            this.verifySampleRate = verifySampleRate;
+            return this;
+        }
+
+        public Builder keystore(KeystoreMode keystore, char[] keystorePassword) {
+            this.keystore = keystore;
+            this.keystorePassword = keystorePassword;
+            return this;
+        }
+
+        public Builder csrFolder(String csrFolder) {
+            this.csrFolder = csrFolder;
+            return this;
+        }
+
+        public GenerationOptions build() {
+            return new GenerationOptions(targetFolder, resume, shard, heapBudgetBytes, encoding, verifySampleRate,
+                    keystore, keystorePassword, csrFolder);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package dev.kaly7.model;
+
+/**
+ * A {@link RequestRecord} that has been bound and validated, ready for certificate generation.
+ *
+ * @param record  the input entry the request was read from.
+ * @param request the validated certificate request.
+ */
+public record IngestedRequest(RequestRecord record, CertificateRequest request) {
+}
@@ -0,0 +1,24 @@
+package dev.kaly7.model;
+
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+/**
+ * A freshly issued certificate together with the private key of its subject, before it is exported.
+ *
+ * @param certificate the issued certificate.
+ * @param privateKey  the private key matching the certificate's public key, or {@code null} when the
+ *                    certificate was issued for the key of a certification request.
+ * @param chain       the certificate of the issuer followed by those of its own issuers up to the root,
+ *                    or empty if the issuer certificate is not known.
+ */
+public record IssuedCertificate(X509Certificate certificate, PrivateKey privateKey, List<X509Certificate> chain) {
+
+    /**
+     * A certificate whose chain is not known.
+     */
+    public IssuedCertificate(X509Certificate certificate, PrivateKey privateKey) {
+        this(certificate, privateKey, List.of());
+    }
+}
@@ -5,13 +5,15 @@ import org.bouncycastle.asn1.x500.X500Name;
 import java.security.PrivateKey;
 
 /**
- * Represents the data associated with an issuer, including its X500 name and private key.
+ * Represents the data associated with an issuer, including its X500 name, private key and the
+ * algorithm it signs certificates with.
  * This record encapsulates the information required to identify the issuer and securely manage its key.
  *
- * <p>The {@code IssuerData} record contains two fields:</p>
+ * <p>The {@code IssuerData} record contains three fields:</p>
  * <ul>
  *     <li>{@code x500name} - An instance of {@link X500Name} representing the issuer's distinguished name.</li>
  *     <li>{@code privateKey} - An instance of {@link PrivateKey} representing the issuer's private key.</li>
+ *     <li>{@code signatureAlgorithm} - The JCA name of the signature algorithm used with the private key.</li>
  * </ul>
  *
  * <p>Usage example:</p>
@@ -19,12 +21,23 @@ import java.security.PrivateKey;
  * {@code
  * X500Name issuerName = new X500Name("CN=Example Issuer, O=Example Org, C=US");
  * PrivateKey issuerKey = ...; // Obtain the private key
- * IssuerData issuerData = new IssuerData(issuerName, issuerKey);
+ * IssuerData issuerData = new IssuerData(issuerName, issuerKey, "SHA256WithECDSA");
  * }
  * </pre>
  *
  * @param x500name the X500 name of the issuer
  * @param privateKey the private key of the issuer
+ * @param signatureAlgorithm the JCA name of the algorithm the issuer signs certificates with
  */
-public record IssuerData(X500Name x500name, PrivateKey privateKey) {
+public record IssuerData(X500Name x500name, PrivateKey privateKey, String signatureAlgorithm) {
+
+    /**
+     * Creates issuer data signing with the SHA-256 with RSA algorithm, for RSA issuer keys.
+     *
+     * @param x500name the X500 name of the issuer
+     * @param privateKey the RSA private key of the issuer
+     */
+    public IssuerData(X500Name x500name, PrivateKey privateKey) {
+        this(x500name, privateKey, "SHA256WithRSAEncryption");
+    }
 }
@@ -0,0 +1,26 @@
+package dev.kaly7.model;
+
+/**
+ * Whether, and how, the certificates and private keys of a batch are written as PKCS#12 keystores
+ * instead of separate certificate and key files.
+ */
+public enum KeystoreMode {
+
+    /**
+     * No keystore: the files of the {@link OutputEncoding} of the batch.
+     */
+    NONE,
+
+    /**
+     * One keystore per TPP, {@code <authorizationNumber>/<authorizationNumber>.p12}, holding its key
+     * and certificate under the alias {@code <authorizationNumber>}, with the issuer certificate.
+     */
+    PER_TPP,
+
+    /**
+     * A single keystore per input, {@code <input name>.p12}, holding every key and certificate of the
+     * input under the alias of its authorization number, with the issuer certificate. It is written
+     * once the whole input has been generated.
+     */
+    BUNDLE
+}
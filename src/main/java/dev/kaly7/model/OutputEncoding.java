@@ -0,0 +1,18 @@
+package dev.kaly7.model;
+
+/**
+ * Encoding of the certificate and private key files written for each TPP.
+ */
+public enum OutputEncoding {
+
+    /**
+     * Base64 PEM blocks: {@code <authorizationNumber>-encodedCert.pem} and {@code <authorizationNumber>-privateKey.key}.
+     */
+    PEM,
+
+    /**
+     * Raw binary encodings: the DER certificate in {@code <authorizationNumber>-encodedCert.der} and the
+     * PKCS#8 private key in {@code <authorizationNumber>-privateKey.p8}.
+     */
+    DER
+}
@@ -0,0 +1,19 @@
+package dev.kaly7.model;
+
+/**
+ * A raw entry read from a TPP input file, before it is bound to a {@link CertificateRequest}.
+ *
+ * <p>Keeping the position of the entry next to its original JSON text allows rejected or failed
+ * entries to be reported against the input file they came from.</p>
+ *
+ * @param ordinal    the zero-based position of the entry within its input file.
+ * @param lineNumber the one-based line on which the entry starts in the input file.
+ * @param payload    the JSON text of the entry.
+ * @param endOffset  the byte offset in the input file just past the entry, or -1 if it was not read from a file.
+ */
+public record RequestRecord(long ordinal, long lineNumber, String payload, long endOffset) {
+
+    public RequestRecord(long ordinal, long lineNumber, String payload) {
+        this(ordinal, lineNumber, payload, -1);
+    }
+}
@@ -0,0 +1,96 @@
+package dev.kaly7.model;
+
+/**
+ * Describes which part of the input a process is responsible for when a batch is split across
+ * several processes sharing the same target folder.
+ *
+ * <p>Entries are partitioned either by their position in the input file or by a hash of their
+ * authorization number. Both are deterministic, so every process computes the same partition
+ * without any coordination beyond agreeing on {@code count}.</p>
+ *
+ * @param index        the zero-based shard handled by this process.
+ * @param count        the total number of shards.
+ * @param partitioning how entries are assigned to shards.
+ */
+public record ShardSpec(int index, int count, Partitioning partitioning) {
+
+    /**
+     * The shard specification of an unsharded run: a single shard owning every entry.
+     */
+    public static final ShardSpec NONE = new ShardSpec(0, 1, Partitioning.INDEX);
+
+    public enum Partitioning {
+        /** Entry {@code n} of the input belongs to shard {@code n mod count}. */
+        INDEX,
+        /** An entry belongs to the shard selected by the hash of its authorization number. */
+        HASH
+    }
+
+    public ShardSpec {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid shard " + index + "/" + count);
+        }
+        if (partitioning == null) {
+            throw new IllegalArgumentException("Shard partitioning must not be null");
+        }
+    }
+
+    /**
+     * Parses a shard specification of the form {@code i/N}.
+     *
+     * @param value        the specification, e.g. {@code 0/4}.
+     * @param partitioning how entries are assigned to shards.
+     * @return the parsed specification.
+     * @throws IllegalArgumentException if the value is not of the form {@code i/N} with {@code 0 <= i < N}.
+     */
+    public static ShardSpec parse(String value, Partitioning partitioning) {
+        int slash = value.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Shard must be given as <index>/<count>: " + value);
+        }
+        try {
+            return new ShardSpec(Integer.parseInt(value.substring(0, slash).trim()),
+                    Integer.parseInt(value.substring(slash + 1).trim()), partitioning);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Shard must be given as <index>/<count>: " + value, e);
+        }
+    }
+
+    public boolean isSharded() {
+        return count > 1;
+    }
+
+    /**
+     * Tells whether the entry at the given input position may belong to this shard. With hash
+     * partitioning every position is accepted, the decision is taken once the entry is bound.
+     */
+    public boolean acceptsOrdinal(long ordinal) {
+        return partitioning != Partitioning.INDEX || Math.floorMod(ordinal, count) == index;
+    }
+
+    /**
+     * Tells whether the entry with the given authorization number may belong to this shard. With
+     * index partitioning every authorization number is accepted.
+     */
+    public boolean acceptsAuthorizationNumber(String authorizationNumber) {
+        return partitioning != Partitioning.HASH || Math.floorMod(mix(authorizationNumber.hashCode()), count) == index;
+    }
+
+    /**
+     * The name of the folder, below the target folder, that receives the output of this shard.
+     */
+    public String folderName() {
+        return "shard-" + index + "-of-" + count;
+    }
+
+    // String.hashCode is specified by the JLS and therefore identical on every JVM; the finalizer of
+    // MurmurHash3 spreads it so that similar authorization numbers do not cluster on one shard.
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -2,6 +2,7 @@ package dev.kaly7.model;
 
 import org.bouncycastle.asn1.x500.X500Name;
 
+import java.math.BigInteger;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.Date;
@@ -35,7 +36,7 @@ public record SubjectData(
         PrivateKey privateKey,
         PublicKey publicKey,
         X500Name x500name,
-        Integer serialNumber,
+        BigInteger serialNumber,
         Date startDate,
         Date endDate,
         boolean ocspCheckNeeded
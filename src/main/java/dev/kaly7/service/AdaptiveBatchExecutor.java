@@ -0,0 +1,277 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Runs the entries of a batch through a CPU-bound stage and then an I/O-bound stage, each on its own
+ * pool of workers sized at run time by a {@link ConcurrencyController}.
+ *
+ * <p>Entries are pulled from the source only when one of the {@code maxInFlight} permits is free,
+ * and a permit is held from the moment an entry is read until its I/O stage completes, so a lazy
+ * source is never read ahead of the workers and the heap a batch uses is bounded whatever its size. The first stage
+ * that fails stops the submission of further entries; the entries already in flight are completed
+ * and the failure is then rethrown to the caller.</p>
+ *
+ * <p>Several batches may run on the same executor at once, from different threads. They then share
+ * its workers and its {@code maxInFlight} permits, so the heap bound holds for all of them together.</p>
+ *
+ * <p>Sources that parse ahead of the workers, such as {@link JsonLinesReader}, take their window from
+ * the {@linkplain #readAhead() read-ahead permits} of the executor, also shared by its batches. An
+ * executor sized from a heap budget keeps 1/{@value #READ_AHEAD_SHARE} of it for them.</p>
+ *
+ * <p>Every {@code intervalMillis}, once at least {@value #MIN_ENTRIES_PER_DECISION} entries went
+ * through the CPU stage since the last decision or after {@value #MAX_INTERVALS_PER_DECISION}
+ * intervals, the throughput of the CPU stage and the depth of the I/O queue are handed to the
+ * controller and the pools are resized to the worker counts it returns.</p>
+ */
+public class AdaptiveBatchExecutor implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveBatchExecutor.class);
+
+    static final long DEFAULT_INTERVAL_MILLIS = 500;
+    static final int MIN_ENTRIES_PER_DECISION = 64;
+    static final int MAX_INTERVALS_PER_DECISION = 20;
+    static final int READ_AHEAD_SHARE = 4;
+
+    private final ThreadPoolExecutor cpuWorkers;
+    private final ThreadPoolExecutor ioWorkers;
+    private final ScheduledExecutorService ticker;
+    private final ConcurrencyController controller;
+    private final int maxInFlight;
+    private final long intervalMillis;
+
+    // Shared by the batches running at once, so that together they stay within the heap bound
+    private final Semaphore permits;
+    private final Semaphore readAhead;
+    private final LongAdder cpuCompleted = new LongAdder();
+    private long lastCpuCompleted;
+    private long lastTickNanos;
+    private int runningBatches;
+    private ScheduledFuture<?> ticks;
+
+    public AdaptiveBatchExecutor(ConcurrencyController controller, int maxInFlight, long intervalMillis) {
+        this(controller, maxInFlight, JsonLinesReader.DEFAULT_READ_AHEAD_RANGES, intervalMillis);
+    }
+
+    /**
+     * @param controller       sizes the pools of both stages.
+     * @param maxInFlight      the entries in flight at most, between the source and the end of their I/O stage.
+     * @param readAheadRanges  the ranges of JSON Lines input that may be parsed ahead of the workers.
+     * @param intervalMillis   the interval between two measurements handed to the controller.
+     */
+    public AdaptiveBatchExecutor(ConcurrencyController controller, int maxInFlight, int readAheadRanges, long intervalMillis) {
+        if (maxInFlight < 1 || readAheadRanges < 1 || intervalMillis < 1) {
+            throw new IllegalArgumentException("In-flight limit, read-ahead and interval must be positive");
+        }
+        ConcurrencyController.Limits limits = controller.limits();
+        this.cpuWorkers = pool("certificate-worker-", limits.cpuWorkers());
+        this.ioWorkers = pool("certificate-writer-", limits.ioWorkers());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "concurrency-controller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.controller = controller;
+        this.maxInFlight = maxInFlight;
+        this.intervalMillis = intervalMillis;
+        this.permits = new Semaphore(maxInFlight);
+        this.readAhead = new Semaphore(readAheadRanges);
+    }
+
+    /**
+     * Creates an executor keeping as many entries in flight as fit in the given heap budget, with a
+     * controller bounded by the number of processors. 1/{@value #READ_AHEAD_SHARE} of the budget is
+     * kept for the entries parsed ahead of the workers, the rest for the entries in flight.
+     *
+     * @param heapBudgetBytes the heap the entries read ahead and in flight may use.
+     * @param bytesPerEntry   the estimated heap used by one entry while it is processed.
+     * @return the executor.
+     */
+    public static AdaptiveBatchExecutor forHeapBudget(long heapBudgetBytes, long bytesPerEntry) {
+        long readAheadBytes = heapBudgetBytes / READ_AHEAD_SHARE;
+        int maxInFlight = maxInFlight(heapBudgetBytes - readAheadBytes, bytesPerEntry);
+        return new AdaptiveBatchExecutor(ConcurrencyController.forProcessors(maxInFlight), maxInFlight,
+                JsonLinesReader.rangesFitting(readAheadBytes), DEFAULT_INTERVAL_MILLIS);
+    }
+
+    static int maxInFlight(long heapBudgetBytes, long bytesPerEntry) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, heapBudgetBytes / bytesPerEntry));
+    }
+
+    private static ThreadPoolExecutor pool(String namePrefix, int size) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(size, size, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, namePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs both stages on every entry of the source and waits for all of them to complete.
+     *
+     * @param source  the entries to process; consumed lazily.
+     * @param cpuStage the CPU-bound work on each entry, called concurrently.
+     * @param ioStage  the I/O-bound work on the result of the CPU stage, called concurrently.
+     * @param <T>     the entry type.
+     * @param <R>     the type of the result of the CPU stage.
+     * @return the number of entries that went through both stages.
+     * @throws RuntimeException the first failure thrown by a stage.
+     */
+    public <T, R> long run(Stream<T> source, Function<T, R> cpuStage, Consumer<R> ioStage) {
+        // The entries of this batch still in flight, to wait for them alone
+        Semaphore batchPermits = new Semaphore(maxInFlight);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        LongAdder processed = new LongAdder();
+
+        startTicking();
+        long start = System.nanoTime();
+
+        Iterator<T> entries = source.iterator();
+        try {
+            while (failure.get() == null) {
+                batchPermits.acquire();
+                permits.acquire();
+                Runnable release = () -> {
+                    permits.release();
+                    batchPermits.release();
+                };
+                T entry;
+                try {
+                    if (!entries.hasNext()) {
+                        release.run();
+                        break;
+                    }
+                    entry = entries.next();
+                } catch (RuntimeException e) {
+                    // A failing source stops the batch like a failing stage, once the entries in flight are done
+                    release.run();
+                    failure.compareAndSet(null, e);
+                    break;
+                }
+                cpuWorkers.execute(() -> {
+                    boolean handedOver = false;
+                    try {
+                        if (failure.get() == null) {
+                            R result = cpuStage.apply(entry);
+                            cpuCompleted.increment();
+                            ioWorkers.execute(() -> {
+                                try {
+                                    if (failure.get() == null) {
+                                        ioStage.accept(result);
+                                        processed.increment();
+                                    }
+                                } catch (RuntimeException e) {
+                                    failure.compareAndSet(null, e);
+                                } finally {
+                                    release.run();
+                                }
+                            });
+                            handedOver = true;
+                        }
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        if (!handedOver) {
+                            release.run();
+                        }
+                    }
+                });
+            }
+            // Wait for the entries of this batch still in flight
+            batchPermits.acquire(maxInFlight);
+            batchPermits.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CertificateGeneratorException("Interrupted while processing batch", e);
+        } finally {
+            stopTicking();
+        }
+
+        ConcurrencyController.Limits limits = controller.limits();
+        logger.info("Batch of {} entries ran in {} ms, ending with {} CPU and {} I/O workers", processed.sum(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), limits.cpuWorkers(), limits.ioWorkers());
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return processed.sum();
+    }
+
+    // The controller is consulted while at least one batch runs
+    private synchronized void startTicking() {
+        if (runningBatches++ == 0) {
+            lastTickNanos = System.nanoTime();
+            lastCpuCompleted = cpuCompleted.sum();
+            ticks = ticker.scheduleAtFixedRate(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void stopTicking() {
+        if (--runningBatches == 0) {
+            ticks.cancel(false);
+        }
+    }
+
+    private synchronized void tick() {
+        long now = System.nanoTime();
+        long completed = cpuCompleted.sum();
+        // Slow entries are measured over longer windows, so that a decision is not taken on a handful of them
+        if (completed - lastCpuCompleted < MIN_ENTRIES_PER_DECISION
+                && now - lastTickNanos < TimeUnit.MILLISECONDS.toNanos(intervalMillis * MAX_INTERVALS_PER_DECISION)) {
+            return;
+        }
+        double throughput = (completed - lastCpuCompleted) * 1e9 / (now - lastTickNanos);
+        lastTickNanos = now;
+        lastCpuCompleted = completed;
+
+        ConcurrencyController.Limits limits = controller.adjust(throughput, ioWorkers.getQueue().size(), ioWorkers.getActiveCount());
+        resize(cpuWorkers, limits.cpuWorkers());
+        resize(ioWorkers, limits.ioWorkers());
+    }
+
+    private static void resize(ThreadPoolExecutor pool, int size) {
+        if (size > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(size);
+            pool.setCorePoolSize(size);
+        } else if (size < pool.getCorePoolSize()) {
+            pool.setCorePoolSize(size);
+            pool.setMaximumPoolSize(size);
+        }
+    }
+
+    public int maxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * The permits of the ranges of JSON Lines input the batches of this executor may parse ahead of
+     * its workers, one per range.
+     */
+    Semaphore readAhead() {
+        return readAhead;
+    }
+
+    /**
+     * The current worker counts of the CPU and I/O stages.
+     */
+    public ConcurrencyController.Limits limits() {
+        return new ConcurrencyController.Limits(cpuWorkers.getCorePoolSize(), ioWorkers.getCorePoolSize());
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+        cpuWorkers.shutdown();
+        ioWorkers.shutdown();
+    }
+}
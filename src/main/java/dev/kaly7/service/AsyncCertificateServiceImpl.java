@@ -0,0 +1,333 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.model.CertificateRequest;
+import dev.kaly7.model.CertificateResponse;
+import dev.kaly7.service.api.AsyncCertificateService;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link AsyncCertificateService} issuing certificates with a {@link CertificateServiceImpl}, on an
+ * executor supplied by the caller.
+ *
+ * <p>The publishers follow the {@link Flow} protocol: a subscriber receives at most as many
+ * responses as it requested, requests are taken from upstream only to meet that demand, and at most
+ * {@code maxConcurrency} of them are generated at the same time. Responses are delivered in the order
+ * of the requests, one at a time, from whichever thread completes them. A failed request ends the
+ * stream with {@code onError} and cancels the rest.</p>
+ */
+public class AsyncCertificateServiceImpl implements AsyncCertificateService {
+
+    private final CertificateServiceImpl certificateService;
+    private final Executor executor;
+    private final int maxConcurrency;
+    private final CertificateRequestValidator requestValidator = new CertificateRequestValidator();
+
+    /**
+     * Generates on the given executor, at most one certificate per processor at a time for each
+     * subscriber.
+     */
+    public AsyncCertificateServiceImpl(CertificateServiceImpl certificateService, Executor executor) {
+        this(certificateService, executor, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param certificateService the service issuing the certificates.
+     * @param executor           the executor the certificates are generated on.
+     * @param maxConcurrency     the number of certificates generated at the same time for each
+     *                           subscriber of a publisher.
+     */
+    public AsyncCertificateServiceImpl(CertificateServiceImpl certificateService, Executor executor, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + maxConcurrency);
+        }
+        this.certificateService = certificateService;
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public CompletableFuture<CertificateResponse> generateAsync(CertificateRequest request) {
+        try {
+            return CompletableFuture.supplyAsync(() -> generate(request), executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public Flow.Publisher<CertificateResponse> generateAll(Iterable<? extends CertificateRequest> requests) {
+        return generateAll(new IterablePublisher<>(requests));
+    }
+
+    @Override
+    public Flow.Publisher<CertificateResponse> generateAll(Flow.Publisher<? extends CertificateRequest> requests) {
+        return subscriber -> requests.subscribe(new GenerationSubscription(Objects.requireNonNull(subscriber)));
+    }
+
+    private CertificateResponse generate(CertificateRequest request) {
+        List<String> violations = requestValidator.validate(request);
+        if (!violations.isEmpty()) {
+            throw new CertificateGeneratorException("Invalid certificate request " + request.authorizationNumber()
+                    + ": " + String.join("; ", violations));
+        }
+        return certificateService.generateResponse.apply(request);
+    }
+
+    // Adds to a demand, capping it at Long.MAX_VALUE which stands for an unbounded demand
+    private static void addDemand(AtomicLong demand, long n) {
+        demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+    }
+
+    /**
+     * Subscribes to the requests for one subscriber of the responses, generating the requests it
+     * receives and delivering their responses in order.
+     *
+     * <p>All signals to the subscriber, and all requests to upstream, are made by {@link #drain},
+     * which only ever runs on one thread at a time.</p>
+     */
+    private final class GenerationSubscription implements Flow.Subscriber<CertificateRequest>, Flow.Subscription {
+        private final Flow.Subscriber<? super CertificateResponse> downstream;
+        private final Queue<CompletableFuture<CertificateResponse>> inProgress = new ConcurrentLinkedQueue<>();
+        // Responses requested by the subscriber and not yet delivered
+        private final AtomicLong demand = new AtomicLong();
+        // Requests asked of upstream and not yet received
+        private final AtomicLong outstanding = new AtomicLong();
+        private final AtomicInteger drainers = new AtomicInteger();
+
+        private volatile Flow.Subscription upstream;
+        private volatile boolean upstreamDone;
+        private volatile Throwable upstreamError;
+        private volatile Throwable protocolError;
+        private volatile boolean cancelled;
+        // Only read and written by drain
+        private boolean terminated;
+
+        GenerationSubscription(Flow.Subscriber<? super CertificateResponse> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            if (upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(CertificateRequest request) {
+            if (cancelled) {
+                return;
+            }
+            CompletableFuture<CertificateResponse> response = generateAsync(request);
+            // Queued before it stops counting as outstanding, so that it is never missing from both
+            inProgress.add(response);
+            outstanding.decrementAndGet();
+            response.whenComplete((result, failure) -> drain());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            upstreamError = throwable;
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                protocolError = new IllegalArgumentException("Non-positive request: " + n);
+            } else {
+                addDemand(demand, n);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (drainers.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                if (!terminated) {
+                    drainOnce();
+                }
+                missed = drainers.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drainOnce() {
+            if (cancelled) {
+                terminate();
+                return;
+            }
+            if (protocolError != null) {
+                fail(protocolError);
+                return;
+            }
+            while (demand.get() > 0) {
+                CompletableFuture<CertificateResponse> next = inProgress.peek();
+                if (next == null || !next.isDone()) {
+                    break;
+                }
+                inProgress.poll();
+                CertificateResponse response;
+                try {
+                    response = next.join();
+                } catch (CompletionException | CancellationException e) {
+                    fail(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                    return;
+                }
+                downstream.onNext(response);
+                if (demand.get() != Long.MAX_VALUE) {
+                    demand.decrementAndGet();
+                }
+                if (cancelled) {
+                    terminate();
+                    return;
+                }
+            }
+
+            if (upstreamDone && inProgress.isEmpty()) {
+                terminated = true;
+                if (upstreamError != null) {
+                    downstream.onError(upstreamError);
+                } else {
+                    downstream.onComplete();
+                }
+            } else if (!upstreamDone) {
+                // Neither more than the subscriber still wants, nor more than the concurrency bound
+                long inFlight = inProgress.size() + outstanding.get();
+                long wanted = Math.min(maxConcurrency - inFlight, demand.get() - inFlight);
+                if (wanted > 0) {
+                    outstanding.addAndGet(wanted);
+                    upstream.request(wanted);
+                }
+            }
+        }
+
+        private void fail(Throwable failure) {
+            terminate();
+            downstream.onError(failure);
+        }
+
+        // Requests not yet started are dropped: a cancelled future is skipped by the executor task
+        private void terminate() {
+            terminated = true;
+            upstream.cancel();
+            for (CompletableFuture<CertificateResponse> response; (response = inProgress.poll()) != null; ) {
+                response.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Publishes the elements of an iterable, reading it as they are requested.
+     */
+    private static final class IterablePublisher<T> implements Flow.Publisher<T> {
+        private final Iterable<? extends T> iterable;
+
+        IterablePublisher(Iterable<? extends T> iterable) {
+            this.iterable = Objects.requireNonNull(iterable);
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super T> subscriber) {
+            Iterator<? extends T> iterator;
+            try {
+                iterator = iterable.iterator();
+            } catch (RuntimeException e) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(e);
+                return;
+            }
+            subscriber.onSubscribe(new IteratorSubscription<>(subscriber, iterator));
+        }
+    }
+
+    private static final class IteratorSubscription<T> implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final Iterator<? extends T> iterator;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger drainers = new AtomicInteger();
+        private volatile boolean cancelled;
+        // Only read and written by drain
+        private boolean done;
+
+        IteratorSubscription(Flow.Subscriber<? super T> subscriber, Iterator<? extends T> iterator) {
+            this.subscriber = subscriber;
+            this.iterator = iterator;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                subscriber.onError(new IllegalArgumentException("Non-positive request: " + n));
+                return;
+            }
+            addDemand(demand, n);
+            if (drainers.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (!cancelled && !done && demand.get() > 0) {
+                    T next;
+                    try {
+                        if (!iterator.hasNext()) {
+                            done = true;
+                            subscriber.onComplete();
+                            break;
+                        }
+                        next = iterator.next();
+                    } catch (RuntimeException e) {
+                        done = true;
+                        subscriber.onError(e);
+                        break;
+                    }
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    subscriber.onNext(next);
+                }
+                missed = drainers.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
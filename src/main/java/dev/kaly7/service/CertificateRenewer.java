@@ -0,0 +1,238 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.model.CertificateRequest;
+import dev.kaly7.model.IssuedCertificate;
+import dev.kaly7.model.OutputEncoding;
+import dev.kaly7.model.PspRole;
+import dev.kaly7.service.api.CertificateSink;
+import org.bouncycastle.asn1.*;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x500.RDN;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x500.style.IETFUtils;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.qualified.QCStatement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Issues again the certificates found by an {@link ExpiryIndex}, with the same subject and PSD2
+ * roles, replacing their files in place.
+ *
+ * <p>The request of each certificate is rebuilt from the certificate itself: the subject attributes
+ * give the organization, common name, locality and authorization number, the PSD2 qcStatement gives
+ * the roles, and the OCSP no-check extension tells whether an OCSP check is needed. Only the validity
+ * is not taken over, as most certificates to renew were issued with a short or negative one; it is
+ * given for the whole renewal instead.</p>
+ *
+ * <p>Certificates are renewed in parallel like the entries of a batch, and written in the encoding
+ * of the file they replace. A new key pair is generated for each, unless the service reuses keys
+ * from a {@link KeyPairCache}. A certificate without a private key file next to it was issued for
+ * a certification request, whose private key stays with its holder: it is renewed for the public
+ * key it certifies, and still no private key file is written.</p>
+ *
+ * <p>The new serial numbers are written into the progress journals of the output folders, in place
+ * of the ones they replace, so that a later merge of the shards reports the certificates on disk.</p>
+ */
+public class CertificateRenewer {
+    private static final Logger logger = LoggerFactory.getLogger(CertificateRenewer.class);
+
+    public static final int DEFAULT_VALIDITY = 365;
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final List<String> PRIVATE_KEY_SUFFIXES = List.of("-privateKey.key", "-privateKey.p8");
+    private static final ASN1ObjectIdentifier ETSI_PSD2_QC_STATEMENT = new ASN1ObjectIdentifier("0.4.0.19495.2");
+    private static final ASN1ObjectIdentifier ETSI_PSD2_ROLES = new ASN1ObjectIdentifier("0.4.0.19495.1");
+    private static final Map<ASN1ObjectIdentifier, PspRole> ROLES = Map.of(
+            ETSI_PSD2_ROLES.branch("1"), PspRole.ASPSP,
+            ETSI_PSD2_ROLES.branch("2"), PspRole.PISP,
+            ETSI_PSD2_ROLES.branch("3"), PspRole.AISP,
+            ETSI_PSD2_ROLES.branch("4"), PspRole.PIISP
+    );
+
+    private static final ThreadLocal<CertificateFactory> CERTIFICATE_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return CertificateFactory.getInstance("X.509");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("X.509 certificate factory not available", e);
+        }
+    });
+
+    private final CertificateServiceImpl certificateService;
+    private final CertificateRequestValidator requestValidator = new CertificateRequestValidator();
+
+    public CertificateRenewer(CertificateServiceImpl certificateService) {
+        this.certificateService = certificateService;
+    }
+
+    // A certificate between the CPU-bound stage that issues its renewal and the I/O-bound stage that writes it
+    private record Renewal(ExpiryIndex.Entry entry, IssuedCertificate issued) {
+    }
+
+    private record SinkKey(Path outputFolder, OutputEncoding encoding) {
+    }
+
+    /**
+     * Renews the given certificates.
+     *
+     * @param entries         the certificates to renew, e.g. from {@link ExpiryIndex#expiringWithin}.
+     * @param validity        the validity of the new certificates, in days.
+     * @param heapBudgetBytes the heap the certificates in flight may use.
+     * @return the number of certificates renewed.
+     * @throws CertificateGeneratorException if a certificate cannot be read, rebuilt into a valid
+     *                                       request or written; renewal stops at the first one.
+     */
+    public long renew(List<ExpiryIndex.Entry> entries, int validity, long heapBudgetBytes) {
+        long start = System.nanoTime();
+        // One sink per output folder and encoding, as the entries may come from several shards
+        Map<SinkKey, CertificateSink> sinks = new ConcurrentHashMap<>();
+        // The new serial numbers by output folder and authorization number, for the journals of the folder
+        Map<Path, Map<String, BigInteger>> serialNumbers = new ConcurrentHashMap<>();
+        long renewed;
+        try (AdaptiveBatchExecutor executor = AdaptiveBatchExecutor.forHeapBudget(heapBudgetBytes,
+                CertificateServiceImpl.ESTIMATED_BYTES_PER_ENTRY);
+             ProgressReporter progress = ProgressReporter.start("renewal", entries.size(), ProgressReporter.DEFAULT_INTERVAL_MILLIS)) {
+            renewed = executor.run(entries.stream(), entry -> {
+                X509Certificate certificate = readCertificate(entry.certificate());
+                CertificateRequest request = requestFor(certificate, validity);
+                List<String> violations = requestValidator.validate(request);
+                if (!violations.isEmpty()) {
+                    throw new CertificateGeneratorException("Cannot renew " + entry.certificate() + ": "
+                            + String.join("; ", violations));
+                }
+                return new Renewal(entry, hasPrivateKey(entry.certificate())
+                        ? certificateService.issueCertificate.apply(request)
+                        : certificateService.issueCertificateFor.apply(request, certificate.getPublicKey()));
+            }, renewal -> {
+                Path certificate = renewal.entry().certificate();
+                Path tppFolder = certificate.getParent();
+                OutputEncoding encoding = certificate.getFileName().toString().endsWith(".der")
+                        ? OutputEncoding.DER
+                        : OutputEncoding.PEM;
+                CertificateSink sink = sinks.computeIfAbsent(new SinkKey(tppFolder.getParent(), encoding),
+                        key -> new FileCertificateSink(key.outputFolder(), key.encoding()));
+                try {
+                    sink.write(tppFolder.getFileName().toString(), renewal.issued());
+                    serialNumbers.computeIfAbsent(tppFolder.getParent(), folder -> new ConcurrentHashMap<>())
+                            .put(tppFolder.getFileName().toString(), renewal.issued().certificate().getSerialNumber());
+                    progress.completed();
+                    progress.advanced(1);
+                } catch (IOException e) {
+                    throw new CertificateGeneratorException("Could not write the renewal of " + certificate, e);
+                }
+            });
+        } finally {
+            // The files already replaced are recorded even when the renewal stops on a later one
+            serialNumbers.forEach(CertificateRenewer::recordInJournals);
+        }
+        logger.info("Renewed {} of {} certificates for {} days in {} ms", renewed, entries.size(), validity,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return renewed;
+    }
+
+    // Writes the new serial numbers into the journals of an output folder, which are the manifest of its shard
+    private static void recordInJournals(Path outputFolder, Map<String, BigInteger> serialNumbers) {
+        List<Path> journals;
+        try (Stream<Path> files = Files.list(outputFolder)) {
+            journals = files.filter(file -> file.getFileName().toString().endsWith(JOURNAL_SUFFIX)).sorted().toList();
+        } catch (IOException e) {
+            throw new CertificateGeneratorException("Could not list journals in " + outputFolder, e);
+        }
+        for (Path journal : journals) {
+            try {
+                int recorded = ProgressJournal.recordRenewals(journal, serialNumbers);
+                if (recorded > 0) {
+                    logger.info("Recorded {} renewed serial numbers in journal {}", recorded, journal);
+                }
+            } catch (IOException e) {
+                throw new CertificateGeneratorException("Could not record renewals in journal " + journal, e);
+            }
+        }
+    }
+
+    // Whether the key of a certificate was generated with it, rather than by the holder of a certification request
+    private static boolean hasPrivateKey(Path certificate) {
+        Path tppFolder = certificate.getParent();
+        String authorizationNumber = tppFolder.getFileName().toString();
+        return PRIVATE_KEY_SUFFIXES.stream().anyMatch(suffix -> Files.exists(tppFolder.resolve(authorizationNumber + suffix)));
+    }
+
+    private static X509Certificate readCertificate(Path file) {
+        try {
+            return (X509Certificate) CERTIFICATE_FACTORY.get().generateCertificate(new ByteArrayInputStream(ExpiryIndex.readDer(file)));
+        } catch (IOException | GeneralSecurityException e) {
+            throw new CertificateGeneratorException("Could not read certificate " + file, e);
+        }
+    }
+
+    /**
+     * Rebuilds the request a certificate was issued for, with the given validity.
+     *
+     * @param certificate the certificate to renew.
+     * @param validity    the validity of the renewal, in days.
+     * @return the request.
+     */
+    static CertificateRequest requestFor(X509Certificate certificate, int validity) {
+        X500Name subject = X500Name.getInstance(certificate.getSubjectX500Principal().getEncoded());
+        return new CertificateRequest(
+                attribute(subject, BCStyle.ORGANIZATION_IDENTIFIER),
+                roles(certificate),
+                attribute(subject, BCStyle.O),
+                attribute(subject, BCStyle.OU),
+                attribute(subject, BCStyle.DC),
+                attribute(subject, BCStyle.L),
+                attribute(subject, BCStyle.ST),
+                attribute(subject, BCStyle.C),
+                validity,
+                attribute(subject, BCStyle.CN),
+                certificate.getExtensionValue(OCSPObjectIdentifiers.id_pkix_ocsp_nocheck.getId()) == null
+        );
+    }
+
+    private static String attribute(X500Name name, ASN1ObjectIdentifier type) {
+        RDN[] rdns = name.getRDNs(type);
+        if (rdns.length == 0) {
+            return null;
+        }
+        ASN1Encodable value = rdns[0].getFirst().getValue();
+        // The value as it was requested, without the escaping of its string representation
+        return value instanceof ASN1String string ? string.getString() : IETFUtils.valueToString(value);
+    }
+
+    private static List<PspRole> roles(X509Certificate certificate) {
+        byte[] extension = certificate.getExtensionValue(Extension.qCStatements.getId());
+        if (extension == null) {
+            return List.of();
+        }
+        List<PspRole> roles = new ArrayList<>();
+        ASN1Sequence statements = ASN1Sequence.getInstance(ASN1OctetString.getInstance(extension).getOctets());
+        for (ASN1Encodable element : statements) {
+            QCStatement statement = QCStatement.getInstance(element);
+            if (ETSI_PSD2_QC_STATEMENT.equals(statement.getStatementId())) {
+                ASN1Sequence rolesOfPsp = ASN1Sequence.getInstance(
+                        ASN1Sequence.getInstance(statement.getStatementInfo()).getObjectAt(0));
+                for (ASN1Encodable role : rolesOfPsp) {
+                    PspRole pspRole = ROLES.get(ASN1ObjectIdentifier.getInstance(ASN1Sequence.getInstance(role).getObjectAt(0)));
+                    if (pspRole != null) {
+                        roles.add(pspRole);
+                    }
+                }
+            }
+        }
+        return roles;
+    }
+}
@@ -0,0 +1,116 @@
+package dev.kaly7.service;
+
+import dev.kaly7.model.CertificateRequest;
+import dev.kaly7.model.PspRole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Checks a {@link CertificateRequest} against the constraints declared on the record, plus a few
+ * sanity rules on roles and country, before any key material is generated for it. The signature of
+ * the certification request of a request that has one is verified too.
+ *
+ * <p>The constraints are evaluated by hand instead of through a Bean Validation provider, so no
+ * reflection happens at run time and a valid request costs a handful of comparisons and no
+ * allocation. The bounds below must be kept in line with the annotations on {@link CertificateRequest}.</p>
+ */
+public class CertificateRequestValidator {
+
+    static final int MIN_ROLES = 1;
+    static final int MAX_ROLES = 3;
+    static final int MIN_VALIDITY = -365;
+    static final int MAX_VALIDITY = 365;
+
+    private static final Set<String> ISO_COUNTRIES = Set.of(Locale.getISOCountries());
+
+    /**
+     * Validates the given request.
+     *
+     * @param request the request to validate.
+     * @return the list of violations, or an empty list if the request is valid.
+     */
+    public List<String> validate(CertificateRequest request) {
+        List<String> violations = List.of();
+
+        String authorizationNumber = request.authorizationNumber();
+        if (authorizationNumber == null || authorizationNumber.isBlank()) {
+            violations = add(violations, "authorizationNumber must not be blank");
+        } else if (authorizationNumber.indexOf('/') >= 0 || authorizationNumber.indexOf('\\') >= 0
+                || authorizationNumber.contains("..") || authorizationNumber.equals(".")) {
+            violations = add(violations, "authorizationNumber must not contain path elements");
+        } else if (hasControlCharacter(authorizationNumber)) {
+            // It is a field of the tab and line separated journal, manifest and index files
+            violations = add(violations, "authorizationNumber must not contain control characters");
+        }
+
+        violations = validateRoles(request.roles(), violations);
+
+        if (request.organizationName() == null) {
+            violations = add(violations, "organizationName must not be null");
+        }
+        if (request.commonName() == null) {
+            violations = add(violations, "commonName must not be null");
+        }
+        if (request.validity() < MIN_VALIDITY || request.validity() > MAX_VALIDITY) {
+            violations = add(violations, "validity must be between " + MIN_VALIDITY + " and " + MAX_VALIDITY
+                    + " but was " + request.validity());
+        }
+
+        String countryCode = request.countryCode();
+        if (countryCode != null && !ISO_COUNTRIES.contains(countryCode)) {
+            violations = add(violations, "countryCode '" + countryCode + "' is not an ISO 3166 alpha-2 code");
+        }
+
+        // Proof that the sender holds the key the certificate will be issued for
+        if (request.csr() != null) {
+            Optional<String> csrViolation = CertificationRequests.verify(request.csr());
+            if (csrViolation.isPresent()) {
+                violations = add(violations, csrViolation.get());
+            }
+        }
+        return violations;
+    }
+
+    private List<String> validateRoles(List<PspRole> roles, List<String> violations) {
+        if (roles == null) {
+            return add(violations, "roles must not be null");
+        }
+        if (roles.size() < MIN_ROLES || roles.size() > MAX_ROLES) {
+            violations = add(violations, "roles must contain between " + MIN_ROLES + " and " + MAX_ROLES
+                    + " entries but had " + roles.size());
+        }
+        // Role lists are tiny, a bit mask avoids allocating a set per request
+        int seen = 0;
+        for (PspRole role : roles) {
+            if (role == null) {
+                violations = add(violations, "roles must not contain null entries");
+                continue;
+            }
+            int bit = 1 << role.ordinal();
+            if ((seen & bit) != 0) {
+                violations = add(violations, "role " + role + " is listed more than once");
+            }
+            seen |= bit;
+        }
+        return violations;
+    }
+
+    private static boolean hasControlCharacter(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.isISOControl(value.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> add(List<String> violations, String violation) {
+        List<String> result = violations.isEmpty() ? new ArrayList<>(2) : violations;
+        result.add(violation);
+        return result;
+    }
+}
@@ -1,10 +1,12 @@
 package dev.kaly7.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import dev.kaly7.exception.CertificateGeneratorException;
 import dev.kaly7.model.*;
 import dev.kaly7.service.api.CertificateService;
+import dev.kaly7.service.api.CertificateSink;
 import org.bouncycastle.asn1.*;
 import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
 import org.bouncycastle.asn1.x500.X500NameBuilder;
@@ -15,6 +17,7 @@ import org.bouncycastle.asn1.x509.qualified.QCStatement;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
 import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
 import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.OperatorCreationException;
@@ -22,10 +25,7 @@ import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -33,12 +33,20 @@ import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.*;
 import java.util.stream.Stream;
 
@@ -47,6 +55,12 @@ public class CertificateServiceImpl implements CertificateService {
     private static final String NCA_SHORT_NAME = "FAKENCA";
     private static final ASN1ObjectIdentifier ETSI_QC_STATEMENT = new ASN1ObjectIdentifier("0.4.0.19495.2");
     private static final SecureRandom RANDOM = new SecureRandom();
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final int SERIAL_NUMBER_BITS = 63;
+    // The heap held by one entry between ingestion and the end of its write: about 13 KiB measured
+    // for an RSA 2048 subject key, doubled for the encodings written out of it
+    static final long ESTIMATED_BYTES_PER_ENTRY = 32 * 1024L;
+    private static final ObjectReader REQUEST_READER = new ObjectMapper().readerFor(CertificateRequest.class);
 
     Supplier<IssuerDataService> getIssuerDataService = () -> {
         KeysProvider keysProvider = new KeysProvider();
@@ -61,143 +75,189 @@ public class CertificateServiceImpl implements CertificateService {
 
     private final Logger logger = LoggerFactory.getLogger(CertificateServiceImpl.class);
 
+    private final CertificateRequestValidator requestValidator = new CertificateRequestValidator();
+
     public CertificateServiceImpl() {
         KeysProvider keysProvider = new KeysProvider();
         this.issuerDataService = new IssuerDataService(keysProvider);
     }
 
-    Function<List<InputStream>, List<CertificateRequest>>  parseJsonFile = (jsonFileStreams)-> {
-
-        List<CertificateRequest> certificateRequests = new ArrayList<>();
-        ObjectMapper objectMapper = new ObjectMapper();
-        jsonFileStreams.forEach( jsonFileStream ->
-                {
-                    try {
-                        certificateRequests.add(objectMapper.readValue(jsonFileStream, CertificateRequest.class));
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-        );
-        return certificateRequests;
-    };
-
+    public CertificateServiceImpl(IssuerDataService issuerDataService) {
+        this.issuerDataService = issuerDataService;
+    }
 
-    Function<String, List<InputStream>> getInputStreams = (tppJsonFilePath) -> {
-        List<InputStream> inputStreams = new ArrayList<>();
-        Path path = Paths.get(tppJsonFilePath);
-        try {
-            // Read the JSON file
-            String jsonContent = new String(Files.readAllBytes(path));
-
-            // Parse JSON
-            ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode jsonArray = objectMapper.readTree(jsonContent);
-
-            // Create InputStreams for each JSON object
-            for (JsonNode jsonNode : jsonArray) {
-                // Convert JSON node to string and then to InputStream
-                String jsonString = jsonNode.toString();
-                InputStream inputStream = new ByteArrayInputStream(jsonString.getBytes());
-                inputStreams.add(inputStream);
-            }
+    /**
+     * Issues the certificates of each country through an intermediate NCA of that country, signed by
+     * the issuer of this service, instead of directly by that issuer. See {@link IntermediateCa}.
+     *
+     * <p>The intermediate of a country is created when its first certificate is issued, then kept
+     * with its signing context for the next ones, so that the certificates of different countries are
+     * issued in parallel, each by its own intermediate. Requests without country are still issued by
+     * the root. The chain of every certificate includes its intermediate, and batches write it next to
+     * the certificate in {@code <authorizationNumber>-chain.pem}.</p>
+     *
+     * @return this service.
+     */
+    public CertificateServiceImpl withCountryIntermediates() {
+        this.countryIssuers = new ConcurrentHashMap<>();
+        return this;
+    }
 
-        } catch (IOException e) {
-            throw new RuntimeException("Json File not found or unable to read: " + tppJsonFilePath, e);
-        }
-        return inputStreams;
-    };
+    /**
+     * Issues the certificates of each country through an intermediate NCA of that country, as
+     * {@link #withCountryIntermediates()} does, kept in the given folder: an intermediate created by a
+     * previous run, or by another shard of the same batch, is loaded instead of created again, so that
+     * all the certificates of a country are issued under the same key. See
+     * {@link IntermediateCa#loadOrCreate}.
+     *
+     * @param intermediateFolder the folder the intermediates are kept in.
+     * @return this service.
+     */
+    public CertificateServiceImpl withCountryIntermediates(Path intermediateFolder) {
+        this.intermediateFolder = intermediateFolder;
+        return withCountryIntermediates();
+    }
 
+    /**
+     * A service issuing with the same issuer, and so running the same code, that stores nothing: its
+     * subject keys come from the given function rather than from a key cache, and it creates no
+     * intermediate. Used by {@link PipelineWarmup}.
+     */
+    CertificateServiceImpl detached(Function<CertificateRequest, KeyPair> subjectKeyPairs) {
+        CertificateServiceImpl detached = new CertificateServiceImpl(issuerDataService);
+        detached.subjectKeyPair = subjectKeyPairs;
+        return detached;
+    }
 
-    void saveCertificateAsPem(String targetFolder, String certificate, String pemFileName, String tppUnit) throws IOException {
-        StringBuilder tppFolder = new StringBuilder(targetFolder);
-        Path targetPath;
-        if (targetFolder.endsWith("/")) {
-            targetPath = Paths.get(tppFolder.append(tppUnit).toString());
-        }else {
-            targetPath = Paths.get(tppFolder.append("/").append(tppUnit).toString());
+    // This service, or the one of the intermediate of the country of the request
+    private CertificateServiceImpl issuerFor(CertificateRequest request) {
+        if (countryIssuers == null || request.countryCode() == null) {
+            return this;
         }
-        createDirectories(targetPath);
-
-        Path filepath = targetPath.resolve(pemFileName);
-
-        writeToFile(filepath, certificate,
-                content -> {
-                    try {
-                        writeFile(content, filepath);
-                    } catch (IOException e) {
-                        logger.error("Error writing the certificate to PEM file: {}", filepath, e);
-                        throw new RuntimeException(e);
-                    }
+        CompletableFuture<CertificateServiceImpl> issuer = countryIssuers.get(request.countryCode());
+        if (issuer == null) {
+            CompletableFuture<CertificateServiceImpl> created = new CompletableFuture<>();
+            issuer = countryIssuers.putIfAbsent(request.countryCode(), created);
+            if (issuer == null) {
+                // Created outside of the map, so that generating its key locks no other country
+                try {
+                    created.complete(createCountryIssuer(request.countryCode()));
+                } catch (RuntimeException e) {
+                    // Tried again by the next request of that country
+                    countryIssuers.remove(request.countryCode(), created);
+                    created.completeExceptionally(e);
+                    throw e;
                 }
-        );
-    }
-
-    private void createDirectories(Path path) throws IOException {
+                issuer = created;
+            }
+        }
         try {
-            Files.createDirectories(path);
-        } catch (IOException e) {
-            logger.error("Error creating directories: {}", path, e);
-            throw e;
+            return issuer.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
         }
     }
 
-    private void writeToFile(Path filepath, String content, Consumer<String> fileWriter) {
-        fileWriter.accept(content);
-        logger.info("PEM file created: {}", filepath);
-    }
-
-    private void writeFile(String content, Path filepath) throws IOException {
-        try (BufferedWriter writer = Files.newBufferedWriter(filepath)) {
-            writer.write(content);
+    private CertificateServiceImpl createCountryIssuer(String countryCode) {
+        IssuerDataService intermediate;
+        if (intermediateFolder != null) {
+            intermediate = IntermediateCa.loadOrCreate(issuerDataService, countryCode, intermediateFolder);
+        } else {
+            intermediate = IntermediateCa.create(issuerDataService, countryCode);
+            logger.info("Intermediate CA created: {}", intermediate.getIssuerData().x500name());
         }
+        CertificateServiceImpl issuer = new CertificateServiceImpl(intermediate);
+        // Subject keys still come from this service, and its key cache if it has one
+        issuer.subjectKeyPair = subjectRequest -> subjectKeyPair.apply(subjectRequest);
+        return issuer;
     }
 
-    private void savePemFiles(String targetFolder, List<CertificateResponse> responses, List<String> authNumbers) {
-
-        int i = 0;
-        while (i < responses.size()) {
+    /**
+     * Reuses the subject key pairs stored in the given cache, keyed by authorization number, instead
+     * of generating new ones, and stores the ones it generates. Meant for fixtures generated again and
+     * again: certificates are still issued with fresh serial numbers and dates.
+     *
+     * @param keyCache the cache of key pairs.
+     * @return this service.
+     */
+    public CertificateServiceImpl withKeyCache(KeyPairCache keyCache) {
+        this.keyCache = keyCache;
+        this.subjectKeyPair = request -> keyCache.get(request.authorizationNumber(), generateKeyPair);
+        return this;
+    }
 
-            CertificateResponse finalResponse = responses.get(i);
-            String authNumber = authNumbers.get(i);
-            saveToFile(
-                    authNumber+"-encodedCert.pem",
-                    certFileName -> logAndSave(targetFolder, certFileName, finalResponse::encodedCert, authNumber)
-            );
+    /**
+     * Binds a single input entry to a {@link CertificateRequest} and validates it.
+     *
+     * <p>Entries that cannot be bound or that violate the request constraints are logged with their
+     * ordinal and line number and rejected, so that no key pair is ever generated for them.</p>
+     */
+    Function<RequestRecord, Optional<IngestedRequest>> ingestRecord = (requestRecord) -> ingest(requestRecord, null,
+            request -> true, (rejected, reason) -> logger.warn("Rejected record #{} at line {}: {}",
+                    rejected.ordinal(), rejected.lineNumber(), reason.getMessage()));
 
-            saveToFile(
-                    authNumber+"-privateKey.key",
-                    keyFileName -> logAndSave(targetFolder, keyFileName, finalResponse::privateKey, authNumber)
-            );
-            i++;
+    /**
+     * Binds and validates an input entry as {@link #ingestRecord} does, handing the entries rejected
+     * to the given consumer with the reason. Entries that bind but are not wanted, being of another
+     * shard or already completed, are dropped right after binding, without being validated or
+     * rejected. With a CSR folder, an entry without an embedded certification request takes
+     * {@code <csrFolder>/<authorizationNumber>.csr}, whose signature is verified, and is rejected if
+     * there is none.
+     */
+    private Optional<IngestedRequest> ingest(RequestRecord requestRecord, Path csrFolder,
+                                             Predicate<CertificateRequest> wanted,
+                                             BiConsumer<RequestRecord, RuntimeException> rejected) {
+        CertificateRequest request;
+        try {
+            request = REQUEST_READER.readValue(requestRecord.payload());
+        } catch (JsonProcessingException e) {
+            rejected.accept(requestRecord, new CertificateGeneratorException(e.getOriginalMessage(), e));
+            return Optional.empty();
+        }
+        if (!wanted.test(request)) {
+            return Optional.empty();
         }
-    }
 
-    private void saveToFile(String fileName, Consumer<String> fileSaver) {
-        fileSaver.accept(fileName);
+        List<String> violations = requestValidator.validate(request);
+        if (violations.isEmpty() && csrFolder != null && request.csr() == null) {
+            Optional<String> csr = CertificationRequests.read(csrFolder, request.authorizationNumber());
+            if (csr.isPresent()) {
+                request = request.withCsr(csr.get());
+                violations = CertificationRequests.verify(csr.get()).map(List::of).orElse(List.of());
+            } else {
+                violations = List.of("no certification request " + request.authorizationNumber()
+                        + CertificationRequests.CSR_SUFFIX + " in " + csrFolder);
+            }
+        }
+        if (!violations.isEmpty()) {
+            rejected.accept(requestRecord, new CertificateGeneratorException(
+                    "(" + request.authorizationNumber() + ") " + String.join("; ", violations)));
+            return Optional.empty();
+        }
+        return Optional.of(new IngestedRequest(requestRecord, request));
     }
 
-    private void logAndSave(String targetFolder, String fileName, Supplier<String> contentSupplier, String tppUnit) {
+    /**
+     * Hands a certificate to the sink, failing loudly so that an entry is never recorded as completed
+     * when its files could not be written; the batch sets that entry aside and goes on.
+     *
+     * @return the location the certificate was written to.
+     */
+    private Path writeCertificate(CertificateSink sink, String authNumber, IssuedCertificate issued) {
         try {
-            logger.info("Saving file to: {}", fileName);
-            saveCertificateAsPem(targetFolder, contentSupplier.get(), fileName, tppUnit);
+            return sink.write(authNumber, issued);
         } catch (IOException e) {
-            logger.error("Error saving file: {}", fileName, e);
+            throw new CertificateGeneratorException("Could not save certificate files for " + authNumber, e);
         }
     }
 
-    private final Function<List<CertificateRequest>, List<String>> getAuthorizationNumbers = (requests) ->
-            requests.stream()
-                    .map(CertificateRequest::authorizationNumber)
-                    .toList();
-
     /**
      * Generates PEM files for certificates based on the provided JSON file and saves them to the specified target folder.
      *
      * <p>This method performs the following steps:
      * <ol>
      *   <li>Validates the input parameters: `tppJsonFilePath` and `targetFolder`. If either of these is invalid, an error is logged, and the method returns.</li>
-     *   <li>Attempts to process the JSON file located at `tppJsonFilePath`. This involves opening the file, parsing it into a `CertificateRequest`, generating a `CertificateResponse`, and saving the result as PEM files.</li>
+     *   <li>Attempts to process the JSON file located at `tppJsonFilePath`. This involves opening the file, parsing it into `CertificateRequest`s, rejecting the entries that fail validation, generating a `CertificateResponse`, and saving the result as PEM files.</li>
      *   <li>Logs the status of the operation, including whether the certificate generation was successful or if an error occurred during the process.</li>
      * </ol>
      *
@@ -206,19 +266,233 @@ public class CertificateServiceImpl implements CertificateService {
      */
     @Override
     public void generatePemFilesCerts(String tppJsonFilePath, String targetFolder) {
-        validateInputs.apply(tppJsonFilePath, targetFolder)
-                .flatMap(path -> handleFile(
-                        () -> getInputStreams.apply(path),
-                        jsonFileStreams -> parseJsonFile.apply(jsonFileStreams),
-                        requests -> generateCertificate.apply(requests),
-                        (responses, requests) -> savePemFiles(targetFolder, responses, getAuthorizationNumbers.apply(requests))
-                ))
+        generateCertificates(tppJsonFilePath, GenerationOptions.builder(targetFolder).build());
+    }
+
+    /**
+     * Generates certificates for every valid entry of the given JSON file, writing each one to disk as
+     * soon as it is generated.
+     *
+     * <p>Files ending in {@code .jsonl} or {@code .ndjson} are read as JSON Lines, one entry per line,
+     * and parsed on all cores by {@link JsonLinesReader}; other files hold a JSON array or object.</p>
+     *
+     * <p>Every entry whose files have been written is recorded in a progress journal kept next to the
+     * output ({@code <targetFolder>/<input file name>.journal}). With {@link GenerationOptions#resume()}
+     * set, the entries the journal already holds are skipped, so an interrupted batch continues where
+     * it stopped instead of starting over.</p>
+     *
+     * <p>When {@link GenerationOptions#shard()} designates one shard out of several, only the entries
+     * of that shard are generated, into {@code <targetFolder>/shard-<i>-of-<N>}. The shards can then be
+     * combined with {@link ShardMerger}.</p>
+     *
+     * <p>Entries are generated in parallel and each certificate is handed to a {@link CertificateSink}
+     * and released as soon as it is issued. Issuing and writing run on separate pools, sized at run
+     * time by a {@link ConcurrencyController} to the throughput of the machine. Entries are read from
+     * the input only as workers free up, at most as many as fit in
+     * {@link GenerationOptions#heapBudgetBytes()}, so the heap used by a batch does not grow with the
+     * size of its input.</p>
+     *
+     * <p>Progress is logged every few seconds by a {@link ProgressReporter}, with the rate, the errors
+     * and the estimated time left; the files written for each certificate are only logged at DEBUG.</p>
+     *
+     * <p>With a {@link GenerationOptions#verifySampleRate()} above 0, that share of the certificates is
+     * checked by a {@link CertificateVerifier} on the worker that issued it, before it is written.</p>
+     *
+     * <p>An entry that cannot be parsed, fails validation, or whose certificate cannot be issued or
+     * written does not stop the batch: it is handed to a {@link DeadLetterWriter}, which writes it to
+     * {@code <targetFolder>/<input file name>.dead-letter.jsonl}, and the other entries carry on.</p>
+     *
+     * @param tppJsonFilePath the path to the JSON file containing the certificate data.
+     * @param options         the batch options, including the target folder.
+     */
+    @Override
+    public void generateCertificates(String tppJsonFilePath, GenerationOptions options) {
+        validateInputs.apply(tppJsonFilePath, options.targetFolder())
+                .flatMap(path -> processFile(Paths.get(path), options))
                 .ifPresentOrElse(
-                        success -> logger.info("Certificate generation completed successfully."),
-                        ()-> logger.error("Error during certificate generation")
+                        written -> logger.info("Certificate generation completed successfully, {} certificates written.", written),
+                        () -> logger.error("Error during certificate generation")
                 );
     }
 
+    private static Path outputFolder(GenerationOptions options) {
+        ShardSpec shard = options.shard();
+        return shard.isSharded()
+                ? Paths.get(options.targetFolder(), shard.folderName())
+                : Paths.get(options.targetFolder());
+    }
+
+    /**
+     * The progress journal {@link #processFile} keeps for the given input.
+     */
+    static Path journalFile(Path tppJsonFile, GenerationOptions options) {
+        return outputFolder(options).resolve(tppJsonFile.getFileName() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * The dead-letter output {@link #processFile} writes for the given input when some of its entries fail.
+     */
+    static Path deadLetterFile(Path tppJsonFile, GenerationOptions options) {
+        return outputFolder(options).resolve(tppJsonFile.getFileName() + DeadLetterWriter.DEAD_LETTER_SUFFIX);
+    }
+
+    Optional<Long> processFile(Path tppJsonFile, GenerationOptions options) {
+        try (AdaptiveBatchExecutor executor = AdaptiveBatchExecutor.forHeapBudget(options.heapBudgetBytes(), ESTIMATED_BYTES_PER_ENTRY)) {
+            return processFile(tppJsonFile, options, executor);
+        }
+    }
+
+    /**
+     * Processes a file on the given executor, which other files may be using at the same time.
+     *
+     * @return the number of certificates written, or empty if the progress journal could not be written.
+     */
+    Optional<Long> processFile(Path tppJsonFile, GenerationOptions options, AdaptiveBatchExecutor executor) {
+        ShardSpec shard = options.shard();
+        Path outputFolder = outputFolder(options);
+        Path journalFile = journalFile(tppJsonFile, options);
+        Path csrFolder = options.csrFolder() == null ? null : Paths.get(options.csrFolder());
+
+        try (ProgressJournal journal = ProgressJournal.open(journalFile, tppJsonFile, options.resume());
+             ProgressReporter progress = ProgressReporter.start(tppJsonFile.getFileName().toString(),
+                     tppJsonFile.toFile().length(), ProgressReporter.DEFAULT_INTERVAL_MILLIS);
+             CertificateSink sink = createSink(tppJsonFile, outputFolder, options);
+             DeadLetterWriter deadLetters = new DeadLetterWriter(deadLetterFile(tppJsonFile, options))) {
+            // Entries of other shards or already completed are skipped before being bound when their
+            // position tells, otherwise right after, before any validation or CSR lookup
+            Predicate<CertificateRequest> wanted = request -> shard.acceptsAuthorizationNumber(request.authorizationNumber())
+                    && !journal.isCompleted(request.authorizationNumber());
+            BiConsumer<RequestRecord, RuntimeException> rejected = (requestRecord, reason) -> {
+                deadLetters.add(requestRecord, DeadLetterWriter.Stage.VALIDATION, reason);
+                progress.failed();
+            };
+            Function<RequestRecord, Optional<IngestedRequest>> ingest = requestRecord -> {
+                progress.advancedTo(requestRecord.endOffset());
+                if (!shard.acceptsOrdinal(requestRecord.ordinal()) || journal.isCompleted(requestRecord.ordinal())) {
+                    return Optional.empty();
+                }
+                try {
+                    return ingest(requestRecord, csrFolder, wanted, rejected);
+                } catch (RuntimeException e) {
+                    rejected.accept(requestRecord, e);
+                    return Optional.empty();
+                }
+            };
+            long written;
+            try (Stream<IngestedRequest> ingested = readIngested(tppJsonFile, ingest, executor.readAhead())) {
+                written = generate(ingested, journal, executor, sink, deadLetters, progress, options);
+            }
+            if (keyCache != null) {
+                logger.info("Subject keys from {}", keyCache);
+            }
+            return Optional.of(written);
+        } catch (IOException e) {
+            logger.error("Error writing progress journal {} or output of {}", journalFile, tppJsonFile, e);
+            return Optional.empty();
+        }
+    }
+
+    private CertificateSink createSink(Path tppJsonFile, Path outputFolder, GenerationOptions options) {
+        return switch (options.keystore()) {
+            case NONE -> new FileCertificateSink(outputFolder, options.encoding());
+            case PER_TPP -> KeystoreCertificateSink.perTpp(outputFolder, keystoreEncoder(options.keystorePassword()));
+            case BUNDLE -> KeystoreCertificateSink.bundle(outputFolder.resolve(KeystoreCertificateSink.bundleName(tppJsonFile)),
+                    keystoreEncoder(options.keystorePassword()));
+        };
+    }
+
+    // The key derivation is paid once for all the inputs sharing a password, not once per keystore
+    private synchronized Pkcs12Encoder keystoreEncoder(char[] password) {
+        if (keystoreEncoder == null || !Arrays.equals(keystorePassword, password)) {
+            keystoreEncoder = new Pkcs12Encoder(password);
+            keystorePassword = password.clone();
+        }
+        return keystoreEncoder;
+    }
+
+    // JSON Lines files are bound on all cores, ahead of the workers as far as the executor allows; JSON arrays as they are read
+    private static Stream<IngestedRequest> readIngested(Path tppJsonFile, Function<RequestRecord, Optional<IngestedRequest>> ingest,
+                                                        Semaphore readAhead) {
+        if (JsonLinesReader.isJsonLines(tppJsonFile)) {
+            return JsonLinesReader.read(tppJsonFile, ingest, readAhead);
+        }
+        Stream<RequestRecord> records = RequestReader.read(tppJsonFile);
+        return records.map(ingest).flatMap(Optional::stream).onClose(records::close);
+    }
+
+    // An entry between the CPU-bound stage that issues its certificate and the I/O-bound stage that writes it
+    private record IssuedEntry(IngestedRequest request, IssuedCertificate issued) {
+    }
+
+    private long generate(Stream<IngestedRequest> pending, ProgressJournal journal,
+                          AdaptiveBatchExecutor executor, CertificateSink sink, DeadLetterWriter deadLetters,
+                          ProgressReporter progress, GenerationOptions options) {
+        boolean verify = options.verifySampleRate() > 0;
+        if (verify) {
+            // Fails before the first entry if the issuer certificate is missing
+            verifier();
+        }
+        LongAdder verified = new LongAdder();
+        LongAdder written = new LongAdder();
+
+        executor.run(pending, request -> {
+            IssuedCertificate issued;
+            try {
+                issued = issueCertificate.apply(request.request());
+            } catch (RuntimeException e) {
+                // An entry that cannot be issued is set aside, the others carry on
+                deadLetters.add(request.record(), DeadLetterWriter.Stage.GENERATION, e);
+                progress.failed();
+                return Optional.<IssuedEntry>empty();
+            }
+            if (verify && ThreadLocalRandom.current().nextDouble() < options.verifySampleRate()) {
+                // Certificates issued by an intermediate are checked against it
+                verifyCertificate(issuerFor(request.request()).verifier(), request, issued);
+                verified.increment();
+            }
+            return Optional.of(new IssuedEntry(request, issued));
+        }, issuedEntry -> issuedEntry.ifPresent(entry -> {
+            String authNumber = entry.request().request().authorizationNumber();
+            Path location;
+            try {
+                location = writeCertificate(sink, authNumber, entry.issued());
+            } catch (CertificateGeneratorException e) {
+                // Left out of the journal, so that a resumed run tries it again
+                deadLetters.add(entry.request().record(), DeadLetterWriter.Stage.WRITE, e);
+                progress.failed();
+                return;
+            }
+            journal.record(entry.request().record().ordinal(), authNumber, entry.issued().certificate().getSerialNumber(), location);
+            progress.completed();
+            written.increment();
+        }));
+        if (verify) {
+            logger.info("{} of {} certificates verified against the issuer and their request", verified.sum(), written.sum());
+        }
+        return written.sum();
+    }
+
+    // Built on first use and kept, like the signing context of the issuer; a race only builds it twice
+    private CertificateVerifier verifier() {
+        CertificateVerifier current = verifier;
+        if (current == null) {
+            PublicKey issuerPublicKey = issuerDataService.getIssuerPublicKey()
+                    .orElseThrow(() -> new CertificateGeneratorException("Verification needs the issuer certificate"));
+            current = new CertificateVerifier(issuerPublicKey, issuerDataService.getIssuerData().x500name());
+            verifier = current;
+        }
+        return current;
+    }
+
+    // A certificate that fails verification stops the batch before it is written
+    private void verifyCertificate(CertificateVerifier verifier, IngestedRequest ingested, IssuedCertificate issued) {
+        List<String> problems = verifier.verify(ingested.request(), issued.certificate());
+        if (!problems.isEmpty()) {
+            throw new CertificateGeneratorException("Certificate of record #" + ingested.record().ordinal() + " ("
+                    + ingested.request().authorizationNumber() + ") failed verification: " + String.join("; ", problems));
+        }
+    }
+
     private final BiFunction<String, String, Optional<String>> validateInputs = (tppJsonFilePath, targetFolder)-> {
         if (tppJsonFilePath == null || tppJsonFilePath.isEmpty()) {
             logger.error("TPP JSON file path is null or empty.");
@@ -231,27 +505,7 @@ public class CertificateServiceImpl implements CertificateService {
         return Optional.of(tppJsonFilePath);
     };
 
-    <T> Optional<T> handleFile(
-            Supplier<List<InputStream>> inputStreamSuppliers,
-            Function<List<InputStream>, List<CertificateRequest>> jsonParsers,
-            Function<List<CertificateRequest>, List<CertificateResponse>> certGenerator,
-            BiConsumer<List<CertificateResponse>, List<CertificateRequest>> pemSaver) {
-        List<InputStream> jsonFileStreams = inputStreamSuppliers.get();
-        if (jsonFileStreams.isEmpty()) {
-            logger.error("TPP JSON file not found.");
-            return Optional.empty();
-        }
-
-        List<CertificateRequest> requests = jsonParsers.apply(jsonFileStreams);
-        List<CertificateResponse> responses = certGenerator.apply(requests);
-
-        logger.info("Certificate generated successfully");
-        pemSaver.accept(responses, requests);
-
-        return Optional.of((T) responses);
-    }
-
-    private final Supplier<KeyPair> generateKeyPair = ()->{
+    final Supplier<KeyPair> generateKeyPair = ()->{
         try {
             KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
             keyGen.initialize(2048, SecureRandom.getInstance("SHA1PRNG", "SUN"));
@@ -261,7 +515,18 @@ public class CertificateServiceImpl implements CertificateService {
         }
     };
 
-    private final Function<CertificateRequest, SubjectData> generateSubjectData = (cerData) ->{
+    // The key pair of a subject, freshly generated unless a key cache is configured
+    private Function<CertificateRequest, KeyPair> subjectKeyPair = request -> generateKeyPair.get();
+    private KeyPairCache keyCache;
+    private Pkcs12Encoder keystoreEncoder;
+    // The issuers of the countries, by country code, when certificates are issued through intermediates
+    private Map<String, CompletableFuture<CertificateServiceImpl>> countryIssuers;
+    private Path intermediateFolder;
+    private volatile CertificateVerifier verifier;
+    private volatile Optional<Extension> authorityKeyIdentifier;
+    private char[] keystorePassword;
+
+    private final BiFunction<CertificateRequest, KeyPair, SubjectData> generateSubjectData = (cerData, subjectKeys) ->{
         X500NameBuilder builder = new X500NameBuilder(BCStyle.INSTANCE);
 
         // List of pairs: each pair contains a BCStyle constant and a corresponding supplier function from cerData.
@@ -282,8 +547,14 @@ public class CertificateServiceImpl implements CertificateService {
                 LocalDate.now().plusDays(cerData.validity())
                         .atStartOfDay(ZoneOffset.UTC).toInstant()
         );
-        KeyPair keyPairSubject = generateKeyPair.get();
-        Integer serialNumber = RANDOM.nextInt(Integer.MAX_VALUE);
+        // Issued for the key given, or that of the certification request, whose private key stays with the caller
+        KeyPair keyPairSubject = subjectKeys != null
+                ? subjectKeys
+                : cerData.csr() != null
+                ? new KeyPair(CertificationRequests.publicKey(cerData.csr()), null)
+                : subjectKeyPair.apply(cerData);
+        // Wide enough for serials drawn independently by several shard processes not to collide
+        BigInteger serialNumber = new BigInteger(SERIAL_NUMBER_BITS, RANDOM);
 
         return new SubjectData(
                 keyPairSubject.getPrivate(), keyPairSubject.getPublic(), builder.build(),
@@ -382,7 +653,7 @@ public class CertificateServiceImpl implements CertificateService {
      * the following steps to generate an X.509 certificate:</p>
      * <ol>
      *     <li>Retrieves issuer data from the {@code issuerDataService}.</li>
-     *     <li>Creates a {@link ContentSigner} using the issuer's private key.</li>
+     *     <li>Creates a {@link ContentSigner} using the issuer's private key and signature algorithm.</li>
      *     <li>Constructs an {@link X509v3CertificateBuilder} with the provided subject data and issuer data.</li>
      *     <li>Adds the QC statement extension to the certificate builder.</li>
      *     <li>Conditionally adds the OCSP no-check extension if the subject data indicates that OCSP check is not needed.</li>
@@ -399,7 +670,7 @@ public class CertificateServiceImpl implements CertificateService {
      * @see DERSequence
      * @see CertificateGeneratorException
      */
-    private final BiFunction<SubjectData, QCStatement, X509Certificate> generateX509Certificate = (subjectData, statement) -> {
+    final BiFunction<SubjectData, QCStatement, X509Certificate> generateX509Certificate = (subjectData, statement) -> {
         try {
             IssuerData issuerData = issuerDataService.getIssuerData();
 
@@ -410,6 +681,12 @@ public class CertificateServiceImpl implements CertificateService {
             // Add the QC statement extension
             certGen.addExtension(Extension.qCStatements, false, new DERSequence(statement));
 
+            // Tells apart issuers of the same name, such as the intermediates of different runs
+            Optional<Extension> authorityKeyIdentifier = authorityKeyIdentifier();
+            if (authorityKeyIdentifier.isPresent()) {
+                certGen.addExtension(authorityKeyIdentifier.get());
+            }
+
             // Conditionally add the OCSP extension if needed
             if (!subjectData.ocspCheckNeeded()) {
                 certGen.addExtension(createOcspNoCheckExtension());
@@ -423,6 +700,35 @@ public class CertificateServiceImpl implements CertificateService {
         }
     };
 
+    final Function<CertificateRequest, IssuedCertificate> issueCertificate = certificateRequest -> issue(certificateRequest, null);
+
+    /**
+     * Issues a certificate for a subject public key whose private key is held elsewhere, such as the
+     * renewal of a certificate issued for a certification request: no key pair is generated, and the
+     * certificate has no private key.
+     */
+    final BiFunction<CertificateRequest, PublicKey, IssuedCertificate> issueCertificateFor = (certificateRequest, subjectPublicKey) ->
+            issue(certificateRequest, new KeyPair(subjectPublicKey, null));
+
+    private IssuedCertificate issue(CertificateRequest certificateRequest, KeyPair subjectKeys) {
+        CertificateServiceImpl issuer = issuerFor(certificateRequest);
+        if (issuer != this) {
+            return issuer.issue(certificateRequest, subjectKeys);
+        }
+        SubjectData subjectData = generateSubjectData.apply(certificateRequest, subjectKeys);
+        QCStatement qcStatement = generateQcStatement.apply(certificateRequest);
+        X509Certificate cert = generateX509Certificate.apply(subjectData, qcStatement);
+        return new IssuedCertificate(cert, subjectData.privateKey(), issuerDataService.getIssuerChain());
+    }
+
+    private final Function<IssuedCertificate, CertificateResponse> exportResponse = issued ->
+            new CertificateResponse(
+                    ExportUtil.exportToString().apply(issued.certificate()),
+                    issued.privateKey() == null ? null : ExportUtil.exportToString().apply(issued.privateKey())
+            );
+
+    final Function<CertificateRequest, CertificateResponse> generateResponse = issueCertificate.andThen(exportResponse);
+
     /**
      * A lambda function for generating a certificate response based on a given certificate request.
      *
@@ -455,26 +761,39 @@ public class CertificateServiceImpl implements CertificateService {
      */
     public Function<List<CertificateRequest>, List<CertificateResponse>> generateCertificate = certificateRequests->
         certificateRequests.stream()
-                .map(certificateRequest -> {
-                    SubjectData subjectData = generateSubjectData.apply(certificateRequest);
-                    QCStatement qcStatement = generateQcStatement.apply(certificateRequest);
-                    X509Certificate cert = generateX509Certificate.apply(subjectData, qcStatement);
-                    return new CertificateResponse(
-                            ExportUtil.exportToString().apply(cert),
-                            ExportUtil.exportToString().apply(subjectData.privateKey())
-                    );
-                })
+                .map(generateResponse)
                 .toList();
 
+    /**
+     * Generates the certificates of the given requests as {@link CompactCertificateResponse}s, which
+     * hold the DER certificate and PKCS#8 key as bytes and render PEM text only on demand. Meant for
+     * callers that retain many responses or want the binary encodings.
+     */
+    public Function<List<CertificateRequest>, List<CompactCertificateResponse>> generateCompactCertificate = certificateRequests ->
+        certificateRequests.stream()
+                .map(issueCertificate.andThen(CompactCertificateResponse::of))
+                .toList();
+
+    // Derived once from the issuer key; empty when the issuer was given without its public key
+    private Optional<Extension> authorityKeyIdentifier() throws NoSuchAlgorithmException, IOException {
+        Optional<Extension> current = authorityKeyIdentifier;
+        if (current == null) {
+            Optional<PublicKey> issuerPublicKey = issuerDataService.getIssuerPublicKey();
+            current = issuerPublicKey.isEmpty() ? Optional.empty() : Optional.of(new Extension(Extension.authorityKeyIdentifier,
+                    false, new JcaX509ExtensionUtils().createAuthorityKeyIdentifier(issuerPublicKey.get()).getEncoded()));
+            authorityKeyIdentifier = current;
+        }
+        return current;
+    }
 
     private ContentSigner createContentSigner(IssuerData issuerData) throws OperatorCreationException {
-        return new JcaContentSignerBuilder("SHA256WithRSAEncryption").build(issuerData.privateKey());
+        return new JcaContentSignerBuilder(issuerData.signatureAlgorithm()).build(issuerData.privateKey());
     }
 
     private X509v3CertificateBuilder createCertificateBuilder(SubjectData subjectData, IssuerData issuerData) {
         return new JcaX509v3CertificateBuilder(
                 issuerData.x500name(),
-                new BigInteger(subjectData.serialNumber().toString()),
+                subjectData.serialNumber(),
                 subjectData.startDate(),
                 subjectData.endDate(),
                 subjectData.x500name(),
@@ -0,0 +1,174 @@
+package dev.kaly7.service;
+
+import dev.kaly7.model.CertificateRequest;
+import dev.kaly7.model.PspRole;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.qualified.QCStatement;
+
+import java.io.ByteArrayInputStream;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Checks that an issued certificate is what its {@link CertificateRequest} asked for, before it is
+ * handed out.
+ *
+ * <p>The certificate is encoded and parsed back, as a consumer would read it, and the parsed
+ * certificate is then checked for:</p>
+ * <ul>
+ *     <li>a signature that verifies against the issuer public key and an issuer name that matches,</li>
+ *     <li>a {@code notAfter} at the start of the day {@code validity} days after issuance and a
+ *     {@code notBefore} that is not in the future,</li>
+ *     <li>PSD2 roles in the qcStatements extension matching the requested roles,</li>
+ *     <li>the OCSP no-check extension, present exactly when no OCSP check is needed.</li>
+ * </ul>
+ *
+ * <p>The role identifiers are those of ETSI TS 119 495 and are deliberately not shared with the
+ * code that builds the certificate, so that a mistake there does not go unnoticed here.</p>
+ *
+ * <p>Instances are immutable and may be used concurrently.</p>
+ */
+public class CertificateVerifier {
+
+    private static final ASN1ObjectIdentifier ETSI_PSD2_QC_STATEMENT = new ASN1ObjectIdentifier("0.4.0.19495.2");
+    private static final ASN1ObjectIdentifier ETSI_PSD2_ROLES = new ASN1ObjectIdentifier("0.4.0.19495.1");
+    private static final Map<PspRole, ASN1ObjectIdentifier> ROLE_OIDS = new EnumMap<>(Map.of(
+            PspRole.ASPSP, ETSI_PSD2_ROLES.branch("1"),
+            PspRole.PISP, ETSI_PSD2_ROLES.branch("2"),
+            PspRole.AISP, ETSI_PSD2_ROLES.branch("3"),
+            PspRole.PIISP, ETSI_PSD2_ROLES.branch("4")
+    ));
+    // Tolerated difference between the clock of the issuer and the one checking notBefore
+    private static final long CLOCK_SKEW_MILLIS = 60_000;
+
+    private static final ThreadLocal<CertificateFactory> CERTIFICATE_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return CertificateFactory.getInstance("X.509");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("X.509 certificate factory not available", e);
+        }
+    });
+
+    private final PublicKey issuerPublicKey;
+    private final X500Name issuerName;
+
+    /**
+     * @param issuerPublicKey the public key of the issuer, parsed once from its certificate.
+     * @param issuerName      the distinguished name of the issuer.
+     */
+    public CertificateVerifier(PublicKey issuerPublicKey, X500Name issuerName) {
+        this.issuerPublicKey = issuerPublicKey;
+        this.issuerName = issuerName;
+    }
+
+    /**
+     * Verifies a certificate issued for the given request.
+     *
+     * @param request     the request the certificate was issued for.
+     * @param certificate the issued certificate.
+     * @return the list of problems found, or an empty list if the certificate is as requested.
+     */
+    public List<String> verify(CertificateRequest request, X509Certificate certificate) {
+        X509Certificate parsed;
+        try {
+            parsed = (X509Certificate) CERTIFICATE_FACTORY.get()
+                    .generateCertificate(new ByteArrayInputStream(certificate.getEncoded()));
+        } catch (GeneralSecurityException e) {
+            return List.of("certificate cannot be parsed back: " + e.getMessage());
+        }
+
+        List<String> problems = new ArrayList<>();
+        verifySignature(parsed, problems);
+        verifyValidity(request, parsed, problems);
+        verifyRoles(request, parsed, problems);
+        verifyOcspNoCheck(request, parsed, problems);
+        return problems;
+    }
+
+    private void verifySignature(X509Certificate certificate, List<String> problems) {
+        if (!issuerName.equals(X500Name.getInstance(certificate.getIssuerX500Principal().getEncoded()))) {
+            problems.add("issuer " + certificate.getIssuerX500Principal() + " does not match " + issuerName);
+        }
+        try {
+            certificate.verify(issuerPublicKey);
+        } catch (GeneralSecurityException e) {
+            problems.add("signature does not verify against the issuer key: " + e.getMessage());
+        }
+    }
+
+    private static void verifyValidity(CertificateRequest request, X509Certificate certificate, List<String> problems) {
+        Date notBefore = certificate.getNotBefore();
+        if (notBefore.getTime() > System.currentTimeMillis() + CLOCK_SKEW_MILLIS) {
+            problems.add("notBefore " + notBefore.toInstant() + " is in the future");
+        }
+        LocalDate issuanceDate = LocalDate.ofInstant(notBefore.toInstant(), ZoneId.systemDefault());
+        Date notAfter = certificate.getNotAfter();
+        boolean expected = notAfter.equals(expiry(issuanceDate, request.validity()));
+        // The expiry date is taken before the key pair is generated, so just after midnight it may
+        // still count from the previous day
+        LocalDate shortlyBefore = LocalDate.ofInstant(notBefore.toInstant().minusMillis(CLOCK_SKEW_MILLIS), ZoneId.systemDefault());
+        if (!expected && !shortlyBefore.equals(issuanceDate)) {
+            expected = notAfter.equals(expiry(shortlyBefore, request.validity()));
+        }
+        if (!expected) {
+            problems.add("notAfter " + notAfter.toInstant() + " is not " + request.validity() + " days after "
+                    + issuanceDate);
+        }
+    }
+
+    private static Date expiry(LocalDate issuanceDate, int validity) {
+        return Date.from(issuanceDate.plusDays(validity).atStartOfDay(ZoneOffset.UTC).toInstant());
+    }
+
+    private static void verifyRoles(CertificateRequest request, X509Certificate certificate, List<String> problems) {
+        byte[] extension = certificate.getExtensionValue(Extension.qCStatements.getId());
+        if (extension == null) {
+            problems.add("qcStatements extension is missing");
+            return;
+        }
+        Set<ASN1ObjectIdentifier> expected = new HashSet<>();
+        request.roles().forEach(role -> expected.add(ROLE_OIDS.get(role)));
+        try {
+            ASN1Sequence statements = ASN1Sequence.getInstance(ASN1OctetString.getInstance(extension).getOctets());
+            for (ASN1Encodable element : statements) {
+                QCStatement statement = QCStatement.getInstance(element);
+                if (ETSI_PSD2_QC_STATEMENT.equals(statement.getStatementId())) {
+                    Set<ASN1ObjectIdentifier> actual = new HashSet<>();
+                    ASN1Sequence roles = ASN1Sequence.getInstance(
+                            ASN1Sequence.getInstance(statement.getStatementInfo()).getObjectAt(0));
+                    for (ASN1Encodable role : roles) {
+                        actual.add(ASN1ObjectIdentifier.getInstance(ASN1Sequence.getInstance(role).getObjectAt(0)));
+                    }
+                    if (!actual.equals(expected)) {
+                        problems.add("PSD2 roles " + actual + " do not match the requested " + expected);
+                    }
+                    return;
+                }
+            }
+            problems.add("PSD2 qcStatement is missing");
+        } catch (IllegalArgumentException e) {
+            problems.add("qcStatements extension is malformed: " + e.getMessage());
+        }
+    }
+
+    private static void verifyOcspNoCheck(CertificateRequest request, X509Certificate certificate, List<String> problems) {
+        boolean noCheck = certificate.getExtensionValue(OCSPObjectIdentifiers.id_pkix_ocsp_nocheck.getId()) != null;
+        if (noCheck == request.ocspCheckNeeded()) {
+            problems.add(noCheck
+                    ? "OCSP no-check extension is present although an OCSP check is needed"
+                    : "OCSP no-check extension is missing although no OCSP check is needed");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.pkcs.PKCSException;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * Reads PKCS#10 certification requests, given as PEM ({@code -----BEGIN CERTIFICATE REQUEST-----})
+ * or as bare Base64 DER, to issue certificates for keys the callers already hold.
+ */
+public class CertificationRequests {
+
+    static final String CSR_SUFFIX = ".csr";
+    private static final String PEM_BEGIN = "-----BEGIN ";
+
+    private CertificationRequests() {}
+
+    /**
+     * Decodes a certification request.
+     *
+     * @param csr the request, as PEM or Base64 DER.
+     * @return the request.
+     * @throws CertificateGeneratorException if it is not a PKCS#10 request.
+     */
+    public static JcaPKCS10CertificationRequest decode(String csr) {
+        try {
+            return new JcaPKCS10CertificationRequest(Base64.getMimeDecoder().decode(base64(csr)));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new CertificateGeneratorException("Not a PKCS#10 certification request", e);
+        }
+    }
+
+    // The Base64 body of a PEM block, or the text itself; the MIME decoder skips the line breaks
+    private static String base64(String csr) {
+        int begin = csr.indexOf(PEM_BEGIN);
+        if (begin < 0) {
+            return csr;
+        }
+        int bodyStart = csr.indexOf("-----", begin + PEM_BEGIN.length()) + 5;
+        int bodyEnd = csr.indexOf("-----END ", bodyStart);
+        return bodyEnd < 0 ? csr : csr.substring(bodyStart, bodyEnd);
+    }
+
+    /**
+     * Checks that a certification request is signed by the private key of the public key it holds,
+     * which proves that its sender holds that key.
+     *
+     * @param csr the request, as PEM or Base64 DER.
+     * @return empty if the request is valid, else what is wrong with it.
+     */
+    public static Optional<String> verify(String csr) {
+        try {
+            JcaPKCS10CertificationRequest request = decode(csr);
+            boolean valid = request.isSignatureValid(new JcaContentVerifierProviderBuilder().build(request.getPublicKey()));
+            return valid ? Optional.empty() : Optional.of("csr signature does not match its public key");
+        } catch (CertificateGeneratorException e) {
+            return Optional.of("csr is not a PKCS#10 certification request");
+        } catch (GeneralSecurityException | OperatorCreationException | PKCSException e) {
+            return Optional.of("csr signature cannot be verified: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The public key of a certification request, which is not verified again.
+     *
+     * @param csr the request, as PEM or Base64 DER.
+     * @return the public key.
+     * @throws CertificateGeneratorException if the request or its key cannot be decoded.
+     */
+    public static PublicKey publicKey(String csr) {
+        try {
+            return decode(csr).getPublicKey();
+        } catch (GeneralSecurityException e) {
+            throw new CertificateGeneratorException("Could not read the public key of the certification request", e);
+        }
+    }
+
+    /**
+     * Reads the certification request of a TPP from a folder, {@code <authorizationNumber>.csr}, which
+     * holds it as PEM, as Base64 DER, or as binary DER like {@code openssl req -outform DER} writes it.
+     *
+     * @param csrFolder           the folder of the requests.
+     * @param authorizationNumber the authorization number of the TPP.
+     * @return the text of the request, binary DER being given as Base64, or empty if the folder has none for the TPP.
+     * @throws CertificateGeneratorException if the file exists but cannot be read.
+     */
+    public static Optional<String> read(Path csrFolder, String authorizationNumber) {
+        Path file = csrFolder.resolve(authorizationNumber + CSR_SUFFIX);
+        try {
+            byte[] content = Files.readAllBytes(file);
+            // A DER request starts with its SEQUENCE tag, which is no PEM or Base64 character
+            return Optional.of(isDer(content)
+                    ? Base64.getEncoder().encodeToString(content)
+                    : new String(content, StandardCharsets.US_ASCII));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new CertificateGeneratorException("Could not read " + file, e);
+        }
+    }
+
+    private static boolean isDer(byte[] content) {
+        return content.length > 0 && content[0] == 0x30;
+    }
+}
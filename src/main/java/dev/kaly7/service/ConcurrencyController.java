@@ -0,0 +1,174 @@
+package dev.kaly7.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides how many workers the CPU-bound and the I/O-bound stages of a batch should use, from the
+ * throughput and queue depth measured at regular intervals.
+ *
+ * <p>The CPU stage (key generation and signing) is sized by hill climbing on its throughput: the
+ * worker count keeps moving in the same direction while throughput does not drop by more than
+ * {@value #TOLERANCE} below the best seen, and the count that gave the best throughput is kept. Once a
+ * step brings throughput down, or reaches a bound, the count goes back to the best one and holds
+ * there. A held count is probed every {@value #PROBE_INTERVALS} intervals, one step up and one step
+ * down in turn, or as soon as its throughput drops, to follow changes in load; a probe that brings
+ * no gain goes back to the held count.</p>
+ *
+ * <p>The I/O stage (writing files) is sized from its queue: a worker is added while the queue grows
+ * beyond the number of workers, and one is removed when the queue stays empty and some workers idle.</p>
+ *
+ * <p>The count the CPU stage settles on is logged at INFO when it differs from the previous one;
+ * every step, probes included, and every change of the I/O stage are logged at DEBUG, with the
+ * measurements they were based on.</p>
+ */
+public class ConcurrencyController {
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrencyController.class);
+
+    static final double TOLERANCE = 0.1;
+    static final int PROBE_INTERVALS = 10;
+
+    /**
+     * The worker counts of both stages.
+     */
+    public record Limits(int cpuWorkers, int ioWorkers) {
+    }
+
+    private final int cpuMax;
+    private final int ioMax;
+    private int cpuWorkers;
+    private int ioWorkers;
+
+    private double lastThroughput = -1;
+    private int bestWorkers;
+    private double bestThroughput = -1;
+    private int settledWorkers = -1;
+    private int direction = 1;
+    private boolean climbing = true;
+    private int stableIntervals;
+    private int lastQueueDepth;
+
+    /**
+     * @param cpuMax     the upper bound of the CPU workers.
+     * @param ioMax      the upper bound of the I/O workers.
+     * @param cpuWorkers the initial number of CPU workers.
+     * @param ioWorkers  the initial number of I/O workers.
+     */
+    public ConcurrencyController(int cpuMax, int ioMax, int cpuWorkers, int ioWorkers) {
+        this.cpuMax = Math.max(1, cpuMax);
+        this.ioMax = Math.max(1, ioMax);
+        this.cpuWorkers = clamp(cpuWorkers, this.cpuMax);
+        this.ioWorkers = clamp(ioWorkers, this.ioMax);
+        // Starting at the upper bound, the first step can only be down
+        this.direction = this.cpuWorkers == this.cpuMax ? -1 : 1;
+    }
+
+    /**
+     * Creates a controller bounded by the number of processors and the number of entries that may be
+     * in flight, starting with one CPU worker per processor.
+     *
+     * @param maxInFlight the number of entries the batch keeps in flight.
+     * @return the controller.
+     */
+    public static ConcurrencyController forProcessors(int maxInFlight) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return new ConcurrencyController(Math.min(2 * processors, maxInFlight), Math.min(4 * processors, maxInFlight),
+                processors, Math.max(1, processors / 4));
+    }
+
+    public Limits limits() {
+        return new Limits(cpuWorkers, ioWorkers);
+    }
+
+    /**
+     * Takes the measurements of the last interval into account.
+     *
+     * @param cpuThroughput the entries completed by the CPU stage per second.
+     * @param ioQueueDepth  the entries waiting for an I/O worker.
+     * @param ioActive      the I/O workers busy at the end of the interval.
+     * @return the worker counts to use for the next interval.
+     */
+    public Limits adjust(double cpuThroughput, int ioQueueDepth, int ioActive) {
+        adjustCpu(cpuThroughput);
+        adjustIo(ioQueueDepth, ioActive);
+        return limits();
+    }
+
+    private void adjustCpu(double throughput) {
+        if (lastThroughput < 0 || !climbing && cpuWorkers == bestWorkers && throughput < lastThroughput * (1 - TOLERANCE)) {
+            // First measurement, or the held count lost throughput: start from here
+            bestWorkers = cpuWorkers;
+            bestThroughput = throughput;
+            climb(throughput, lastThroughput < 0 ? "first measurement" : "throughput fell");
+        } else if (climbing) {
+            if (throughput > bestThroughput * (1 + TOLERANCE)) {
+                bestWorkers = cpuWorkers;
+                bestThroughput = throughput;
+                climb(throughput, "throughput rose");
+            } else if (throughput >= bestThroughput * (1 - TOLERANCE)) {
+                // Across a plateau, which may lead to a higher throughput
+                climb(throughput, "throughput held");
+            } else {
+                settle(throughput, "throughput fell");
+            }
+        } else {
+            // Holding at the best count, whose throughput follows the load
+            bestThroughput = throughput;
+            if (++stableIntervals >= PROBE_INTERVALS) {
+                climb(throughput, "probing");
+            }
+        }
+        lastThroughput = throughput;
+    }
+
+    // One step in the current direction, or back to the best count at a bound
+    private void climb(double throughput, String reason) {
+        int next = clamp(cpuWorkers + direction, cpuMax);
+        if (next == cpuWorkers) {
+            settle(throughput, reason + " at a bound");
+            return;
+        }
+        climbing = true;
+        stableIntervals = 0;
+        logger.debug("CPU workers {} -> {}: {} ({} -> {} entries/s)", cpuWorkers, next, reason,
+                format(lastThroughput), format(throughput));
+        cpuWorkers = next;
+    }
+
+    // Back to the count with the best throughput, until the next probe looks the other way
+    private void settle(double throughput, String reason) {
+        logger.debug("CPU workers {} -> {}: {} ({} -> {} entries/s)", cpuWorkers, bestWorkers, reason,
+                format(lastThroughput), format(throughput));
+        cpuWorkers = bestWorkers;
+        climbing = false;
+        stableIntervals = 0;
+        direction = -direction;
+        if (bestWorkers != settledWorkers) {
+            logger.info("CPU workers settled on {} ({} entries/s)", bestWorkers, format(bestThroughput));
+            settledWorkers = bestWorkers;
+        }
+    }
+
+    private void adjustIo(int queueDepth, int active) {
+        int next = ioWorkers;
+        if (queueDepth > lastQueueDepth && queueDepth > ioWorkers) {
+            next = clamp(ioWorkers + 1, ioMax);
+        } else if (queueDepth == 0 && lastQueueDepth == 0 && active < ioWorkers) {
+            next = clamp(ioWorkers - 1, ioMax);
+        }
+        if (next != ioWorkers) {
+            logger.debug("I/O workers {} -> {}: queue depth {} -> {}, {} busy", ioWorkers, next,
+                    lastQueueDepth, queueDepth, active);
+            ioWorkers = next;
+        }
+        lastQueueDepth = queueDepth;
+    }
+
+    private static int clamp(int workers, int max) {
+        return Math.max(1, Math.min(max, workers));
+    }
+
+    private static String format(double throughput) {
+        return throughput < 0 ? "-" : String.format("%.1f", throughput);
+    }
+}
@@ -0,0 +1,188 @@
+package dev.kaly7.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.exception.GlobalExceptionHandler;
+import dev.kaly7.model.RequestRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dead-letter output of a batch: the entries that were rejected or failed, each written as one JSON
+ * line so that they can be fixed and fed back as a JSON Lines input.
+ *
+ * <p>Each line holds the {@code ordinal} and {@code lineNumber} of the entry in its input file, the
+ * {@code stage} it failed in ({@code validation}, {@code generation} or {@code write}), its original
+ * JSON text as {@code payload}, and as {@code error} the map {@link GlobalExceptionHandler} returns for
+ * the failure. Workers only queue their failures; the error maps are built and the lines written by
+ * a background thread, so a failing entry costs its worker no more than a queue insertion and never
+ * holds up the others.</p>
+ *
+ * <p>The file is created on the first failure, replacing the one of a previous run, so a batch
+ * without failures leaves none behind.</p>
+ */
+public class DeadLetterWriter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(DeadLetterWriter.class);
+
+    public static final String DEAD_LETTER_SUFFIX = ".dead-letter.jsonl";
+    private static final int MAX_BATCH = 1024;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final DeadLetter END_OF_FILE = new DeadLetter(null, null, null);
+
+    /**
+     * The stage of the batch an entry failed in.
+     */
+    public enum Stage {
+        VALIDATION, GENERATION, WRITE
+    }
+
+    private record DeadLetter(RequestRecord record, Stage stage, Throwable error) {
+    }
+
+    private final Path path;
+    private final GlobalExceptionHandler exceptionHandler = new GlobalExceptionHandler();
+    private final BlockingQueue<DeadLetter> pending = new LinkedBlockingQueue<>();
+    private final LongAdder count = new LongAdder();
+    private final Thread writer;
+    private volatile IOException failure;
+
+    /**
+     * Opens the dead-letter output at the given path, removing that of a previous run.
+     *
+     * @param path the dead-letter file, created on the first failure.
+     * @throws IOException if the file of a previous run cannot be removed.
+     */
+    public DeadLetterWriter(Path path) throws IOException {
+        this.path = path;
+        Files.deleteIfExists(path);
+        this.writer = new Thread(this::writeLoop, "dead-letter-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Tells whether a file is a dead-letter output, so that it is not taken for an input.
+     */
+    public static boolean isDeadLetter(Path file) {
+        return file.getFileName().toString().endsWith(DEAD_LETTER_SUFFIX);
+    }
+
+    /**
+     * Queues a failed entry, without blocking.
+     *
+     * @param record the entry as read from the input.
+     * @param stage  the stage it failed in.
+     * @param error  the reason it failed.
+     */
+    public void add(RequestRecord record, Stage stage, Throwable error) {
+        count.increment();
+        pending.add(new DeadLetter(record, stage, error));
+    }
+
+    /**
+     * The number of entries queued so far.
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    private void writeLoop() {
+        List<DeadLetter> batch = new ArrayList<>(MAX_BATCH);
+        BufferedWriter output = null;
+        try {
+            while (true) {
+                batch.add(pending.take());
+                pending.drainTo(batch, MAX_BATCH - 1);
+
+                boolean last = batch.remove(END_OF_FILE);
+                if (!batch.isEmpty()) {
+                    if (output == null) {
+                        Files.createDirectories(path.toAbsolutePath().getParent());
+                        output = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+                    }
+                    for (DeadLetter deadLetter : batch) {
+                        output.write(toJson(deadLetter));
+                        output.write('\n');
+                    }
+                    output.flush();
+                }
+                batch.clear();
+                if (last) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            logger.error("Error writing dead-letter file: {}", path, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+    }
+
+    private String toJson(DeadLetter deadLetter) throws IOException {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("ordinal", deadLetter.record().ordinal());
+        line.put("lineNumber", deadLetter.record().lineNumber());
+        line.put("stage", deadLetter.stage().name().toLowerCase(Locale.ROOT));
+        // As text, since the payload of an entry that could not be parsed may not be valid JSON
+        line.put("payload", deadLetter.record().payload());
+        line.put("error", errorMap(deadLetter.error()));
+        return MAPPER.writeValueAsString(line);
+    }
+
+    private Map<String, String> errorMap(Throwable error) {
+        CertificateGeneratorException exception = error instanceof CertificateGeneratorException certificateException
+                ? certificateException
+                : new CertificateGeneratorException(error.getMessage() != null ? error.getMessage() : error.toString(), error);
+        return exceptionHandler.finhandleCertificateException(exception, CertificateServiceImpl.class);
+    }
+
+    /**
+     * Writes the queued entries and closes the file.
+     *
+     * @throws IOException if an entry could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        pending.add(END_OF_FILE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (count.sum() > 0) {
+            logger.warn("{} failed entries written to {}", count.sum(), path);
+        }
+    }
+}
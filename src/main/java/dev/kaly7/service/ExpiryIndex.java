@@ -0,0 +1,391 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of the certificates of an output tree by expiry date, to find the ones about to expire.
+ *
+ * <p>The index is kept in {@value #INDEX_FILE} at the root of the tree, one line per certificate
+ * file with its modification time, size and validity dates. When the index is opened, the tree is
+ * walked and only the files that are new or whose modification time or size changed are read
+ * again; the others are taken from the index file as they are. Files that disappeared are dropped.</p>
+ *
+ * <p>Reading a certificate file stops at its validity dates: the DER encoding is walked just far
+ * enough to skip the version, serial number, signature algorithm and issuer of the TBS
+ * certificate, and of a PEM file only the Base64 text leading up to the dates is decoded. Neither the
+ * extensions nor the signature are looked at, so an index entry says nothing about whether the
+ * certificate is otherwise valid.</p>
+ *
+ * <p>Both the merged layout {@code <root>/<authorizationNumber>/} and the sharded layout
+ * {@code <root>/shard-<i>-of-<N>/<authorizationNumber>/} are indexed. Keystores written with
+ * {@code --keystore} are not: they are logged as skipped.</p>
+ */
+public class ExpiryIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ExpiryIndex.class);
+
+    public static final String INDEX_FILE = "expiry.idx";
+    private static final String HEADER = "expiry-index 1";
+    private static final List<String> CERTIFICATE_SUFFIXES = List.of("-encodedCert.pem", "-encodedCert.der");
+    private static final String KEYSTORE_SUFFIX = ".p12";
+    // The root, an optional shard folder, the TPP folder and its files
+    private static final int MAX_DEPTH = 3;
+    // Enough for the dates to be reached past an issuer name of several hundred bytes
+    private static final int PREFIX_BYTES = 2048;
+    private static final String PEM_HEADER = "-----BEGIN CERTIFICATE-----";
+
+    /**
+     * An indexed certificate file.
+     *
+     * @param certificate the certificate file.
+     * @param notBefore   the start of its validity.
+     * @param notAfter    the end of its validity.
+     */
+    public record Entry(Path certificate, Instant notBefore, Instant notAfter) {
+    }
+
+    // What the index file holds for a certificate file, by path relative to the root
+    private record Stamped(long modifiedMillis, long size, long notBefore, long notAfter) {
+    }
+
+    private final Path root;
+    private final NavigableMap<Instant, List<Entry>> byNotAfter = new TreeMap<>();
+    private final int size;
+
+    private ExpiryIndex(Path root, Map<String, Stamped> stamped) {
+        this.root = root;
+        stamped.forEach((relative, stamp) -> {
+            Entry entry = new Entry(root.resolve(relative), Instant.ofEpochMilli(stamp.notBefore()), Instant.ofEpochMilli(stamp.notAfter()));
+            byNotAfter.computeIfAbsent(entry.notAfter(), notAfter -> new ArrayList<>()).add(entry);
+        });
+        this.size = stamped.size();
+    }
+
+    /**
+     * Brings the index of the given tree up to date with the files it holds and loads it.
+     *
+     * @param root the output tree, i.e. the target folder of the batches.
+     * @return the up to date index.
+     * @throws CertificateGeneratorException if the tree or the index file cannot be read or written.
+     */
+    public static ExpiryIndex open(Path root) {
+        long start = System.nanoTime();
+        Path indexFile = root.resolve(INDEX_FILE);
+        Map<String, Stamped> previous = load(indexFile);
+
+        Map<String, BasicFileAttributes> files = new HashMap<>();
+        List<String> keystores = new ArrayList<>();
+        try {
+            Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), MAX_DEPTH, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile() && isCertificateFile(file)) {
+                        files.put(relative(root, file), attributes);
+                    } else if (attributes.isRegularFile() && isKeystoreOutput(relative(root, file))) {
+                        keystores.add(relative(root, file));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new CertificateGeneratorException("Could not walk " + root, e);
+        }
+        if (!keystores.isEmpty()) {
+            logger.warn("Skipped {} keystores under {}: the certificates they hold are not indexed, nor renewed",
+                    keystores.size(), root);
+            keystores.stream().sorted().forEach(keystore -> logger.debug("Skipped keystore {}", keystore));
+        }
+
+        Map<String, Stamped> current = new ConcurrentHashMap<>();
+        List<String> changed = new ArrayList<>();
+        files.forEach((relative, attributes) -> {
+            Stamped stamp = previous.get(relative);
+            if (stamp != null && stamp.modifiedMillis() == attributes.lastModifiedTime().toMillis()
+                    && stamp.size() == attributes.size()) {
+                current.put(relative, stamp);
+            } else {
+                changed.add(relative);
+            }
+        });
+        // Only a first scan or a large renewal has many files to read, these are read on all cores
+        changed.parallelStream().forEach(relative -> {
+            BasicFileAttributes attributes = files.get(relative);
+            try {
+                long[] validity = readValidity(root.resolve(relative));
+                current.put(relative, new Stamped(attributes.lastModifiedTime().toMillis(), attributes.size(), validity[0], validity[1]));
+            } catch (IOException e) {
+                logger.warn("Not indexing {}: {}", root.resolve(relative), e.getMessage());
+            }
+        });
+
+        int removed = (int) previous.keySet().stream().filter(relative -> !files.containsKey(relative)).count();
+        if (!changed.isEmpty() || removed > 0 || !Files.exists(indexFile)) {
+            store(indexFile, current);
+        }
+        logger.info("Indexed {} certificates under {} in {} ms: {} read, {} unchanged, {} removed", current.size(), root,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), changed.size(), files.size() - changed.size(), removed);
+        return new ExpiryIndex(root, current);
+    }
+
+    /**
+     * The certificates whose validity ends before the given instant, including the ones already
+     * expired, soonest first.
+     */
+    public List<Entry> expiringBefore(Instant limit) {
+        return byNotAfter.headMap(limit, false).values().stream()
+                .flatMap(List::stream)
+                .toList();
+    }
+
+    /**
+     * The certificates whose validity ends within the given time from now, including the ones
+     * already expired, soonest first.
+     */
+    public List<Entry> expiringWithin(Duration window) {
+        return expiringBefore(Instant.now().plus(window));
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static boolean isCertificateFile(Path file) {
+        String name = file.getFileName().toString();
+        return CERTIFICATE_SUFFIXES.stream().anyMatch(name::endsWith);
+    }
+
+    // A keystore written with --keystore, rather than an intermediate CA kept next to the output
+    private static boolean isKeystoreOutput(String relative) {
+        return relative.endsWith(KEYSTORE_SUFFIX) && !relative.startsWith(IntermediateCa.FOLDER + "/");
+    }
+
+    private static String relative(Path root, Path file) {
+        return root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    private static Map<String, Stamped> load(Path indexFile) {
+        Map<String, Stamped> stamped = new HashMap<>();
+        if (!Files.exists(indexFile)) {
+            return stamped;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                logger.warn("Rebuilding {}: unknown format", indexFile);
+                return stamped;
+            }
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.split("\t", 5);
+                if (fields.length == 5) {
+                    stamped.put(fields[4], new Stamped(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // The index is only a cache of the tree, it is rebuilt from the certificate files
+            logger.warn("Rebuilding {}: {}", indexFile, e.getMessage());
+            stamped.clear();
+        }
+        return stamped;
+    }
+
+    private static void store(Path indexFile, Map<String, Stamped> stamped) {
+        try {
+            // Written aside and moved into place, so an interrupted write leaves the previous index
+            Path temporary = Files.createTempFile(indexFile.getParent(), INDEX_FILE, ".tmp");
+            try {
+                try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                    writer.write(HEADER);
+                    writer.newLine();
+                    for (Map.Entry<String, Stamped> entry : new TreeMap<>(stamped).entrySet()) {
+                        Stamped stamp = entry.getValue();
+                        writer.write(stamp.modifiedMillis() + "\t" + stamp.size() + "\t" + stamp.notBefore() + "\t"
+                                + stamp.notAfter() + "\t" + entry.getKey());
+                        writer.newLine();
+                    }
+                }
+                Files.move(temporary, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            throw new CertificateGeneratorException("Could not write " + indexFile, e);
+        }
+    }
+
+    /**
+     * Reads the validity dates of a PEM or DER certificate file, from the start of the file when it
+     * holds them and from the whole file otherwise.
+     *
+     * @return the {@code notBefore} and {@code notAfter} dates, in milliseconds since the epoch.
+     */
+    static long[] readValidity(Path file) throws IOException {
+        byte[] prefix;
+        try (InputStream input = Files.newInputStream(file)) {
+            prefix = input.readNBytes(PREFIX_BYTES);
+        }
+        try {
+            return readValidity(toDer(prefix));
+        } catch (EOFException e) {
+            return readValidity(readDer(file));
+        }
+    }
+
+    /**
+     * Reads the DER encoding of a PEM or DER certificate file. PEM files are written by this
+     * generator on a single line, which {@link java.security.cert.CertificateFactory} does not read.
+     */
+    static byte[] readDer(Path file) throws IOException {
+        return toDer(Files.readAllBytes(file));
+    }
+
+    private static byte[] toDer(byte[] content) throws IOException {
+        String start = new String(content, 0, Math.min(content.length, PEM_HEADER.length()), StandardCharsets.US_ASCII);
+        if (!start.equals(PEM_HEADER)) {
+            return content;
+        }
+        // The Base64 text up to the footer or the end of what was read, cut to whole 4-character groups
+        StringBuilder base64 = new StringBuilder(content.length);
+        for (int i = PEM_HEADER.length(); i < content.length && content[i] != '-'; i++) {
+            char c = (char) content[i];
+            if (!Character.isWhitespace(c)) {
+                base64.append(c);
+            }
+        }
+        base64.setLength(base64.length() - base64.length() % 4);
+        try {
+            return Base64.getDecoder().decode(base64.toString());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed PEM certificate: " + e.getMessage(), e);
+        }
+    }
+
+    // Certificate ::= SEQUENCE { tbsCertificate SEQUENCE { [0] version, serialNumber, signature, issuer, validity, ...
+    static long[] readValidity(byte[] der) throws IOException {
+        DerCursor cursor = new DerCursor(der);
+        cursor.enter(DerCursor.SEQUENCE);
+        cursor.enter(DerCursor.SEQUENCE);
+        if (cursor.peek() == DerCursor.VERSION) {
+            cursor.skip();
+        }
+        cursor.skip(); // serialNumber
+        cursor.skip(); // signature
+        cursor.skip(); // issuer
+        cursor.enter(DerCursor.SEQUENCE);
+        return new long[]{cursor.readTime(), cursor.readTime()};
+    }
+
+    /**
+     * Reads DER elements in sequence from a buffer that may hold only the beginning of the encoding,
+     * throwing {@link EOFException} when an element runs past its end.
+     */
+    private static final class DerCursor {
+        static final int SEQUENCE = 0x30;
+        static final int VERSION = 0xA0;
+        static final int UTC_TIME = 0x17;
+        static final int GENERALIZED_TIME = 0x18;
+
+        private final byte[] der;
+        private int position;
+
+        DerCursor(byte[] der) {
+            this.der = der;
+        }
+
+        int peek() throws EOFException {
+            if (position >= der.length) {
+                throw new EOFException();
+            }
+            return der[position] & 0xFF;
+        }
+
+        // Reads the tag and length of the next element and returns its length, leaving the cursor on its content
+        private int header(int expectedTag) throws IOException {
+            int tag = peek();
+            if (expectedTag >= 0 && tag != expectedTag) {
+                throw new IOException(String.format("Not an X.509 certificate: tag 0x%02X where 0x%02X was expected", tag, expectedTag));
+            }
+            position++;
+            int first = peek();
+            position++;
+            if (first < 0x80) {
+                return first;
+            }
+            int octets = first & 0x7F;
+            if (octets == 0 || octets > 3) {
+                throw new IOException("Not an X.509 certificate: unsupported length encoding");
+            }
+            int length = 0;
+            for (int i = 0; i < octets; i++) {
+                length = (length << 8) | peek();
+                position++;
+            }
+            return length;
+        }
+
+        void enter(int tag) throws IOException {
+            header(tag);
+        }
+
+        void skip() throws IOException {
+            int length = header(-1);
+            if (position + length > der.length) {
+                throw new EOFException();
+            }
+            position += length;
+        }
+
+        long readTime() throws IOException {
+            int tag = peek();
+            if (tag != UTC_TIME && tag != GENERALIZED_TIME) {
+                throw new IOException(String.format("Not an X.509 certificate: tag 0x%02X where a time was expected", tag));
+            }
+            int length = header(tag);
+            if (position + length > der.length) {
+                throw new EOFException();
+            }
+            String text = new String(der, position, length, StandardCharsets.US_ASCII);
+            position += length;
+            // RFC 5280: UTCTime YYMMDDHHMMSSZ with years 50 to 99 in the 1900s, GeneralizedTime YYYYMMDDHHMMSSZ
+            if (!text.endsWith("Z") || text.length() != (tag == UTC_TIME ? 13 : 15)) {
+                throw new IOException("Not an X.509 certificate: malformed time " + text);
+            }
+            int offset = tag == UTC_TIME ? 2 : 4;
+            try {
+                int year = Integer.parseInt(text.substring(0, offset));
+                if (tag == UTC_TIME) {
+                    year += year < 50 ? 2000 : 1900;
+                }
+                return LocalDateTime.of(year,
+                                Integer.parseInt(text.substring(offset, offset + 2)),
+                                Integer.parseInt(text.substring(offset + 2, offset + 4)),
+                                Integer.parseInt(text.substring(offset + 4, offset + 6)),
+                                Integer.parseInt(text.substring(offset + 6, offset + 8)),
+                                Integer.parseInt(text.substring(offset + 8, offset + 10)))
+                        .toInstant(ZoneOffset.UTC).toEpochMilli();
+            } catch (RuntimeException e) {
+                throw new IOException("Not an X.509 certificate: malformed time " + text, e);
+            }
+        }
+    }
+}
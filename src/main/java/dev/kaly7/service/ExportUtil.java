@@ -1,12 +1,18 @@
 package dev.kaly7.service;
 
 import dev.kaly7.exception.CertificateGeneratorException;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
 import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.function.Function;
 
 public class ExportUtil {
@@ -62,4 +68,69 @@ public class ExportUtil {
         };
     }
 
+    /**
+     * Encodes DER bytes as a PEM block of the given type, in the same single-line layout as
+     * {@link #exportToString()}, without going through {@link String}s.
+     *
+     * @param type the PEM type, e.g. {@code CERTIFICATE}.
+     * @param der  the DER encoding to wrap.
+     * @return the ASCII bytes of the PEM block.
+     */
+    public static byte[] exportToPemBytes(String type, byte[] der) {
+        byte[] header = ("-----BEGIN " + type + "-----").getBytes(StandardCharsets.US_ASCII);
+        byte[] footer = ("-----END " + type + "-----").getBytes(StandardCharsets.US_ASCII);
+        byte[] body = Base64.getEncoder().encode(der);
+
+        byte[] pem = new byte[header.length + body.length + footer.length];
+        System.arraycopy(header, 0, pem, 0, header.length);
+        System.arraycopy(body, 0, pem, header.length, body.length);
+        System.arraycopy(footer, 0, pem, header.length + body.length, footer.length);
+        Arrays.fill(body, (byte) 0);
+        return pem;
+    }
+
+    /**
+     * Encodes a private key as PEM bytes, producing the same output as {@link #exportToString()}:
+     * RSA keys are written as PKCS#1 {@code RSA PRIVATE KEY} blocks, other keys as PKCS#8
+     * {@code PRIVATE KEY} blocks.
+     *
+     * <p>Every intermediate encoding of the key is zeroed before returning; the caller owns the
+     * returned array and should zero it once it has been written.</p>
+     *
+     * @param privateKey the key to export.
+     * @return the ASCII bytes of the PEM block.
+     */
+    public static byte[] exportPrivateKeyToPemBytes(PrivateKey privateKey) {
+        byte[] pkcs8 = privateKey.getEncoded();
+        try {
+            return exportPrivateKeyToPemBytes(pkcs8);
+        } finally {
+            Arrays.fill(pkcs8, (byte) 0);
+        }
+    }
+
+    /**
+     * Encodes a PKCS#8 private key as PEM bytes, in the same layout as
+     * {@link #exportPrivateKeyToPemBytes(PrivateKey)}. The given bytes are left untouched.
+     *
+     * @param pkcs8 the PKCS#8 encoding of the key.
+     * @return the ASCII bytes of the PEM block.
+     */
+    public static byte[] exportPrivateKeyToPemBytes(byte[] pkcs8) {
+        try {
+            PrivateKeyInfo keyInfo = PrivateKeyInfo.getInstance(pkcs8);
+            if (!PKCSObjectIdentifiers.rsaEncryption.equals(keyInfo.getPrivateKeyAlgorithm().getAlgorithm())) {
+                return exportToPemBytes("PRIVATE KEY", pkcs8);
+            }
+            byte[] pkcs1 = keyInfo.parsePrivateKey().toASN1Primitive().getEncoded();
+            try {
+                return exportToPemBytes("RSA PRIVATE KEY", pkcs1);
+            } finally {
+                Arrays.fill(pkcs1, (byte) 0);
+            }
+        } catch (IOException ex) {
+            throw new CertificateGeneratorException("Could not export private key", ex);
+        }
+    }
+
 }
@@ -0,0 +1,101 @@
+package dev.kaly7.service;
+
+import dev.kaly7.model.IssuedCertificate;
+import dev.kaly7.model.OutputEncoding;
+import dev.kaly7.service.api.CertificateSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Writes each certificate and private key as files into {@code <targetFolder>/<authorizationNumber>/},
+ * in the {@link OutputEncoding} chosen for the batch.
+ *
+ * <p>PEM files are named {@code <authorizationNumber>-encodedCert.pem} and
+ * {@code <authorizationNumber>-privateKey.key}, and their text is produced directly as bytes. DER
+ * files are written straight from the encoded certificate and PKCS#8 key, without any Base64
+ * step. In both cases the bytes of the private key are zeroed as soon as they have been written,
+ * instead of lingering in an immutable {@link String} until the next garbage collection. Certificates
+ * issued for a certification request have no private key, and only their certificate file is written.
+ * Certificates issued by an intermediate CA also get {@code <authorizationNumber>-chain.pem}: the
+ * certificate followed by its issuers up to the root, in the order TLS servers send them.</p>
+ */
+public class FileCertificateSink implements CertificateSink {
+    private static final Logger logger = LoggerFactory.getLogger(FileCertificateSink.class);
+
+    private static final Base64.Encoder PEM_ENCODER = Base64.getMimeEncoder(64, new byte[]{'\n'});
+
+    private final Path targetFolder;
+    private final OutputEncoding encoding;
+
+    public FileCertificateSink(Path targetFolder, OutputEncoding encoding) {
+        this.targetFolder = targetFolder;
+        this.encoding = encoding;
+    }
+
+    @Override
+    public Path write(String authorizationNumber, IssuedCertificate issued) throws IOException {
+        Path tppFolder = Files.createDirectories(targetFolder.resolve(authorizationNumber));
+
+        byte[] certificate;
+        try {
+            certificate = issued.certificate().getEncoded();
+        } catch (CertificateEncodingException e) {
+            throw new IOException("Could not encode certificate of " + authorizationNumber, e);
+        }
+
+        boolean der = encoding == OutputEncoding.DER;
+        writeFile(tppFolder.resolve(authorizationNumber + (der ? "-encodedCert.der" : "-encodedCert.pem")),
+                der ? certificate : ExportUtil.exportToPemBytes("CERTIFICATE", certificate));
+        if (issued.chain().size() > 1) {
+            writeFile(tppFolder.resolve(authorizationNumber + "-chain.pem"), chainPem(authorizationNumber, certificate, issued));
+        }
+
+        // Issued for a certification request: the private key stays with the caller
+        if (issued.privateKey() == null) {
+            return tppFolder;
+        }
+        byte[] privateKey = der
+                ? issued.privateKey().getEncoded()
+                : ExportUtil.exportPrivateKeyToPemBytes(issued.privateKey());
+        try {
+            writeFile(tppFolder.resolve(authorizationNumber + (der ? "-privateKey.p8" : "-privateKey.key")), privateKey);
+        } finally {
+            Arrays.fill(privateKey, (byte) 0);
+        }
+        return tppFolder;
+    }
+
+    // Standard PEM, in 64 character lines, so that the blocks can be read one after the other
+    private static byte[] chainPem(String authorizationNumber, byte[] certificate, IssuedCertificate issued) throws IOException {
+        StringBuilder pem = new StringBuilder();
+        appendPem(pem, certificate);
+        for (X509Certificate issuer : issued.chain()) {
+            try {
+                appendPem(pem, issuer.getEncoded());
+            } catch (CertificateEncodingException e) {
+                throw new IOException("Could not encode issuer chain of " + authorizationNumber, e);
+            }
+        }
+        return pem.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void appendPem(StringBuilder pem, byte[] der) {
+        pem.append("-----BEGIN CERTIFICATE-----\n")
+                .append(PEM_ENCODER.encodeToString(der))
+                .append("\n-----END CERTIFICATE-----\n");
+    }
+
+    private void writeFile(Path filepath, byte[] content) throws IOException {
+        Files.write(filepath, content);
+        logger.debug("{} file created: {}", encoding, filepath);
+    }
+}
@@ -0,0 +1,232 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.model.IssuerData;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.CertIOException;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECKey;
+import java.security.interfaces.RSAKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Creates the intermediate NCA of a country under a root issuer, for test topologies where every
+ * country has its own NCA issuing the certificates of its TPPs.
+ *
+ * <p>The intermediate is named {@code C=<country>, O=Fake NCA <country>, CN=<country> Intermediate NCA},
+ * so that the qcStatements of the certificates it issues name it as their NCA ({@code <country>-FAKENCA}).
+ * Its key is of the same type and size as the root key, and it signs with the algorithm derived from
+ * that key. It may issue end-entity certificates only (path length 0), and is valid for
+ * {@value #VALIDITY_YEARS} years, or until the root expires if that is sooner.</p>
+ *
+ * <p>An intermediate can be kept in a folder, {@code <folder>/<country>.p12}, and loaded from there by
+ * the next runs: the shards of a batch, resumed batches, daemon restarts and renewals then all issue
+ * under the same intermediate key. The keystore is protected by the fixed password
+ * {@value #STORE_PASSWORD}, like the unencrypted root key it is only suitable for test fixtures.</p>
+ */
+public class IntermediateCa {
+    private static final Logger logger = LoggerFactory.getLogger(IntermediateCa.class);
+
+    /**
+     * The folder of the target folder the intermediates of a batch are kept in.
+     */
+    public static final String FOLDER = "ca";
+    static final String STORE_PASSWORD = "fake-nca";
+    static final int VALIDITY_YEARS = 5;
+    private static final String STORE_SUFFIX = ".p12";
+    private static final String ALIAS = "intermediate";
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int SERIAL_NUMBER_BITS = 63;
+
+    private IntermediateCa() {}
+
+    /**
+     * Creates the intermediate NCA of a country.
+     *
+     * @param root        the root issuer, which must have its certificate.
+     * @param countryCode the ISO 3166 code of the country.
+     * @return the intermediate, whose chain is its certificate followed by that of the root.
+     * @throws CertificateGeneratorException if the root has no certificate or the intermediate cannot be created.
+     */
+    public static IssuerDataService create(IssuerDataService root, String countryCode) {
+        X509Certificate rootCertificate = root.getIssuerCertificate()
+                .orElseThrow(() -> new CertificateGeneratorException("An intermediate CA needs the root certificate"));
+        IssuerData rootData = root.getIssuerData();
+        X500Name subject = subject(countryCode);
+        KeyPair keyPair = generateKeyPair(rootData.privateKey());
+
+        Instant notBefore = Instant.now().minus(Duration.ofDays(1));
+        Instant notAfter = notBefore.plus(Duration.ofDays(365L * VALIDITY_YEARS));
+        if (notAfter.isAfter(rootCertificate.getNotAfter().toInstant())) {
+            notAfter = rootCertificate.getNotAfter().toInstant();
+        }
+
+        try {
+            JcaX509ExtensionUtils extensions = new JcaX509ExtensionUtils();
+            X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(rootData.x500name(),
+                    new BigInteger(SERIAL_NUMBER_BITS, RANDOM), Date.from(notBefore), Date.from(notAfter),
+                    subject, keyPair.getPublic())
+                    .addExtension(Extension.basicConstraints, true, new BasicConstraints(0))
+                    .addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign))
+                    .addExtension(Extension.subjectKeyIdentifier, false,
+                            extensions.createSubjectKeyIdentifier(keyPair.getPublic()))
+                    .addExtension(Extension.authorityKeyIdentifier, false,
+                            extensions.createAuthorityKeyIdentifier(rootCertificate));
+            X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(
+                    builder.build(new JcaContentSignerBuilder(rootData.signatureAlgorithm()).build(rootData.privateKey())));
+
+            List<X509Certificate> chain = new ArrayList<>();
+            chain.add(certificate);
+            chain.addAll(root.getIssuerChain());
+            IssuerData issuerData = new IssuerData(subject, keyPair.getPrivate(), SignatureAlgorithms.forKey(keyPair.getPrivate()));
+            return new IssuerDataService(issuerData, chain);
+        } catch (GeneralSecurityException | OperatorCreationException | CertIOException e) {
+            throw new CertificateGeneratorException("Could not create the intermediate CA of " + countryCode, e);
+        }
+    }
+
+    /**
+     * Loads the intermediate NCA of a country kept in the given folder, or creates it and keeps it
+     * there when there is none. Processes sharing the folder, such as the shards of a batch, wait for
+     * each other, so that a country gets one intermediate only.
+     *
+     * @param root        the root issuer, which must have its certificate.
+     * @param countryCode the ISO 3166 code of the country.
+     * @param folder      the folder the intermediates are kept in, created if needed.
+     * @return the intermediate, whose chain is its certificate followed by that of the root.
+     * @throws CertificateGeneratorException if the intermediate cannot be created, stored or loaded, or if
+     *                                       the one kept was issued by another root or has expired.
+     */
+    public static IssuerDataService loadOrCreate(IssuerDataService root, String countryCode, Path folder) {
+        if (!countryCode.matches("[A-Z]{2}")) {
+            throw new CertificateGeneratorException("Not a country code: " + countryCode);
+        }
+        Path store = folder.resolve(countryCode + STORE_SUFFIX);
+        try {
+            Files.createDirectories(folder);
+            // One lock file per country, as the intermediates of different countries are created in parallel
+            try (FileChannel lockFile = FileChannel.open(folder.resolve(countryCode + STORE_SUFFIX + ".lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lockFile.lock()) {
+                if (Files.exists(store)) {
+                    IssuerDataService intermediate = load(root, countryCode, store);
+                    logger.info("Intermediate CA loaded from {}: {}", store, intermediate.getIssuerData().x500name());
+                    return intermediate;
+                }
+                IssuerDataService intermediate = create(root, countryCode);
+                save(intermediate, store);
+                logger.info("Intermediate CA created in {}: {}", store, intermediate.getIssuerData().x500name());
+                return intermediate;
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            throw new CertificateGeneratorException("Could not load or store the intermediate CA " + store, e);
+        }
+    }
+
+    private static IssuerDataService load(IssuerDataService root, String countryCode, Path store)
+            throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = Files.newInputStream(store)) {
+            keyStore.load(input, STORE_PASSWORD.toCharArray());
+        }
+        if (!(keyStore.getKey(ALIAS, STORE_PASSWORD.toCharArray()) instanceof PrivateKey privateKey)
+                || !(keyStore.getCertificate(ALIAS) instanceof X509Certificate certificate)) {
+            throw new CertificateGeneratorException(store + " holds no intermediate CA");
+        }
+        X509Certificate rootCertificate = root.getIssuerCertificate()
+                .orElseThrow(() -> new CertificateGeneratorException("An intermediate CA needs the root certificate"));
+        X500Name subject = X500Name.getInstance(certificate.getSubjectX500Principal().getEncoded());
+        try {
+            certificate.verify(rootCertificate.getPublicKey());
+            certificate.checkValidity();
+        } catch (GeneralSecurityException e) {
+            throw new CertificateGeneratorException(store + " was not issued by the current root or has expired; "
+                    + "remove it to create a new intermediate", e);
+        }
+        if (!subject.equals(subject(countryCode))) {
+            throw new CertificateGeneratorException(store + " holds the intermediate CA " + subject);
+        }
+
+        List<X509Certificate> chain = new ArrayList<>();
+        chain.add(certificate);
+        chain.addAll(root.getIssuerChain());
+        return new IssuerDataService(new IssuerData(subject, privateKey, SignatureAlgorithms.forKey(privateKey)), chain);
+    }
+
+    // Written aside and moved in place, so that a store is either complete or absent
+    private static void save(IssuerDataService intermediate, Path store) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(ALIAS, intermediate.getIssuerData().privateKey(), STORE_PASSWORD.toCharArray(),
+                intermediate.getIssuerChain().toArray(new Certificate[0]));
+        Path temporary = Files.createTempFile(store.getParent(), store.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream output = Files.newOutputStream(temporary)) {
+                keyStore.store(output, STORE_PASSWORD.toCharArray());
+            }
+            Files.move(temporary, store, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static X500Name subject(String countryCode) {
+        return new X500NameBuilder(BCStyle.INSTANCE)
+                .addRDN(BCStyle.C, countryCode)
+                .addRDN(BCStyle.O, "Fake NCA " + countryCode)
+                .addRDN(BCStyle.CN, countryCode + " Intermediate NCA")
+                .build();
+    }
+
+    // A key like the root's, so that the whole hierarchy uses one algorithm
+    private static KeyPair generateKeyPair(PrivateKey rootKey) {
+        try {
+            String algorithm = rootKey.getAlgorithm().toUpperCase(Locale.ROOT);
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm.equals("ECDSA") ? "EC" : algorithm);
+            if (rootKey instanceof RSAKey rsaKey) {
+                generator.initialize(rsaKey.getModulus().bitLength(), RANDOM);
+            } else if (rootKey instanceof ECKey ecKey) {
+                generator.initialize(ecKey.getParams(), RANDOM);
+            }
+            return generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new CertificateGeneratorException("Could not generate the key of an intermediate CA", e);
+        }
+    }
+}
@@ -4,35 +4,104 @@ import dev.kaly7.exception.CertificateGeneratorException;
 import dev.kaly7.model.IssuerData;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 
 import java.security.PrivateKey;
+import java.security.PublicKey;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Optional;
 import java.util.function.Supplier;
 
 public class IssuerDataService {
     private final IssuerData issuerData;
+    private final PublicKey issuerPublicKey;
+    private final List<X509Certificate> issuerChain;
 
 
     public IssuerData getIssuerData() {
         return issuerData;
     }
 
+    /**
+     * The public key of the issuer certificate, used to verify the certificates it signs. Empty when
+     * the issuer was given without its certificate.
+     */
+    public Optional<PublicKey> getIssuerPublicKey() {
+        return Optional.ofNullable(issuerPublicKey);
+    }
+
+    /**
+     * The issuer certificate, which completes the chain of the certificates it signs. Empty when the
+     * issuer was given without its certificate.
+     */
+    public Optional<X509Certificate> getIssuerCertificate() {
+        return issuerChain.stream().findFirst();
+    }
+
+    /**
+     * The issuer certificate followed by the certificates of its own issuers, up to the root: the
+     * chain of the certificates it signs, without them. Empty when the issuer was given without its
+     * certificate.
+     */
+    public List<X509Certificate> getIssuerChain() {
+        return issuerChain;
+    }
+
     public IssuerDataService(KeysProvider keysProvider) {
+        X509Certificate cert = keysProvider.loadCertificate.get();
         Supplier<IssuerData> generateIssuerData = () -> {
-            X509Certificate cert = keysProvider.loadCertificate.get();
             PrivateKey privateKey = keysProvider.loadPrivateKey.get();
+            String signatureAlgorithm = keysProvider.getSignatureAlgorithm()
+                    .orElseGet(() -> SignatureAlgorithms.forKey(privateKey));
 
             try {
                 X500Name x500Name = new JcaX509CertificateHolder(cert).getSubject();
-                return new IssuerData(x500Name, privateKey);
+                return new IssuerData(x500Name, privateKey, signatureAlgorithm);
 
             } catch (CertificateEncodingException ex) {
                 throw new CertificateGeneratorException("Could not read issuer data from certificate", ex);
             }
 
         };
-        this.issuerData = generateIssuerData.get();
+        this.issuerData = checkSignatureAlgorithm(generateIssuerData.get());
+        this.issuerPublicKey = cert.getPublicKey();
+        this.issuerChain = List.of(cert);
+    }
+
+    public IssuerDataService(IssuerData issuerData) {
+        this(issuerData, (PublicKey) null);
+    }
+
+    public IssuerDataService(IssuerData issuerData, PublicKey issuerPublicKey) {
+        this.issuerData = checkSignatureAlgorithm(issuerData);
+        this.issuerPublicKey = issuerPublicKey;
+        this.issuerChain = List.of();
+    }
+
+    /**
+     * An issuer whose certificate was itself issued by another one, such as an intermediate CA.
+     *
+     * @param issuerData  the name, key and signature algorithm of the issuer.
+     * @param issuerChain the issuer certificate, followed by those of its issuers up to the root.
+     */
+    public IssuerDataService(IssuerData issuerData, List<X509Certificate> issuerChain) {
+        this.issuerData = checkSignatureAlgorithm(issuerData);
+        this.issuerPublicKey = issuerChain.get(0).getPublicKey();
+        this.issuerChain = List.copyOf(issuerChain);
+    }
+
+    // Fail at start-up rather than on the first certificate when the algorithm does not fit the key
+    private static IssuerData checkSignatureAlgorithm(IssuerData issuerData) {
+        try {
+            new JcaContentSignerBuilder(issuerData.signatureAlgorithm()).build(issuerData.privateKey());
+            return issuerData;
+        } catch (OperatorCreationException | IllegalArgumentException ex) {
+            throw new CertificateGeneratorException("Signature algorithm " + issuerData.signatureAlgorithm()
+                    + " cannot be used with the " + issuerData.privateKey().getAlgorithm() + " issuer key", ex);
+        }
     }
 
 
@@ -0,0 +1,317 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.model.RequestRecord;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads a TPP file in the JSON Lines format, one JSON object per line, parsing it on all cores.
+ *
+ * <p>The file is memory-mapped and cut into ranges of about {@value #RANGE_BYTES} bytes, each
+ * extended to the end of the line it stops in. Every range is handled by a separate task which
+ * counts its lines, then parses them once the counts of the ranges before it are known, so each
+ * entry gets the same ordinal and line number as with a sequential read. Blank lines are skipped
+ * and do not take an ordinal.</p>
+ *
+ * <p>The results are returned in file order. Only a bounded window of ranges is read ahead of the
+ * consumer, which keeps the memory used independent of the size of the file: a range is scheduled
+ * once it gets one of the read-ahead permits, which may be shared with other readers, and its permit
+ * is given back once the consumer has taken all of its results. A reader always gets at least one
+ * range, waiting for a permit if needed, and never more than {@value #RANGES_PER_THREAD} per core.</p>
+ */
+public class JsonLinesReader {
+
+    static final int RANGE_BYTES = 1 << 20;
+    static final int RANGES_PER_THREAD = 2;
+    static final int DEFAULT_READ_AHEAD_RANGES = RANGES_PER_THREAD * Runtime.getRuntime().availableProcessors();
+    // The heap held by the entries bound from a range, about three times its text as measured
+    static final int PARSED_BYTES_PER_TEXT_BYTE = 4;
+    private static final Set<String> EXTENSIONS = Set.of(".jsonl", ".ndjson");
+
+    private JsonLinesReader() {}
+
+    /**
+     * Tells whether the given file is to be read as JSON Lines, from its extension.
+     */
+    public static boolean isJsonLines(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && EXTENSIONS.contains(name.substring(dot));
+    }
+
+    /**
+     * The number of ranges whose parsed entries fit in the given heap, at least one.
+     */
+    static int rangesFitting(long heapBytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, heapBytes / ((long) RANGE_BYTES * PARSED_BYTES_PER_TEXT_BYTE)));
+    }
+
+    /**
+     * Opens a stream over the entries of the given JSON Lines file, reading up to
+     * {@value #RANGES_PER_THREAD} ranges per core ahead.
+     *
+     * @see #read(Path, Function, Semaphore)
+     */
+    public static <T> Stream<T> read(Path path, Function<RequestRecord, Optional<T>> parser) {
+        return read(path, parser, new Semaphore(DEFAULT_READ_AHEAD_RANGES));
+    }
+
+    /**
+     * Opens a stream over the entries of the given JSON Lines file.
+     *
+     * <p>The parser is applied to every non-blank line concurrently and must therefore be
+     * thread-safe. Entries for which it returns an empty result are left out. The returned stream
+     * owns the file and the parsing threads and must be closed by the caller.</p>
+     *
+     * @param path      the JSON Lines file to read.
+     * @param parser    turns an entry into a result, or into an empty result to skip it.
+     * @param readAhead the permits of the ranges parsed ahead of the consumer, one per range.
+     * @param <T>       the result type.
+     * @return a sequential stream of the results in file order.
+     * @throws CertificateGeneratorException if the file cannot be opened.
+     */
+    public static <T> Stream<T> read(Path path, Function<RequestRecord, Optional<T>> parser, Semaphore readAhead) {
+        FileChannel channel;
+        long size;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            size = channel.size();
+        } catch (IOException e) {
+            throw new CertificateGeneratorException("Json Lines file not found or unable to read: " + path, e);
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "json-lines-parser-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        RangeIterator<T> ranges = new RangeIterator<>(channel, size, path, parser, executor, readAhead,
+                threads * RANGES_PER_THREAD);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(ranges, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .flatMap(List::stream)
+                .onClose(() -> {
+                    ranges.releasePermits();
+                    executor.shutdownNow();
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    /**
+     * The extent of a range and the number of lines and entries it holds.
+     */
+    private record Range(long start, long end, long lines, long records) {
+    }
+
+    /**
+     * The line number and ordinal of the first entry of a range.
+     */
+    private record Position(long lineNumber, long ordinal) {
+
+        Position after(Range range) {
+            return new Position(lineNumber + range.lines(), ordinal + range.records());
+        }
+    }
+
+    /**
+     * Hands out the parsed ranges in order, keeping a window of ranges scheduled ahead.
+     */
+    private static final class RangeIterator<T> implements Iterator<List<T>> {
+        private final FileChannel channel;
+        private final long size;
+        private final Path path;
+        private final Function<RequestRecord, Optional<T>> parser;
+        private final ExecutorService executor;
+        private final Semaphore readAhead;
+        private final int window;
+        private final long rangeCount;
+
+        private final Deque<CompletableFuture<List<T>>> scheduled = new ArrayDeque<>();
+        // Whether the range last handed out, whose results the consumer may not have taken yet, holds its permit
+        private boolean handedOut;
+        private long nextRange;
+        private CompletableFuture<Position> nextPosition = CompletableFuture.completedFuture(new Position(1, 0));
+
+        RangeIterator(FileChannel channel, long size, Path path, Function<RequestRecord, Optional<T>> parser,
+                      ExecutorService executor, Semaphore readAhead, int window) {
+            this.channel = channel;
+            this.size = size;
+            this.path = path;
+            this.parser = parser;
+            this.executor = executor;
+            this.readAhead = readAhead;
+            this.window = window;
+            this.rangeCount = (size + RANGE_BYTES - 1) / RANGE_BYTES;
+        }
+
+        @Override
+        public boolean hasNext() {
+            // Asked for the next range once the results of the previous one were all taken
+            if (handedOut) {
+                handedOut = false;
+                readAhead.release();
+            }
+            while (scheduled.size() < window && nextRange < rangeCount && acquire()) {
+                schedule(nextRange++);
+            }
+            return !scheduled.isEmpty();
+        }
+
+        // Waits for a permit only when nothing is scheduled, so that the reader always makes progress
+        private boolean acquire() {
+            if (!scheduled.isEmpty()) {
+                return readAhead.tryAcquire();
+            }
+            try {
+                readAhead.acquire();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CertificateGeneratorException("Interrupted while reading " + path, e);
+            }
+        }
+
+        void releasePermits() {
+            readAhead.release(scheduled.size() + (handedOut ? 1 : 0));
+            scheduled.forEach(range -> range.cancel(true));
+            scheduled.clear();
+            handedOut = false;
+        }
+
+        @Override
+        public List<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                CompletableFuture<List<T>> range = scheduled.removeFirst();
+                // Its permit is kept until the consumer asks for the next range
+                handedOut = true;
+                return range.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw new CertificateGeneratorException("Could not read Json Lines file " + path, e.getCause());
+            }
+        }
+
+        private void schedule(long index) {
+            CompletableFuture<Range> range = CompletableFuture.supplyAsync(() -> count(index), executor);
+            CompletableFuture<Position> position = nextPosition;
+            nextPosition = position.thenCombine(range, Position::after);
+            scheduled.addLast(range.thenCombineAsync(position, this::parse, executor));
+        }
+
+        private MappedByteBuffer map(long start, long end) {
+            try {
+                return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            } catch (IOException e) {
+                throw new CertificateGeneratorException("Could not map " + path + " at " + start, e);
+            }
+        }
+
+        // A range starts after the first line break at or past its nominal start
+        private long cut(long index) {
+            if (index == 0) {
+                return 0;
+            }
+            if (index >= rangeCount) {
+                return size;
+            }
+            long position = index * RANGE_BYTES - 1;
+            while (position < size) {
+                long end = Math.min(size, position + RANGE_BYTES);
+                MappedByteBuffer buffer = map(position, end);
+                for (int i = 0; i < buffer.limit(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        return position + i + 1;
+                    }
+                }
+                position = end;
+            }
+            return size;
+        }
+
+        private Range count(long index) {
+            long start = cut(index);
+            long end = Math.max(start, cut(index + 1));
+            long lines = 0;
+            long records = 0;
+            boolean blank = true;
+            MappedByteBuffer buffer = map(start, end);
+            for (int i = 0; i < buffer.limit(); i++) {
+                byte b = buffer.get(i);
+                if (b == '\n') {
+                    lines++;
+                    if (!blank) {
+                        records++;
+                    }
+                    blank = true;
+                } else if (!isWhitespace(b)) {
+                    blank = false;
+                }
+            }
+            // The last line of the file may lack its line break
+            if (!blank) {
+                records++;
+            }
+            return new Range(start, end, lines, records);
+        }
+
+        private List<T> parse(Range range, Position position) {
+            List<T> results = new ArrayList<>();
+            MappedByteBuffer buffer = map(range.start(), range.end());
+            long lineNumber = position.lineNumber();
+            long ordinal = position.ordinal();
+            int lineStart = 0;
+            for (int i = 0; i <= buffer.limit(); i++) {
+                if (i < buffer.limit() && buffer.get(i) != '\n') {
+                    continue;
+                }
+                int lineEnd = i;
+                while (lineEnd > lineStart && isWhitespace(buffer.get(lineEnd - 1))) {
+                    lineEnd--;
+                }
+                if (lineEnd > lineStart) {
+                    byte[] line = new byte[lineEnd - lineStart];
+                    buffer.get(lineStart, line);
+                    // Past the line break, so that the last entry of a file ends at its size
+                    long endOffset = range.start() + Math.min(i + 1, buffer.limit());
+                    parser.apply(new RequestRecord(ordinal++, lineNumber, new String(line, StandardCharsets.UTF_8), endOffset))
+                            .ifPresent(results::add);
+                }
+                lineNumber++;
+                lineStart = i + 1;
+            }
+            return results;
+        }
+
+        private static boolean isWhitespace(byte b) {
+            return b == ' ' || b == '\t' || b == '\r';
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.*;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of subject key pairs, so that regenerating the same fixtures reuses their keys
+ * instead of generating new ones. Certificates are still issued afresh, with new serial numbers and
+ * dates; only the key generation is skipped.
+ *
+ * <p>Each key pair is stored in its own file, named after the SHA-256 of the cache key (the
+ * authorization number, within an optional namespace), holding the key algorithm, the X.509 public
+ * key, the PKCS#8 private key and a SHA-256 of all of them. An entry whose checksum or keys do not
+ * match is discarded and its key pair generated again.</p>
+ *
+ * <p>The files are bounded in total size: the modification time of an entry is refreshed when it is
+ * used, and once the bound is exceeded the least recently used entries are removed.</p>
+ *
+ * <p>Private keys are stored unencrypted, which is only suitable for test fixtures.</p>
+ */
+public class KeyPairCache {
+    private static final Logger logger = LoggerFactory.getLogger(KeyPairCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final int MAGIC = 0x4B504331; // "KPC1"
+    private static final int DIGEST_LENGTH = 32;
+    private static final String ENTRY_SUFFIX = ".kp";
+    // Evicting below the bound leaves room for a number of entries before the next eviction
+    private static final double EVICTION_TARGET = 0.9;
+
+    private final Path folder;
+    private final String namespace;
+    private final long maxBytes;
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder corrupted = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * Opens the cache stored in the given folder, creating the folder if needed.
+     *
+     * @param folder    the folder holding the entries.
+     * @param namespace a seed separating the key pairs of different fixture sets, or {@code null}.
+     * @param maxBytes  the total size the entries may take.
+     * @throws CertificateGeneratorException if the folder cannot be created or read.
+     */
+    public KeyPairCache(Path folder, String namespace, long maxBytes) {
+        this.folder = folder;
+        this.namespace = namespace == null ? "" : namespace;
+        this.maxBytes = maxBytes;
+        try {
+            Files.createDirectories(folder);
+            try (Stream<Path> entries = Files.list(folder)) {
+                entries.filter(KeyPairCache::isEntry).forEach(entry -> totalBytes.addAndGet(entry.toFile().length()));
+            }
+        } catch (IOException e) {
+            throw new CertificateGeneratorException("Could not open key cache " + folder, e);
+        }
+    }
+
+    /**
+     * Returns the key pair cached for the given authorization number, generating and storing one
+     * when there is none.
+     *
+     * @param authorizationNumber the authorization number the key pair belongs to.
+     * @param generator           generates the key pair on a miss.
+     * @return the key pair.
+     */
+    public KeyPair get(String authorizationNumber, Supplier<KeyPair> generator) {
+        Path entry = folder.resolve(fileName(authorizationNumber));
+        if (Files.exists(entry)) {
+            Optional<KeyPair> cached = read(entry);
+            if (cached.isPresent()) {
+                hits.increment();
+                touch(entry);
+                return cached.get();
+            }
+        }
+        misses.increment();
+        KeyPair keyPair = generator.get();
+        write(entry, keyPair);
+        return keyPair;
+    }
+
+    private static boolean isEntry(Path file) {
+        return file.getFileName().toString().endsWith(ENTRY_SUFFIX);
+    }
+
+    private String fileName(String authorizationNumber) {
+        byte[] digest = sha256().digest((namespace + "\u0000" + authorizationNumber).getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest) + ENTRY_SUFFIX;
+    }
+
+    private Optional<KeyPair> read(Path entry) {
+        byte[] content = null;
+        try {
+            content = Files.readAllBytes(entry);
+            if (content.length <= DIGEST_LENGTH || !MessageDigest.isEqual(
+                    sha256().digest(Arrays.copyOf(content, content.length - DIGEST_LENGTH)),
+                    Arrays.copyOfRange(content, content.length - DIGEST_LENGTH, content.length))) {
+                throw new IOException("checksum mismatch");
+            }
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(content, 0, content.length - DIGEST_LENGTH));
+            if (input.readInt() != MAGIC) {
+                throw new IOException("unknown format");
+            }
+            KeyFactory keyFactory = KeyFactory.getInstance(input.readUTF());
+            PublicKey publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(readBytes(input)));
+            byte[] privateKey = readBytes(input);
+            try {
+                return Optional.of(new KeyPair(publicKey, keyFactory.generatePrivate(new PKCS8EncodedKeySpec(privateKey))));
+            } finally {
+                Arrays.fill(privateKey, (byte) 0);
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            logger.warn("Discarding corrupted key cache entry {}: {}", entry, e.getMessage());
+            corrupted.increment();
+            delete(entry);
+            return Optional.empty();
+        } finally {
+            if (content != null) {
+                Arrays.fill(content, (byte) 0);
+            }
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > input.available()) {
+            throw new IOException("truncated entry");
+        }
+        return input.readNBytes(length);
+    }
+
+    private void write(Path entry, KeyPair keyPair) {
+        byte[] privateKey = keyPair.getPrivate().getEncoded();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(buffer)) {
+            output.writeInt(MAGIC);
+            output.writeUTF(keyPair.getPublic().getAlgorithm());
+            byte[] publicKey = keyPair.getPublic().getEncoded();
+            output.writeInt(publicKey.length);
+            output.write(publicKey);
+            output.writeInt(privateKey.length);
+            output.write(privateKey);
+            output.write(sha256().digest(buffer.toByteArray()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            Arrays.fill(privateKey, (byte) 0);
+        }
+
+        byte[] content = buffer.toByteArray();
+        try {
+            // Written aside and moved into place, so a concurrent reader never sees a partial entry
+            Path temporary = Files.createTempFile(folder, "entry", ".tmp");
+            try {
+                restrictToOwner(temporary);
+                Files.write(temporary, content);
+                long replaced = entry.toFile().length();
+                Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                totalBytes.addAndGet(-replaced);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            // The cache only saves time, a key pair that cannot be stored is still returned
+            logger.warn("Could not store key cache entry {}: {}", entry, e.getMessage());
+            return;
+        } finally {
+            Arrays.fill(content, (byte) 0);
+        }
+        if (totalBytes.addAndGet(content.length) > maxBytes) {
+            evict();
+        }
+    }
+
+    private static void restrictToOwner(Path file) throws IOException {
+        if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        }
+    }
+
+    private void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Only affects the eviction order
+        }
+    }
+
+    private synchronized void evict() {
+        if (totalBytes.get() <= maxBytes) {
+            return;
+        }
+        List<Path> entries;
+        try (Stream<Path> files = Files.list(folder)) {
+            entries = files.filter(KeyPairCache::isEntry)
+                    .sorted(Comparator.comparingLong(file -> file.toFile().lastModified()))
+                    .toList();
+        } catch (IOException e) {
+            logger.warn("Could not list key cache {}: {}", folder, e.getMessage());
+            return;
+        }
+        long target = (long) (maxBytes * EVICTION_TARGET);
+        for (Iterator<Path> oldest = entries.iterator(); totalBytes.get() > target && oldest.hasNext(); ) {
+            if (delete(oldest.next())) {
+                evicted.increment();
+            }
+        }
+    }
+
+    private boolean delete(Path entry) {
+        long size = entry.toFile().length();
+        try {
+            if (Files.deleteIfExists(entry)) {
+                totalBytes.addAndGet(-size);
+                return true;
+            }
+        } catch (IOException e) {
+            logger.warn("Could not delete key cache entry {}: {}", entry, e.getMessage());
+        }
+        return false;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long corrupted() {
+        return corrupted.sum();
+    }
+
+    public long evicted() {
+        return evicted.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "key cache " + folder + ": " + hits() + " hits, " + misses() + " misses, " + corrupted()
+                + " corrupted, " + evicted() + " evicted, " + totalBytes.get() + " bytes";
+    }
+}
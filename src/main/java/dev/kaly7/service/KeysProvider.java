@@ -3,6 +3,12 @@ package dev.kaly7.service;
 import com.nimbusds.jose.util.X509CertUtils;
 import dev.kaly7.exception.CertificateGeneratorException;
 import org.apache.commons.io.IOUtils;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.asn1.pkcs.RSAPrivateKey;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openssl.PEMKeyPair;
 import org.bouncycastle.openssl.PEMParser;
@@ -11,10 +17,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.security.KeyPair;
+import java.nio.charset.StandardCharsets;
 import java.security.PrivateKey;
 import java.security.Security;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Optional;
 import java.util.Properties;
 import java.util.function.Supplier;
 
@@ -23,6 +31,7 @@ public class KeysProvider {
 
     private String issuerPrivateKey;
     private String issuerCertificate;
+    private String signatureAlgorithm;
 
     public KeysProvider(String issuerPrivateKey, String issuerCertificate){
         this.issuerPrivateKey = issuerPrivateKey;
@@ -46,37 +55,88 @@ public class KeysProvider {
     }
 
     /**
-     * Supplier for loading a private key from a PEM file.
+     * Overrides the algorithm this issuer signs certificates with, instead of deriving it from the
+     * type of its key with {@link SignatureAlgorithms#forKey}. This allows, for instance, an RSA issuer
+     * to sign with RSA-PSS ({@code SHA256WithRSAAndMGF1}).
      *
-     * <p>This Supplier reads a PEM-encoded private key from a resource file and converts it
-     * into a Java {@link PrivateKey} object. The PEM file is located using the current thread's
+     * @param signatureAlgorithm the JCA name of the signature algorithm, or {@code null} to derive it from the key.
+     * @return this provider.
+     */
+    public KeysProvider withSignatureAlgorithm(String signatureAlgorithm) {
+        this.signatureAlgorithm = signatureAlgorithm;
+        return this;
+    }
+
+    public Optional<String> getSignatureAlgorithm() {
+        return Optional.ofNullable(signatureAlgorithm);
+    }
+
+    /**
+     * Supplier for loading a private key from a PEM or DER file.
+     *
+     * <p>This Supplier reads the issuer private key from a resource file and converts it
+     * into a Java {@link PrivateKey} object. The file is located using the current thread's
      * context class loader and its path is specified by {@code issuerPrivateKey}.
-     * The BouncyCastle provider is used for parsing the PEM file and converting it into a key pair.
+     * The BouncyCastle provider is used for parsing the file and converting it into a key.
+     *
+     * <p>PEM files may hold a traditional key pair ({@code RSA PRIVATE KEY}, {@code EC PRIVATE KEY})
+     * or a PKCS#8 {@code PRIVATE KEY}. Binary files may hold a DER encoded PKCS#8 or PKCS#1 key.
      *
      * <p>If an error occurs while reading the file or parsing the key, an
      * {@link CertificateGeneratorException} is thrown.
      */
     public Supplier<PrivateKey> loadPrivateKey = () -> {
-        try (InputStream stream = Thread.currentThread().getContextClassLoader().getResourceAsStream(issuerPrivateKey);
-             BufferedReader br = new BufferedReader(new InputStreamReader(stream));
-             PEMParser pp = new PEMParser(br)) {
-
+        try (InputStream stream = Thread.currentThread().getContextClassLoader().getResourceAsStream(issuerPrivateKey)) {
+            if (stream == null) {
+                throw new FileNotFoundException(issuerPrivateKey + " not found in classpath");
+            }
             // Add BouncyCastle provider for PEM parsing
             Security.addProvider(new BouncyCastleProvider());
-            // Read PEM-encoded key pair from the PEM file
-            PEMKeyPair pemKeyPair = (PEMKeyPair) pp.readObject();
-            // Convert the PEM key pair to a Java KeyPair
-            KeyPair kp = new JcaPEMKeyConverter().getKeyPair(pemKeyPair);
-            return kp.getPrivate();
-        } catch (IOException ex) {
+
+            byte[] bytes = IOUtils.toByteArray(stream);
+            try {
+                PrivateKeyInfo keyInfo = isDer(bytes) ? derPrivateKeyInfo(bytes) : pemPrivateKeyInfo(bytes);
+                return new JcaPEMKeyConverter().getPrivateKey(keyInfo);
+            } finally {
+                Arrays.fill(bytes, (byte) 0);
+            }
+        } catch (IOException | IllegalArgumentException ex) {
             throw new CertificateGeneratorException("Could not load private key", ex);
         }
     };
 
+    // A DER structure starts with a SEQUENCE tag, a PEM file with text
+    private static boolean isDer(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == 0x30;
+    }
+
+    private static PrivateKeyInfo pemPrivateKeyInfo(byte[] bytes) throws IOException {
+        try (PEMParser pp = new PEMParser(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.US_ASCII))) {
+            Object pemObject = pp.readObject();
+            if (pemObject instanceof PEMKeyPair pemKeyPair) {
+                return pemKeyPair.getPrivateKeyInfo();
+            }
+            if (pemObject instanceof PrivateKeyInfo privateKeyInfo) {
+                return privateKeyInfo;
+            }
+            throw new IOException("Unsupported private key content: " + (pemObject == null ? "empty" : pemObject.getClass().getSimpleName()));
+        }
+    }
+
+    private static PrivateKeyInfo derPrivateKeyInfo(byte[] bytes) throws IOException {
+        ASN1Sequence sequence = ASN1Sequence.getInstance(bytes);
+        // PKCS#8 carries an AlgorithmIdentifier after its version, PKCS#1 directly the RSA modulus
+        if (sequence.size() > 1 && sequence.getObjectAt(1) instanceof ASN1Sequence) {
+            return PrivateKeyInfo.getInstance(sequence);
+        }
+        return new PrivateKeyInfo(new AlgorithmIdentifier(PKCSObjectIdentifiers.rsaEncryption, DERNull.INSTANCE),
+                RSAPrivateKey.getInstance(sequence));
+    }
+
     /**
      * Supplier to load an X509Certificate from the classpath.
      * <p>
-     * This supplier reads a certificate file specified by the {@code issuerCertificate} resource name,
+     * This supplier reads a PEM or DER certificate file specified by the {@code issuerCertificate} resource name,
      * converts it to a byte array, and then parses it into an {@code X509Certificate} object.
      * <p>
      * The process involves the following steps:
@@ -92,8 +152,16 @@ public class KeysProvider {
      */
     public Supplier<X509Certificate> loadCertificate = () -> {
         try (InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(issuerCertificate)) {
+            if (is == null) {
+                throw new FileNotFoundException(issuerCertificate + " not found in classpath");
+            }
             byte[] bytes = IOUtils.toByteArray(is);
-            return X509CertUtils.parse(bytes);
+            // The underlying CertificateFactory accepts both PEM and DER encodings
+            X509Certificate certificate = X509CertUtils.parse(bytes);
+            if (certificate == null) {
+                throw new CertificateGeneratorException("Could not parse certificate " + issuerCertificate);
+            }
+            return certificate;
         } catch (IOException ex) {
             throw new CertificateGeneratorException("Could not read certificate from classpath", ex);
         }
@@ -0,0 +1,149 @@
+package dev.kaly7.service;
+
+import dev.kaly7.model.IssuedCertificate;
+import dev.kaly7.model.KeystoreMode;
+import dev.kaly7.service.api.CertificateSink;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the certificates and private keys of a batch as PKCS#12 keystores, in one of the
+ * {@link KeystoreMode}s, each key with the chain of its certificate up to the root issuer.
+ *
+ * <p>Entries are encoded, and their private keys encrypted, by the {@link Pkcs12Encoder} on the
+ * worker that writes them, so that encoding runs in parallel. The encoded entries of a bundle are
+ * appended to two spill files next to it, {@code .keys.tmp} and {@code .certs.tmp}, so that its heap
+ * does not grow with the number of entries: only their aliases are kept, to refuse duplicates. When
+ * the sink is closed the bundle is assembled from the spill files, its entries in the order they were
+ * written, through a temporary file so that a reader never sees it half written. The issuer
+ * certificates shared by its entries, such as the root and the intermediate of each country, are
+ * stored once.</p>
+ */
+public class KeystoreCertificateSink implements CertificateSink {
+    private static final Logger logger = LoggerFactory.getLogger(KeystoreCertificateSink.class);
+
+    private static final String KEYSTORE_SUFFIX = ".p12";
+
+    private final Path target;
+    private final KeystoreMode mode;
+    private final Pkcs12Encoder encoder;
+    private final Set<String> aliases = ConcurrentHashMap.newKeySet();
+    private final Set<X509Certificate> bundleChain = ConcurrentHashMap.newKeySet();
+    private final Path keyBags;
+    private final Path certificateBags;
+    // Opened on the first entry of a bundle, appended to under the lock of the sink
+    private OutputStream keyBagsOutput;
+    private OutputStream certificateBagsOutput;
+
+    private KeystoreCertificateSink(Path target, KeystoreMode mode, Pkcs12Encoder encoder) {
+        this.target = target;
+        this.mode = mode;
+        this.encoder = encoder;
+        this.keyBags = target.resolveSibling(target.getFileName() + ".keys.tmp");
+        this.certificateBags = target.resolveSibling(target.getFileName() + ".certs.tmp");
+    }
+
+    /**
+     * A sink writing {@code <targetFolder>/<authorizationNumber>/<authorizationNumber>.p12} for each
+     * certificate.
+     *
+     * @param targetFolder the folder the keystores are written into.
+     * @param encoder      the encoder of the keystores.
+     */
+    public static KeystoreCertificateSink perTpp(Path targetFolder, Pkcs12Encoder encoder) {
+        return new KeystoreCertificateSink(targetFolder, KeystoreMode.PER_TPP, encoder);
+    }
+
+    /**
+     * A sink writing all the certificates into a single keystore when it is closed.
+     *
+     * @param keystoreFile the keystore file.
+     * @param encoder      the encoder of the keystore.
+     */
+    public static KeystoreCertificateSink bundle(Path keystoreFile, Pkcs12Encoder encoder) {
+        return new KeystoreCertificateSink(keystoreFile, KeystoreMode.BUNDLE, encoder);
+    }
+
+    /**
+     * The name of the bundle of an input: the input file name with {@code .p12} in place of its extension.
+     */
+    public static String bundleName(Path input) {
+        String name = input.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + KEYSTORE_SUFFIX;
+    }
+
+    @Override
+    public Path write(String authorizationNumber, IssuedCertificate issued) throws IOException {
+        if (issued.privateKey() == null) {
+            throw new IOException("No private key to store in a keystore for " + authorizationNumber
+                    + ", issued for a certification request");
+        }
+        Pkcs12Encoder.Entry entry = encoder.encodeEntry(authorizationNumber, issued);
+        if (mode == KeystoreMode.BUNDLE) {
+            if (!aliases.add(authorizationNumber)) {
+                throw new IOException("Alias " + authorizationNumber + " is already in keystore " + target);
+            }
+            spill(entry);
+            bundleChain.addAll(issued.chain());
+            return target;
+        }
+        Path tppFolder = Files.createDirectories(target.resolve(authorizationNumber));
+        Path keystore = tppFolder.resolve(authorizationNumber + KEYSTORE_SUFFIX);
+        Files.write(keystore, encoder.encode(List.of(entry), issued.chain()));
+        logger.debug("Keystore created: {}", keystore);
+        return tppFolder;
+    }
+
+    // Both bags of an entry are appended together, so that the two files stay in the same order
+    private synchronized void spill(Pkcs12Encoder.Entry entry) throws IOException {
+        if (keyBagsOutput == null) {
+            Files.createDirectories(target.toAbsolutePath().getParent());
+            keyBagsOutput = new BufferedOutputStream(Files.newOutputStream(keyBags));
+            certificateBagsOutput = new BufferedOutputStream(Files.newOutputStream(certificateBags));
+        }
+        keyBagsOutput.write(entry.key().getEncoded(ASN1Encoding.DER));
+        certificateBagsOutput.write(entry.certificate().getEncoded(ASN1Encoding.DER));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (keyBagsOutput == null) {
+            return;
+        }
+        try {
+            keyBagsOutput.close();
+            certificateBagsOutput.close();
+            List<X509Certificate> chain = new ArrayList<>(bundleChain);
+            chain.sort(Comparator.comparing(issuer -> issuer.getSubjectX500Principal().getName()));
+
+            Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+            try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+                encoder.encode(keyBags, certificateBags, chain, output);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Keystore of {} entries written: {}", aliases.size(), target);
+        } finally {
+            keyBagsOutput = null;
+            certificateBagsOutput = null;
+            Files.deleteIfExists(keyBags);
+            Files.deleteIfExists(certificateBags);
+            aliases.clear();
+            bundleChain.clear();
+        }
+    }
+}
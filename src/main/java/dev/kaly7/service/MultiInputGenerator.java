@@ -0,0 +1,221 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.model.GenerationOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Generates the certificates of many TPP files in one run, with one loaded issuer and one pool of
+ * workers for all of them.
+ *
+ * <p>Inputs can be given as files, as directories, whose TPP files are taken, or as glob patterns
+ * such as {@code fixtures/**}{@code /*.jsonl}. The files are read concurrently, and their entries
+ * share a single {@link AdaptiveBatchExecutor}, so the heap budget and the number of workers hold for
+ * the run as a whole rather than for each file.</p>
+ *
+ * <p>The certificates of all inputs are written either together into the target folder, each input
+ * keeping its own progress journal, or each into {@code <targetFolder>/<input name>}. A summary with
+ * the certificates and throughput of every input is logged at the end.</p>
+ */
+public class MultiInputGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(MultiInputGenerator.class);
+
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    /**
+     * The outcome of one input.
+     *
+     * @param input        the TPP file.
+     * @param outputFolder the folder its certificates were written to.
+     * @param written      the number of certificates written, or -1 if the input failed.
+     * @param millis       the time the input took.
+     */
+    public record InputResult(Path input, Path outputFolder, long written, long millis) {
+
+        public boolean succeeded() {
+            return written >= 0;
+        }
+    }
+
+    private final CertificateServiceImpl certificateService;
+
+    public MultiInputGenerator(CertificateServiceImpl certificateService) {
+        this.certificateService = certificateService;
+    }
+
+    /**
+     * Tells whether a file is a TPP file, from its extension: JSON or JSON Lines, other than a dead-letter output.
+     */
+    public static boolean isInput(Path file) {
+        return (file.getFileName().toString().endsWith(".json") || JsonLinesReader.isJsonLines(file))
+                && !DeadLetterWriter.isDeadLetter(file) && Files.isRegularFile(file);
+    }
+
+    /**
+     * Resolves the given files, directories and glob patterns into the TPP files they designate,
+     * in order and without duplicates. Relative patterns are resolved against the working directory.
+     *
+     * @param arguments the inputs given on the command line.
+     * @return the TPP files.
+     * @throws CertificateGeneratorException if an input does not exist or a directory cannot be listed.
+     */
+    public static List<Path> expand(List<String> arguments) {
+        Set<Path> inputs = new LinkedHashSet<>();
+        for (String argument : arguments) {
+            if (argument.chars().anyMatch(c -> GLOB_CHARACTERS.indexOf(c) >= 0)) {
+                inputs.addAll(glob(argument));
+                continue;
+            }
+            Path path = Paths.get(argument);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    files.filter(MultiInputGenerator::isInput).sorted().forEach(inputs::add);
+                } catch (IOException e) {
+                    throw new CertificateGeneratorException("Could not list " + path, e);
+                }
+            } else if (Files.isRegularFile(path)) {
+                inputs.add(path);
+            } else {
+                throw new CertificateGeneratorException("Input not found: " + argument);
+            }
+        }
+        return List.copyOf(inputs);
+    }
+
+    // Walks from the longest leading part of the pattern without glob characters
+    private static List<Path> glob(String pattern) {
+        String separator = FileSystems.getDefault().getSeparator();
+        int firstGlob = 0;
+        while (GLOB_CHARACTERS.indexOf(pattern.charAt(firstGlob)) < 0) {
+            firstGlob++;
+        }
+        int baseEnd = pattern.lastIndexOf(separator, firstGlob);
+        Path base = baseEnd < 0 ? Paths.get(".") : Paths.get(baseEnd == 0 ? separator : pattern.substring(0, baseEnd));
+        String relativePattern = pattern.substring(baseEnd + 1);
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + relativePattern);
+        int depth = relativePattern.contains("**") ? Integer.MAX_VALUE : relativePattern.split(separator).length;
+
+        if (!Files.isDirectory(base)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.walk(base, depth)) {
+            return files.filter(file -> matcher.matches(base.relativize(file)))
+                    .filter(MultiInputGenerator::isInput)
+                    .map(file -> baseEnd < 0 ? base.relativize(file) : file)
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new CertificateGeneratorException("Could not expand " + pattern, e);
+        }
+    }
+
+    /**
+     * Generates the certificates of all the inputs.
+     *
+     * @param inputs         the TPP files.
+     * @param options        the options of every input; with {@code outputPerInput}, their target
+     *                       folder is the parent of the folders of the inputs.
+     * @param outputPerInput whether each input is written into its own folder.
+     * @return the outcome of every input, in the order of the inputs.
+     * @throws CertificateGeneratorException if the certificates of two inputs of the same name were
+     *                                       to be written into the same folder.
+     */
+    public List<InputResult> generate(List<Path> inputs, GenerationOptions options, boolean outputPerInput) {
+        Map<Path, GenerationOptions> inputOptions = inputOptions(inputs, options, outputPerInput);
+
+        long start = System.nanoTime();
+        int parallelInputs = Math.min(inputs.size(), Runtime.getRuntime().availableProcessors() + 1);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService readers = Executors.newFixedThreadPool(Math.max(1, parallelInputs), task -> {
+            Thread thread = new Thread(task, "input-reader-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<InputResult> results = new ArrayList<>();
+        try (AdaptiveBatchExecutor executor = AdaptiveBatchExecutor.forHeapBudget(options.heapBudgetBytes(),
+                CertificateServiceImpl.ESTIMATED_BYTES_PER_ENTRY)) {
+            List<Future<InputResult>> futures = new ArrayList<>();
+            for (Path input : inputs) {
+                futures.add(readers.submit(() -> process(input, inputOptions.get(input), executor)));
+            }
+            for (Future<InputResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CertificateGeneratorException("Interrupted while processing inputs", e);
+        } catch (ExecutionException e) {
+            throw new CertificateGeneratorException("Could not process inputs", e.getCause());
+        } finally {
+            readers.shutdownNow();
+        }
+        logSummary(results, System.nanoTime() - start);
+        return results;
+    }
+
+    private static Map<Path, GenerationOptions> inputOptions(List<Path> inputs, GenerationOptions options, boolean outputPerInput) {
+        Map<Path, GenerationOptions> inputOptions = new HashMap<>();
+        Map<String, Path> byName = new HashMap<>();
+        for (Path input : inputs) {
+            String name = outputPerInput ? baseName(input) : input.getFileName().toString();
+            Path previous = byName.putIfAbsent(name, input);
+            if (previous != null) {
+                // They would share a progress journal, or an output folder
+                throw new CertificateGeneratorException("Inputs " + previous + " and " + input + " have the same name "
+                        + name + (outputPerInput ? "" : " and cannot be written into the same folder"));
+            }
+            inputOptions.put(input, outputPerInput
+                    ? options.withTargetFolder(Paths.get(options.targetFolder(), name).toString())
+                    : options);
+        }
+        return inputOptions;
+    }
+
+    private static String baseName(Path input) {
+        String name = input.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    // A failing input is reported in the summary without stopping the others
+    private InputResult process(Path input, GenerationOptions options, AdaptiveBatchExecutor executor) {
+        long start = System.nanoTime();
+        long written;
+        try {
+            written = certificateService.processFile(input, options, executor).orElse(-1L);
+        } catch (RuntimeException e) {
+            logger.error("Could not process {}", input, e);
+            written = -1;
+        }
+        return new InputResult(input, Paths.get(options.targetFolder()), written,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static void logSummary(List<InputResult> results, long nanos) {
+        long total = 0;
+        for (InputResult result : results) {
+            if (result.succeeded()) {
+                total += result.written();
+                logger.info("{} -> {}: {} certificates in {} ms ({} certificates/s)", result.input(), result.outputFolder(),
+                        result.written(), result.millis(), rate(result.written(), result.millis()));
+            } else {
+                logger.error("{} -> {}: failed after {} ms", result.input(), result.outputFolder(), result.millis());
+            }
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        logger.info("{} inputs, {} failed, {} certificates in {} ms ({} certificates/s)", results.size(),
+                results.stream().filter(result -> !result.succeeded()).count(), total, millis, rate(total, millis));
+    }
+
+    private static long rate(long count, long millis) {
+        return millis > 0 ? count * 1000 / millis : 0;
+    }
+}
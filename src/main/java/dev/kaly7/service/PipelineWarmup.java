@@ -0,0 +1,203 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.model.CertificateRequest;
+import dev.kaly7.model.IssuedCertificate;
+import dev.kaly7.model.RequestRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.security.KeyPair;
+import java.security.cert.CertificateEncodingException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms up the generation pipeline of a long-running process before it reports ready, so that its
+ * first requests are not issued by interpreted code several times slower than steady state.
+ *
+ * <p>Synthetic entries go through the real pipeline: JSON binding and validation of a
+ * {@link CertificateRequest}, subject key generation, qcStatement, signing by the configured issuer,
+ * and export as PEM and DER. Nothing is written to disk: the certificates are issued by a
+ * {@linkplain CertificateServiceImpl#detached detached} copy of the service, which bypasses its key
+ * cache and intermediates, and their encodings are dropped.</p>
+ *
+ * <p>Entries are issued in rounds of {@value #ROUND_SIZE}. The pipeline is deemed steady once the
+ * median time of an entry has stayed within {@value #TOLERANCE_PERCENT}% of the previous round for
+ * {@value #STABLE_ROUNDS} rounds in a row. Key generation, whose time varies widely from one key to
+ * the next with the search for primes, runs for every entry but is left out of that median. Warm-up
+ * stops there, or after its maximum number of entries or duration, and logs the time it took to
+ * reach steady state.</p>
+ */
+public class PipelineWarmup {
+    private static final Logger logger = LoggerFactory.getLogger(PipelineWarmup.class);
+
+    public static final int DEFAULT_MAX_CERTIFICATES = 512;
+    public static final Duration DEFAULT_MAX_DURATION = Duration.ofSeconds(60);
+    static final int ROUND_SIZE = 16;
+    static final int TOLERANCE_PERCENT = 10;
+    static final int STABLE_ROUNDS = 2;
+
+    private static final String[] COUNTRY_CODES = {"DE", "FR", "AT", "NL", "ES", "IT", "BE", "LU"};
+    private static final String[] ROLES = {"PISP", "AISP", "PIISP"};
+
+    /**
+     * The outcome of a warm-up.
+     *
+     * @param certificates          the synthetic certificates issued.
+     * @param steady                whether steady state was reached before the limits.
+     * @param timeToSteadyMillis    the time the warm-up took, up to steady state if reached.
+     * @param firstMillis           the time of the first entry, excluding key generation.
+     * @param steadyMillis          the median time of an entry in the last round, excluding key generation.
+     * @param keyGenerationMillis   the mean time of a key generation in the last round.
+     */
+    public record Report(int certificates, boolean steady, long timeToSteadyMillis, double firstMillis,
+                         double steadyMillis, double keyGenerationMillis) {
+    }
+
+    private final CertificateServiceImpl certificateService;
+    private int maxCertificates = DEFAULT_MAX_CERTIFICATES;
+    private Duration maxDuration = DEFAULT_MAX_DURATION;
+
+    /**
+     * @param certificateService the service whose issuer and code paths are warmed up; it is not modified.
+     */
+    public PipelineWarmup(CertificateServiceImpl certificateService) {
+        this.certificateService = certificateService;
+    }
+
+    /**
+     * Sets the limits of the warm-up, which stops at the first one reached even if not yet steady.
+     *
+     * @param maxCertificates the most synthetic certificates to issue.
+     * @param maxDuration     the longest the warm-up may take.
+     * @return this warm-up.
+     */
+    public PipelineWarmup withLimits(int maxCertificates, Duration maxDuration) {
+        if (maxCertificates < 1 || maxDuration.isNegative() || maxDuration.isZero()) {
+            throw new IllegalArgumentException("Warm-up limits must be positive");
+        }
+        this.maxCertificates = maxCertificates;
+        this.maxDuration = maxDuration;
+        return this;
+    }
+
+    /**
+     * Runs the warm-up on the calling thread and logs its report.
+     *
+     * @return the report.
+     * @throws CertificateGeneratorException if a synthetic certificate cannot be issued, which the
+     *                                       first real one would not be either.
+     */
+    public Report run() {
+        // Each entry is issued for the key generated just before it, outside of its timing
+        KeyPair[] nextKeyPair = new KeyPair[1];
+        CertificateServiceImpl detached = certificateService.detached(request -> nextKeyPair[0]);
+
+        long start = System.nanoTime();
+        long deadline = start + maxDuration.toNanos();
+        long[] entryNanos = new long[ROUND_SIZE];
+        long keyGenerationNanos = 0;
+        double firstMillis = -1;
+        double previousMedian = -1;
+        double median = -1;
+        int stableRounds = 0;
+        int certificates = 0;
+        boolean steady = false;
+
+        while (!steady && certificates < maxCertificates && System.nanoTime() < deadline) {
+            int roundSize = Math.min(ROUND_SIZE, maxCertificates - certificates);
+            keyGenerationNanos = 0;
+            for (int i = 0; i < roundSize; i++) {
+                long keyStart = System.nanoTime();
+                nextKeyPair[0] = certificateService.generateKeyPair.get();
+                long entryStart = System.nanoTime();
+                issueAndExport(detached, certificates);
+                entryNanos[i] = System.nanoTime() - entryStart;
+                keyGenerationNanos += entryStart - keyStart;
+                if (certificates++ == 0) {
+                    firstMillis = millis(entryNanos[0]);
+                }
+            }
+
+            median = median(entryNanos, roundSize);
+            if (previousMedian > 0 && Math.abs(median - previousMedian) * 100 <= TOLERANCE_PERCENT * previousMedian) {
+                steady = ++stableRounds >= STABLE_ROUNDS;
+            } else {
+                stableRounds = 0;
+            }
+            previousMedian = median;
+            logger.debug("Warm-up round: {} certificates, median {} ms", certificates, String.format("%.2f", median));
+            keyGenerationNanos /= roundSize;
+        }
+
+        Report report = new Report(certificates, steady, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                firstMillis, median, millis(keyGenerationNanos));
+        log(report);
+        return report;
+    }
+
+    // The stages a batch or the asynchronous API runs for an entry, minus the file writes
+    private static void issueAndExport(CertificateServiceImpl detached, int index) {
+        RequestRecord record = new RequestRecord(index, index + 1L, syntheticEntry(index));
+        CertificateRequest request = detached.ingestRecord.apply(record)
+                .orElseThrow(() -> new CertificateGeneratorException("Synthetic warm-up entry rejected: " + record.payload()))
+                .request();
+        IssuedCertificate issued = detached.issueCertificate.apply(request);
+        try {
+            byte[] certificate = issued.certificate().getEncoded();
+            byte[] pem = ExportUtil.exportToPemBytes("CERTIFICATE", certificate);
+            byte[] privateKey = ExportUtil.exportPrivateKeyToPemBytes(issued.privateKey());
+            Arrays.fill(privateKey, (byte) 0);
+            if (pem.length == 0 || ExportUtil.exportToString().apply(issued.certificate()).isEmpty()) {
+                throw new CertificateGeneratorException("Empty export of a synthetic warm-up certificate");
+            }
+        } catch (CertificateEncodingException e) {
+            throw new CertificateGeneratorException("Could not encode a synthetic warm-up certificate", e);
+        }
+    }
+
+    // Varied enough for the JIT to see the branches of real input: roles, countries, OCSP extension
+    private static String syntheticEntry(int index) {
+        return "{\"authorizationNumber\":\"PSDXX-WARMUP-" + index + "\","
+                + "\"roles\":[\"" + ROLES[index % ROLES.length] + "\"" + (index % 3 == 0 ? ",\"" + ROLES[(index + 1) % ROLES.length] + "\"" : "") + "],"
+                + "\"organizationName\":\"Warm-up Corporation " + index + "\","
+                + "\"organizationUnit\":\"Information Technology\","
+                + "\"domainComponent\":\"warmup.example\","
+                + "\"localityName\":\"Nuremberg\","
+                + "\"stateOrProvinceName\":\"Bayern\","
+                + "\"countryCode\":\"" + COUNTRY_CODES[index % COUNTRY_CODES.length] + "\","
+                + "\"validity\":" + (30 + index % 300) + ","
+                + "\"commonName\":\"Warm-up " + index + "\","
+                + "\"ocspCheckNeeded\":" + (index % 2 == 0) + "}";
+    }
+
+    private static double median(long[] nanos, int count) {
+        long[] sorted = Arrays.copyOf(nanos, count);
+        Arrays.sort(sorted);
+        return count % 2 == 1
+                ? millis(sorted[count / 2])
+                : (millis(sorted[count / 2 - 1]) + millis(sorted[count / 2])) / 2;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static void log(Report report) {
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        if (report.steady()) {
+            logger.info("Warm-up reached steady state after {} certificates in {} ms: {} ms per certificate, from {} ms "
+                            + "for the first, plus {} ms of key generation; ready {} ms after start",
+                    report.certificates(), report.timeToSteadyMillis(), String.format("%.2f", report.steadyMillis()),
+                    String.format("%.2f", report.firstMillis()), String.format("%.1f", report.keyGenerationMillis()), uptime);
+        } else {
+            logger.warn("Warm-up stopped before steady state after {} certificates in {} ms: {} ms per certificate, from {} ms "
+                            + "for the first, plus {} ms of key generation; ready {} ms after start",
+                    report.certificates(), report.timeToSteadyMillis(), String.format("%.2f", report.steadyMillis()),
+                    String.format("%.2f", report.firstMillis()), String.format("%.1f", report.keyGenerationMillis()), uptime);
+        }
+    }
+}
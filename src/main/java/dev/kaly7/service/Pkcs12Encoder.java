@@ -0,0 +1,313 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.model.IssuedCertificate;
+import org.bouncycastle.asn1.*;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.*;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Attribute;
+import org.bouncycastle.asn1.x509.DigestInfo;
+import org.bouncycastle.crypto.PBEParametersGenerator;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.generators.PKCS12ParametersGenerator;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes certificates and their private keys as PKCS#12 keystores, readable by the JDK's
+ * {@code KeyStore} and by OpenSSL.
+ *
+ * <p>Most of the cost of a keystore is its password-based key derivation: PBKDF2 for every private
+ * key and the PKCS#12 derivation of the integrity MAC key, each over {@value #ITERATIONS} iterations.
+ * An encoder derives both keys once, from salts drawn when it is created, and reuses them for every
+ * key and every file it encodes; each private key is still encrypted with its own IV. Readers derive
+ * the keys again from the parameters stored in the file, as for any other keystore.</p>
+ *
+ * <p>Private keys are encrypted with PBES2 (PBKDF2 with HMAC-SHA256, AES-256-CBC) and the file is
+ * protected by an HMAC-SHA256 MAC, as the JDK does by default. Certificates are public and stored
+ * without encryption. An encoder can be used from several threads at once.</p>
+ */
+public class Pkcs12Encoder {
+
+    static final int ITERATIONS = 10_000;
+    private static final int SALT_BYTES = 16;
+    private static final int AES_KEY_BYTES = 32;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final AlgorithmIdentifier HMAC_SHA256 =
+            new AlgorithmIdentifier(PKCSObjectIdentifiers.id_hmacWithSHA256, DERNull.INSTANCE);
+    private static final AlgorithmIdentifier SHA256 =
+            new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256, DERNull.INSTANCE);
+
+    /**
+     * The safe bags of one keystore entry.
+     *
+     * @param key         the encrypted private key.
+     * @param certificate the certificate of the key.
+     */
+    public record Entry(SafeBag key, SafeBag certificate) {
+    }
+
+    private final byte[] keySalt;
+    private final SecretKey encryptionKey;
+    private final byte[] macSalt;
+    private final byte[] macKey;
+
+    /**
+     * Derives the keys protecting the keystores from a password.
+     *
+     * @param password the keystore password.
+     * @throws CertificateGeneratorException if the keys cannot be derived.
+     */
+    public Pkcs12Encoder(char[] password) {
+        keySalt = salt();
+        macSalt = salt();
+        PBEKeySpec keySpec = new PBEKeySpec(password, keySalt, ITERATIONS, AES_KEY_BYTES * 8);
+        try {
+            byte[] derived = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(keySpec).getEncoded();
+            encryptionKey = new SecretKeySpec(derived, "AES");
+            Arrays.fill(derived, (byte) 0);
+        } catch (GeneralSecurityException e) {
+            throw new CertificateGeneratorException("Could not derive the keystore encryption key", e);
+        } finally {
+            keySpec.clearPassword();
+        }
+
+        byte[] passwordBytes = PBEParametersGenerator.PKCS12PasswordToBytes(password);
+        try {
+            PKCS12ParametersGenerator generator = new PKCS12ParametersGenerator(new SHA256Digest());
+            generator.init(passwordBytes, macSalt, ITERATIONS);
+            macKey = ((KeyParameter) generator.generateDerivedMacParameters(256)).getKey();
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+
+    private static byte[] salt() {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Encodes the entry of an issued certificate: its private key, encrypted, and its certificate,
+     * both named by the alias and tied together by the same local key id.
+     *
+     * @param alias  the alias of the entry.
+     * @param issued the issued certificate and its private key.
+     * @return the entry.
+     * @throws CertificateGeneratorException if the certificate or the key cannot be encoded.
+     */
+    public Entry encodeEntry(String alias, IssuedCertificate issued) {
+        byte[] certificate = encoded(issued.certificate());
+        ASN1Set attributes;
+        try {
+            attributes = new DERSet(new ASN1Encodable[]{
+                    new Attribute(PKCSObjectIdentifiers.pkcs_9_at_friendlyName, new DERSet(new DERBMPString(alias))),
+                    new Attribute(PKCSObjectIdentifiers.pkcs_9_at_localKeyId,
+                            new DERSet(new DEROctetString(MessageDigest.getInstance("SHA-1").digest(certificate))))
+            });
+        } catch (GeneralSecurityException e) {
+            throw new CertificateGeneratorException("Could not compute the key id of " + alias, e);
+        }
+
+        byte[] privateKey = issued.privateKey().getEncoded();
+        try {
+            return new Entry(
+                    new SafeBag(PKCSObjectIdentifiers.pkcs8ShroudedKeyBag, encrypt(privateKey), attributes),
+                    new SafeBag(PKCSObjectIdentifiers.certBag, certBag(certificate), attributes));
+        } finally {
+            Arrays.fill(privateKey, (byte) 0);
+        }
+    }
+
+    // PBES2 with the key derived once; only the IV is drawn for each private key
+    private EncryptedPrivateKeyInfo encrypt(byte[] privateKey) {
+        byte[] iv = new byte[16];
+        RANDOM.nextBytes(iv);
+        try {
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, new IvParameterSpec(iv));
+            AlgorithmIdentifier algorithm = new AlgorithmIdentifier(PKCSObjectIdentifiers.id_PBES2, new PBES2Parameters(
+                    new KeyDerivationFunc(PKCSObjectIdentifiers.id_PBKDF2,
+                            new PBKDF2Params(keySalt, ITERATIONS, AES_KEY_BYTES, HMAC_SHA256)),
+                    new EncryptionScheme(NISTObjectIdentifiers.id_aes256_CBC, new DEROctetString(iv))));
+            return new EncryptedPrivateKeyInfo(algorithm, cipher.doFinal(privateKey));
+        } catch (GeneralSecurityException e) {
+            throw new CertificateGeneratorException("Could not encrypt private key", e);
+        }
+    }
+
+    private static CertBag certBag(byte[] certificate) {
+        return new CertBag(PKCSObjectIdentifiers.x509Certificate, new DEROctetString(certificate));
+    }
+
+    private static byte[] encoded(X509Certificate certificate) {
+        try {
+            return certificate.getEncoded();
+        } catch (CertificateEncodingException e) {
+            throw new CertificateGeneratorException("Could not encode certificate", e);
+        }
+    }
+
+    /**
+     * Encodes a keystore holding the given entries and the certificates of their chain.
+     *
+     * @param entries the entries, in the order they are stored.
+     * @param chain   the certificates of the issuers of the entries, stored once without alias.
+     * @return the DER encoding of the keystore.
+     * @throws CertificateGeneratorException if the keystore cannot be encoded.
+     */
+    public byte[] encode(List<Entry> entries, List<X509Certificate> chain) {
+        ASN1EncodableVector keyBags = new ASN1EncodableVector(entries.size());
+        ASN1EncodableVector certificateBags = new ASN1EncodableVector(entries.size() + chain.size());
+        for (Entry entry : entries) {
+            keyBags.add(entry.key());
+            certificateBags.add(entry.certificate());
+        }
+        for (X509Certificate issuer : chain) {
+            certificateBags.add(new SafeBag(PKCSObjectIdentifiers.certBag, certBag(encoded(issuer))));
+        }
+
+        try {
+            byte[] authenticatedSafe = new AuthenticatedSafe(new ContentInfo[]{
+                    data(new DERSequence(keyBags)),
+                    data(new DERSequence(certificateBags))
+            }).getEncoded(ASN1Encoding.DER);
+
+            HMac hmac = new HMac(new SHA256Digest());
+            hmac.init(new KeyParameter(macKey));
+            hmac.update(authenticatedSafe, 0, authenticatedSafe.length);
+            byte[] mac = new byte[hmac.getMacSize()];
+            hmac.doFinal(mac, 0);
+
+            return new Pfx(new ContentInfo(PKCSObjectIdentifiers.data, new DEROctetString(authenticatedSafe)),
+                    new MacData(new DigestInfo(SHA256, mac), macSalt, ITERATIONS))
+                    .getEncoded(ASN1Encoding.DER);
+        } catch (IOException e) {
+            throw new CertificateGeneratorException("Could not encode keystore", e);
+        }
+    }
+
+    /**
+     * Writes a keystore whose entries were encoded one at a time and appended to files, as a bundle
+     * too large to be held in memory is: its content is streamed from those files and the integrity
+     * MAC computed on the way. The output is the same as that of {@link #encode(List, List)} for the
+     * same entries.
+     *
+     * @param keyBags         the DER encodings of the {@link Entry#key() key bags} of the entries, one after the other.
+     * @param certificateBags the DER encodings of the {@link Entry#certificate() certificate bags}, in the same order.
+     * @param chain           the certificates of the issuers of the entries, stored once without alias.
+     * @param output          where the DER encoding of the keystore is written.
+     * @throws IOException if the bags cannot be read or the keystore written.
+     */
+    public void encode(Path keyBags, Path certificateBags, List<X509Certificate> chain, OutputStream output) throws IOException {
+        ByteArrayOutputStream chainBags = new ByteArrayOutputStream();
+        for (X509Certificate issuer : chain) {
+            chainBags.write(new SafeBag(PKCSObjectIdentifiers.certBag, certBag(encoded(issuer))).getEncoded(ASN1Encoding.DER));
+        }
+        long keyBagsLength = Files.size(keyBags);
+        long certificateBagsLength = Files.size(certificateBags) + chainBags.size();
+        byte[] keyBagsHeader = header(BERTags.SEQUENCE | BERTags.CONSTRUCTED, keyBagsLength);
+        byte[] keyInfoHeader = dataHeader(keyBagsHeader.length + keyBagsLength);
+        byte[] certificateBagsHeader = header(BERTags.SEQUENCE | BERTags.CONSTRUCTED, certificateBagsLength);
+        byte[] certificateInfoHeader = dataHeader(certificateBagsHeader.length + certificateBagsLength);
+        long safeContentsLength = keyInfoHeader.length + keyBagsHeader.length + keyBagsLength
+                + certificateInfoHeader.length + certificateBagsHeader.length + certificateBagsLength;
+        byte[] authenticatedSafeHeader = header(BERTags.SEQUENCE | BERTags.CONSTRUCTED, safeContentsLength);
+        long authenticatedSafeLength = authenticatedSafeHeader.length + safeContentsLength;
+
+        byte[] authenticatedSafeInfoHeader = dataHeader(authenticatedSafeLength);
+        byte[] version = new ASN1Integer(3).getEncoded(ASN1Encoding.DER);
+        int macDataLength = macData(new byte[32]).length;
+        output.write(header(BERTags.SEQUENCE | BERTags.CONSTRUCTED,
+                version.length + authenticatedSafeInfoHeader.length + authenticatedSafeLength + macDataLength));
+        output.write(version);
+        output.write(authenticatedSafeInfoHeader);
+
+        // The MAC covers the content of the authenticated safe, written as it is computed
+        HMac hmac = new HMac(new SHA256Digest());
+        hmac.init(new KeyParameter(macKey));
+        OutputStream authenticatedSafe = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                hmac.update((byte) b);
+                output.write(b);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                hmac.update(bytes, offset, length);
+                output.write(bytes, offset, length);
+            }
+        };
+        authenticatedSafe.write(authenticatedSafeHeader);
+        authenticatedSafe.write(keyInfoHeader);
+        authenticatedSafe.write(keyBagsHeader);
+        Files.copy(keyBags, authenticatedSafe);
+        authenticatedSafe.write(certificateInfoHeader);
+        authenticatedSafe.write(certificateBagsHeader);
+        Files.copy(certificateBags, authenticatedSafe);
+        chainBags.writeTo(authenticatedSafe);
+
+        byte[] mac = new byte[hmac.getMacSize()];
+        hmac.doFinal(mac, 0);
+        output.write(macData(mac));
+    }
+
+    private byte[] macData(byte[] mac) throws IOException {
+        return new MacData(new DigestInfo(SHA256, mac), macSalt, ITERATIONS).getEncoded(ASN1Encoding.DER);
+    }
+
+    // A data ContentInfo up to the content of its octet string, of the given length
+    private static byte[] dataHeader(long contentLength) throws IOException {
+        byte[] contentType = PKCSObjectIdentifiers.data.getEncoded(ASN1Encoding.DER);
+        byte[] octetString = header(BERTags.OCTET_STRING, contentLength);
+        long explicitLength = octetString.length + contentLength;
+        byte[] explicit = header(BERTags.CONTEXT_SPECIFIC | BERTags.CONSTRUCTED, explicitLength);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(header(BERTags.SEQUENCE | BERTags.CONSTRUCTED, contentType.length + explicit.length + explicitLength));
+        header.write(contentType);
+        header.write(explicit);
+        header.write(octetString);
+        return header.toByteArray();
+    }
+
+    // The DER tag and definite length of an element, for tag numbers below 31
+    private static byte[] header(int tag, long length) {
+        if (length < 0x80) {
+            return new byte[]{(byte) tag, (byte) length};
+        }
+        int lengthBytes = (Long.SIZE - Long.numberOfLeadingZeros(length) + 7) / 8;
+        byte[] header = new byte[2 + lengthBytes];
+        header[0] = (byte) tag;
+        header[1] = (byte) (0x80 | lengthBytes);
+        for (int i = 0; i < lengthBytes; i++) {
+            header[2 + i] = (byte) (length >>> (8 * (lengthBytes - 1 - i)));
+        }
+        return header;
+    }
+
+    private static ContentInfo data(ASN1Encodable content) throws IOException {
+        return new ContentInfo(PKCSObjectIdentifiers.data, new DEROctetString(content.toASN1Primitive().getEncoded(ASN1Encoding.DER)));
+    }
+}
@@ -0,0 +1,338 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-ahead journal of the entries of a batch that have been completely written to disk.
+ *
+ * <p>Each completed entry is appended as one line
+ * {@code ordinal<TAB>authorizationNumber<TAB>serialNumber<TAB>location}, the serial number being
+ * written in hexadecimal. Lines without serial number, written by earlier versions, are still read;
+ * any other malformed line fails the read rather than being skipped, which would issue its entry
+ * again. The journal of a shard doubles as its manifest when shards are merged, and the serial
+ * numbers of renewed certificates are written back into it.
+ * Appends are handed to a background thread which writes and forces everything that accumulated
+ * while the previous force was in flight (group commit), so recording progress never blocks the
+ * generation of the next certificate on a disk sync.</p>
+ *
+ * <p>The journal starts with a header line {@code #input<TAB>size<TAB>lastModified<TAB>prefixHash}
+ * identifying the input it was written for: its size in bytes, its modification time in
+ * milliseconds, and the SHA-256 of its first {@value #PREFIX_HASH_BYTES} bytes.</p>
+ *
+ * <p>When a journal is reopened for resumption, the entries it holds are loaded back. Entries up to
+ * the first gap in the ordinals can be skipped by position, the others by authorization number.
+ * If the input no longer matches the header, or the journal has none, the positions recorded may
+ * designate other entries: completed entries are then matched by authorization number only, and
+ * are written back with an ordinal of -1. A trailing line torn by a crash is discarded.</p>
+ */
+public class ProgressJournal implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ProgressJournal.class);
+
+    static final int PREFIX_HASH_BYTES = 64 * 1024;
+    private static final int MAX_BATCH = 1024;
+    private static final String HEADER_PREFIX = "#input";
+    private static final String SEPARATOR = "\t";
+    private static final String END_OF_JOURNAL = "";
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Set<String> completedAuthorizationNumbers;
+    private final long resumeOrdinal;
+    private final BlockingQueue<String> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile IOException failure;
+
+    /**
+     * A completed entry as read back from a journal. The serial number is {@code null} for the entries
+     * of journals written before serial numbers were recorded, whose lines have no such field.
+     */
+    public record Entry(long ordinal, String authorizationNumber, String serialNumber, String location) {
+    }
+
+    private ProgressJournal(Path path, FileChannel channel, Set<String> completedAuthorizationNumbers, long resumeOrdinal) {
+        this.path = path;
+        this.channel = channel;
+        this.completedAuthorizationNumbers = completedAuthorizationNumbers;
+        this.resumeOrdinal = resumeOrdinal;
+        this.writer = new Thread(this::writeLoop, "progress-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Opens the journal at the given path.
+     *
+     * @param path   the journal file.
+     * @param input  the input file the journal records the progress of.
+     * @param resume {@code true} to load the entries of a previous run, {@code false} to start an empty journal.
+     * @return the opened journal.
+     * @throws IOException                   if the input or the journal cannot be read, or the journal
+     *                                       cannot be opened for writing.
+     * @throws CertificateGeneratorException if the journal to resume from holds a malformed line.
+     */
+    public static ProgressJournal open(Path path, Path input, boolean resume) throws IOException {
+        String header = header(input);
+        String content = resume && Files.exists(path) ? completeLines(Files.readAllBytes(path)) : "";
+        List<Entry> entries = parse(path, content);
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        Set<String> completed = new HashSet<>();
+        BitSet completedOrdinals = new BitSet();
+        if (resume) {
+            if (content.isEmpty() || content.startsWith(header + "\n")) {
+                channel.truncate(content.getBytes(StandardCharsets.UTF_8).length);
+            } else {
+                logger.warn("Input {} does not match journal {}: completed entries are matched by authorization number only",
+                        input, path);
+                entries = entries.stream()
+                        .map(entry -> new Entry(-1, entry.authorizationNumber(), entry.serialNumber(), entry.location()))
+                        .toList();
+                channel.truncate(0);
+            }
+            for (Entry entry : entries) {
+                if (entry.ordinal() >= 0 && entry.ordinal() < Integer.MAX_VALUE) {
+                    completedOrdinals.set((int) entry.ordinal());
+                }
+                completed.add(entry.authorizationNumber());
+            }
+            if (channel.size() == 0) {
+                StringBuilder rewritten = new StringBuilder(header).append('\n');
+                entries.forEach(entry -> rewritten.append(line(entry)));
+                write(channel, rewritten.toString());
+            }
+            logger.info("Resuming from journal {}: {} entries already completed", path, completed.size());
+        } else {
+            channel.truncate(0);
+            write(channel, header + "\n");
+        }
+        channel.position(channel.size());
+        return new ProgressJournal(path, channel, completed, completedOrdinals.nextClearBit(0));
+    }
+
+    // The content up to the end of its last line, dropping a line torn by a crash
+    private static String completeLines(byte[] content) {
+        int end = content.length;
+        while (end > 0 && content[end - 1] != '\n') {
+            end--;
+        }
+        return new String(content, 0, end, StandardCharsets.UTF_8);
+    }
+
+    private static String header(Path input) throws IOException {
+        byte[] prefix = new byte[PREFIX_HASH_BYTES];
+        int length;
+        try (InputStream stream = Files.newInputStream(input)) {
+            length = stream.readNBytes(prefix, 0, prefix.length);
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new CertificateGeneratorException("SHA-256 is not available", e);
+        }
+        digest.update(prefix, 0, length);
+        return HEADER_PREFIX + SEPARATOR + Files.size(input) + SEPARATOR + Files.getLastModifiedTime(input).toMillis()
+                + SEPARATOR + HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void write(FileChannel channel, String content) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * Reads the complete entries of a journal, ignoring a trailing line torn by a crash.
+     *
+     * @param path the journal file.
+     * @return the entries in the order they were committed.
+     * @throws IOException                   if the journal cannot be read.
+     * @throws CertificateGeneratorException if the journal holds a malformed line.
+     */
+    public static List<Entry> readEntries(Path path) throws IOException {
+        String content = Files.readString(path);
+        return parse(path, content.substring(0, content.lastIndexOf('\n') + 1));
+    }
+
+    private static List<Entry> parse(Path path, String content) {
+        List<Entry> entries = new ArrayList<>();
+        String[] lines = content.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            if (line.isEmpty() || line.startsWith(HEADER_PREFIX)) {
+                continue;
+            }
+            entries.add(parseLine(path, i + 1, line));
+        }
+        return entries;
+    }
+
+    private static Entry parseLine(Path path, int lineNumber, String line) {
+        String[] fields = line.split(SEPARATOR, -1);
+        try {
+            return switch (fields.length) {
+                case 4 -> new Entry(Long.parseLong(fields[0]), fields[1], fields[2], fields[3]);
+                // Written before serial numbers were recorded
+                case 3 -> new Entry(Long.parseLong(fields[0]), fields[1], null, fields[2]);
+                default -> throw new NumberFormatException(fields.length + " fields");
+            };
+        } catch (NumberFormatException e) {
+            throw new CertificateGeneratorException("Malformed line " + lineNumber + " of journal " + path + ": " + line, e);
+        }
+    }
+
+    /**
+     * Replaces the serial numbers of the entries of a journal whose certificates were issued again,
+     * so that the journal keeps describing the certificates on disk. The journal is rewritten aside
+     * and moved into place; it must not be open for writing meanwhile.
+     *
+     * @param path          the journal file.
+     * @param serialNumbers the new serial numbers, by authorization number.
+     * @return the number of entries updated.
+     * @throws IOException                   if the journal cannot be read or written.
+     * @throws CertificateGeneratorException if the journal holds a malformed line.
+     */
+    public static int recordRenewals(Path path, Map<String, BigInteger> serialNumbers) throws IOException {
+        String[] lines = completeLines(Files.readAllBytes(path)).split("\n");
+        StringBuilder rewritten = new StringBuilder();
+        int renewed = 0;
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            if (line.isEmpty() || line.startsWith(HEADER_PREFIX)) {
+                rewritten.append(line.isEmpty() ? "" : line + "\n");
+                continue;
+            }
+            Entry entry = parseLine(path, i + 1, line);
+            BigInteger serialNumber = serialNumbers.get(entry.authorizationNumber());
+            if (serialNumber != null) {
+                entry = new Entry(entry.ordinal(), entry.authorizationNumber(), serialNumber.toString(16), entry.location());
+                renewed++;
+            }
+            rewritten.append(line(entry));
+        }
+        if (renewed > 0) {
+            Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try {
+                Files.writeString(temporary, rewritten, StandardCharsets.UTF_8);
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        return renewed;
+    }
+
+    /**
+     * Tells whether the entry at the given input position was completed by a previous run,
+     * without needing to parse it.
+     */
+    public boolean isCompleted(long ordinal) {
+        return ordinal < resumeOrdinal;
+    }
+
+    /**
+     * Tells whether a certificate for the given authorization number was completed by a previous run.
+     */
+    public boolean isCompleted(String authorizationNumber) {
+        return completedAuthorizationNumbers.contains(authorizationNumber);
+    }
+
+    /**
+     * Records an entry as completed. The entry becomes durable with the next group commit.
+     *
+     * @param ordinal             the position of the entry in the input file.
+     * @param authorizationNumber the authorization number of the entry.
+     * @param serialNumber        the serial number of the certificate issued for the entry.
+     * @param location            where the output of the entry was written.
+     */
+    public void record(long ordinal, String authorizationNumber, BigInteger serialNumber, Path location) {
+        if (failure != null) {
+            throw new CertificateGeneratorException("Could not write progress journal " + path, failure);
+        }
+        pending.add(line(new Entry(ordinal, authorizationNumber, serialNumber.toString(16), location.toString())));
+    }
+
+    private static String line(Entry entry) {
+        return entry.ordinal() + SEPARATOR + entry.authorizationNumber()
+                + (entry.serialNumber() == null ? "" : SEPARATOR + entry.serialNumber())
+                + SEPARATOR + entry.location() + "\n";
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        StringBuilder buffer = new StringBuilder();
+        try {
+            while (true) {
+                String first = pending.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                pending.drainTo(batch, MAX_BATCH - 1);
+
+                boolean last = batch.remove(END_OF_JOURNAL);
+                batch.forEach(buffer::append);
+                write(channel, buffer.toString());
+                channel.force(false);
+                batch.clear();
+                buffer.setLength(0);
+                if (last) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            logger.error("Error writing progress journal: {}", path, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Commits the pending entries and closes the journal.
+     *
+     * @throws IOException if an entry could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        pending.add(END_OF_JOURNAL);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
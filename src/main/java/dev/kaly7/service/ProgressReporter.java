@@ -0,0 +1,144 @@
+package dev.kaly7.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logs the progress of a batch at a fixed interval, instead of a line per certificate.
+ *
+ * <p>Workers report each certificate written and each entry rejected or failed, and the reader
+ * reports how much of the input it consumed, either as amounts of work or as the byte offsets it
+ * reached, which may arrive out of order from parallel readers. These events only update
+ * {@link LongAdder}s and a {@link LongAccumulator}, so that reporting costs the workers no lock and
+ * no I/O. Every {@code intervalMillis} a single line
+ * gives the number of certificates written, the overall and recent rates, the errors, and, when the
+ * total amount of input is known, the share consumed and the estimated time left. A summary is
+ * logged when the reporter is closed.</p>
+ */
+public class ProgressReporter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ProgressReporter.class);
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 5_000;
+
+    private final String label;
+    private final long totalWork;
+    private final long startNanos = System.nanoTime();
+    private final ScheduledExecutorService ticker;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder work = new LongAdder();
+    private final LongAccumulator position = new LongAccumulator(Math::max, 0);
+
+    private long lastCompleted;
+    private long lastTickNanos = startNanos;
+
+    private ProgressReporter(String label, long totalWork) {
+        this.label = label;
+        this.totalWork = totalWork;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "progress-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts reporting.
+     *
+     * @param label          what is being processed, e.g. the name of the input file.
+     * @param totalWork      the total amount of work reported through {@link #advanced} or
+     *                       {@link #advancedTo}, e.g. the size of the input in bytes, or 0 if unknown.
+     * @param intervalMillis the time between two progress lines.
+     * @return the reporter, to close once the batch is over.
+     */
+    public static ProgressReporter start(String label, long totalWork, long intervalMillis) {
+        ProgressReporter reporter = new ProgressReporter(label, totalWork);
+        // Scheduled once constructed, so that the ticker never sees a partly initialised reporter
+        reporter.ticker.scheduleAtFixedRate(() -> logger.info(reporter.progress(System.nanoTime())),
+                intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        return reporter;
+    }
+
+    /**
+     * Records a certificate written.
+     */
+    public void completed() {
+        completed.increment();
+    }
+
+    /**
+     * Records an entry rejected or failed.
+     */
+    public void failed() {
+        failed.increment();
+    }
+
+    /**
+     * Records work done towards the total given at construction.
+     */
+    public void advanced(long amount) {
+        work.add(amount);
+    }
+
+    /**
+     * Records that the input was consumed up to the given position, e.g. the byte offset just past
+     * an entry. Positions lower than one already reported are ignored.
+     */
+    public void advancedTo(long position) {
+        this.position.accumulate(position);
+    }
+
+    public long completedCount() {
+        return completed.sum();
+    }
+
+    public long failedCount() {
+        return failed.sum();
+    }
+
+    // Called from the ticker only, which owns the fields of the last interval
+    String progress(long nowNanos) {
+        long done = completed.sum();
+        double elapsed = seconds(nowNanos - startNanos);
+        double recentRate = (done - lastCompleted) / Math.max(seconds(nowNanos - lastTickNanos), 1e-3);
+        lastCompleted = done;
+        lastTickNanos = nowNanos;
+
+        StringBuilder line = new StringBuilder(label).append(": ").append(done).append(" written (")
+                .append(Math.round(done / Math.max(elapsed, 1e-3))).append("/s, ")
+                .append(Math.round(recentRate)).append("/s recently), ")
+                .append(failed.sum()).append(" errors");
+        if (totalWork > 0) {
+            double fraction = Math.min(1.0, (double) (work.sum() + position.get()) / totalWork);
+            line.append(", ").append(Math.round(fraction * 100)).append("% of the input");
+            if (fraction > 0 && fraction < 1) {
+                line.append(", ETA ").append(duration(Math.round(elapsed * (1 - fraction) / fraction)));
+            }
+        }
+        return line.toString();
+    }
+
+    static String duration(long seconds) {
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+        long done = completed.sum();
+        double elapsed = seconds(System.nanoTime() - startNanos);
+        logger.info("{}: {} written, {} errors in {} ({}/s)", label, done, failed.sum(),
+                duration(Math.round(elapsed)), Math.round(done / Math.max(elapsed, 1e-3)));
+    }
+}
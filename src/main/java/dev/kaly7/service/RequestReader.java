@@ -0,0 +1,102 @@
+package dev.kaly7.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.model.RequestRecord;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads the entries of a TPP JSON file one at a time.
+ *
+ * <p>The file may either contain a single JSON object or a top-level array of objects. Entries are
+ * pulled from a streaming parser, so only the entry currently being consumed is held in memory,
+ * and each one is tagged with its ordinal, the line it starts on and the byte offset it ends at.</p>
+ */
+public class RequestReader {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private RequestReader() {}
+
+    /**
+     * Opens a lazy stream over the entries of the given JSON file.
+     *
+     * <p>The returned stream owns the underlying parser and must be closed by the caller.</p>
+     *
+     * @param path the JSON file to read.
+     * @return a sequential stream of {@link RequestRecord}s in file order.
+     * @throws CertificateGeneratorException if the file cannot be opened or does not start with an object or array.
+     */
+    public static Stream<RequestRecord> read(Path path) {
+        JsonParser parser;
+        try {
+            parser = OBJECT_MAPPER.createParser(path.toFile());
+            JsonToken first = parser.nextToken();
+            if (first != JsonToken.START_ARRAY && first != JsonToken.START_OBJECT) {
+                parser.close();
+                throw new CertificateGeneratorException("Json File must contain an object or an array of objects: " + path);
+            }
+        } catch (IOException e) {
+            throw new CertificateGeneratorException("Json File not found or unable to read: " + path, e);
+        }
+
+        return StreamSupport.stream(new RecordSpliterator(parser, path), false)
+                .onClose(() -> {
+                    try {
+                        parser.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    private static final class RecordSpliterator extends Spliterators.AbstractSpliterator<RequestRecord> {
+        private final JsonParser parser;
+        private final Path path;
+        private final boolean singleObject;
+        private long ordinal;
+        private boolean done;
+
+        RecordSpliterator(JsonParser parser, Path path) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.parser = parser;
+            this.path = path;
+            this.singleObject = parser.currentToken() == JsonToken.START_OBJECT;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super RequestRecord> action) {
+            if (done) {
+                return false;
+            }
+            try {
+                JsonToken token = singleObject ? parser.currentToken() : parser.nextToken();
+                if (token == null || token == JsonToken.END_ARRAY) {
+                    done = true;
+                    return false;
+                }
+                long lineNumber = parser.currentTokenLocation().getLineNr();
+                JsonNode node = parser.readValueAsTree();
+                done = singleObject;
+                action.accept(new RequestRecord(ordinal++, lineNumber, node.toString(),
+                        parser.currentLocation().getByteOffset()));
+                return true;
+            } catch (IOException e) {
+                done = true;
+                throw new CertificateGeneratorException(
+                        "Malformed JSON in " + path + " at line " + parser.currentLocation().getLineNr(), e);
+            }
+        }
+    }
+}
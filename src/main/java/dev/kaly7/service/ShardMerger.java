@@ -0,0 +1,166 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Combines the output of a batch that was split into shards with {@code --shard i/N}.
+ *
+ * <p>Every shard folder {@code shard-<i>-of-<N>} holds the journals of the inputs it processed; those
+ * journals are its manifest. Merging writes, into the target folder:</p>
+ * <ul>
+ *     <li>{@code manifest.tsv} - every completed entry of every shard, prefixed with its shard index,</li>
+ *     <li>{@code serials.idx} - the sorted serial numbers of all issued certificates,</li>
+ * </ul>
+ * <p>and reports serial numbers or authorization numbers issued more than once across shards, as
+ * well as shards that are missing.</p>
+ */
+public class ShardMerger {
+    private static final Logger logger = LoggerFactory.getLogger(ShardMerger.class);
+
+    private static final Pattern SHARD_FOLDER = Pattern.compile("shard-(\\d+)-of-(\\d+)");
+    private static final String JOURNAL_SUFFIX = ".journal";
+    static final String MANIFEST_FILE = "manifest.tsv";
+    static final String SERIAL_INDEX_FILE = "serials.idx";
+
+    /**
+     * The outcome of a merge.
+     *
+     * @param shards                         the number of shard folders merged.
+     * @param entries                        the number of completed entries across all shards.
+     * @param missingShards                  the indexes of the expected shards that have no folder.
+     * @param serialCollisions               the serial numbers, in hexadecimal, issued more than once.
+     * @param authorizationNumberCollisions  the authorization numbers completed by more than one entry.
+     */
+    public record MergeReport(int shards, long entries, List<Integer> missingShards,
+                              List<String> serialCollisions, List<String> authorizationNumberCollisions) {
+
+        public boolean isClean() {
+            return missingShards.isEmpty() && serialCollisions.isEmpty() && authorizationNumberCollisions.isEmpty();
+        }
+    }
+
+    private ShardMerger() {}
+
+    /**
+     * Merges the shard folders found directly below the given target folder.
+     *
+     * @param targetFolder the folder the shards were written to.
+     * @return the report of the merge.
+     * @throws CertificateGeneratorException if no shard is found, the shards disagree on their count,
+     *                                       or the merged files cannot be written.
+     */
+    public static MergeReport merge(Path targetFolder) {
+        SortedMap<Integer, Path> shardFolders = new TreeMap<>();
+        int count = findShards(targetFolder, shardFolders);
+
+        Map<BigInteger, Integer> serials = new HashMap<>();
+        Map<String, Integer> authorizationNumbers = new HashMap<>();
+        long entries = 0;
+
+        try (BufferedWriter manifest = Files.newBufferedWriter(targetFolder.resolve(MANIFEST_FILE))) {
+            for (Map.Entry<Integer, Path> shard : shardFolders.entrySet()) {
+                for (Path journal : journalsOf(shard.getValue())) {
+                    for (ProgressJournal.Entry entry : ProgressJournal.readEntries(journal)) {
+                        if (entry.serialNumber() != null) {
+                            serials.merge(new BigInteger(entry.serialNumber(), 16), 1, Integer::sum);
+                        }
+                        authorizationNumbers.merge(entry.authorizationNumber(), 1, Integer::sum);
+                        manifest.write(shard.getKey() + "\t" + entry.ordinal() + "\t" + entry.authorizationNumber()
+                                + "\t" + Objects.requireNonNullElse(entry.serialNumber(), "") + "\t" + entry.location());
+                        manifest.newLine();
+                        entries++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new CertificateGeneratorException("Could not write merged manifest in " + targetFolder, e);
+        }
+
+        try (BufferedWriter index = Files.newBufferedWriter(targetFolder.resolve(SERIAL_INDEX_FILE))) {
+            for (BigInteger serial : new TreeSet<>(serials.keySet())) {
+                index.write(serial.toString(16));
+                index.newLine();
+            }
+        } catch (IOException e) {
+            throw new CertificateGeneratorException("Could not write serial index in " + targetFolder, e);
+        }
+
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (!shardFolders.containsKey(i)) {
+                missing.add(i);
+            }
+        }
+        MergeReport report = new MergeReport(shardFolders.size(), entries, missing,
+                duplicates(serials).stream().map(serial -> serial.toString(16)).toList(),
+                duplicates(authorizationNumbers));
+        log(report, targetFolder);
+        return report;
+    }
+
+    private static int findShards(Path targetFolder, SortedMap<Integer, Path> shardFolders) {
+        int count = -1;
+        try (Stream<Path> children = Files.list(targetFolder)) {
+            for (Path child : children.filter(Files::isDirectory).toList()) {
+                Matcher matcher = SHARD_FOLDER.matcher(child.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                int shardCount = Integer.parseInt(matcher.group(2));
+                if (count != -1 && count != shardCount) {
+                    throw new CertificateGeneratorException("Shards of different counts found in " + targetFolder
+                            + ": " + count + " and " + shardCount);
+                }
+                count = shardCount;
+                shardFolders.put(Integer.parseInt(matcher.group(1)), child);
+            }
+        } catch (IOException e) {
+            throw new CertificateGeneratorException("Could not list shards in " + targetFolder, e);
+        }
+        if (shardFolders.isEmpty()) {
+            throw new CertificateGeneratorException("No shard folder found in " + targetFolder);
+        }
+        return count;
+    }
+
+    private static List<Path> journalsOf(Path shardFolder) throws IOException {
+        try (Stream<Path> files = Files.list(shardFolder)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(JOURNAL_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static <K extends Comparable<K>> List<K> duplicates(Map<K, Integer> occurrences) {
+        return occurrences.entrySet().stream()
+                .filter(entry -> entry.getValue() > 1)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .toList();
+    }
+
+    private static void log(MergeReport report, Path targetFolder) {
+        logger.info("Merged {} shards with {} entries into {}", report.shards(), report.entries(), targetFolder);
+        if (!report.missingShards().isEmpty()) {
+            logger.error("Missing shards: {}", report.missingShards());
+        }
+        if (!report.serialCollisions().isEmpty()) {
+            logger.error("Serial numbers issued more than once: {}", report.serialCollisions());
+        }
+        if (!report.authorizationNumberCollisions().isEmpty()) {
+            logger.error("Authorization numbers issued more than once: {}", report.authorizationNumberCollisions());
+        }
+    }
+}
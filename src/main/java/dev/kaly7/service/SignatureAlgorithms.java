@@ -0,0 +1,53 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+
+import java.security.PrivateKey;
+import java.security.interfaces.ECKey;
+
+/**
+ * Chooses the algorithm used to sign certificates from the type of the issuer key.
+ *
+ * <table>
+ *     <caption>Default signature algorithm per issuer key</caption>
+ *     <tr><th>Issuer key</th><th>Signature algorithm</th></tr>
+ *     <tr><td>RSA</td><td>{@code SHA256WithRSAEncryption}</td></tr>
+ *     <tr><td>RSASSA-PSS</td><td>{@code SHA256WithRSAAndMGF1}</td></tr>
+ *     <tr><td>EC P-256</td><td>{@code SHA256WithECDSA}</td></tr>
+ *     <tr><td>EC P-384</td><td>{@code SHA384WithECDSA}</td></tr>
+ *     <tr><td>EC P-521</td><td>{@code SHA512WithECDSA}</td></tr>
+ *     <tr><td>Ed25519</td><td>{@code Ed25519}</td></tr>
+ * </table>
+ *
+ * <p>An RSA issuer can still be made to sign with RSA-PSS by configuring the algorithm explicitly,
+ * see {@link KeysProvider#withSignatureAlgorithm(String)}.</p>
+ */
+public class SignatureAlgorithms {
+
+    private SignatureAlgorithms() {}
+
+    /**
+     * Returns the default signature algorithm for the given issuer key.
+     *
+     * @param issuerKey the private key of the issuer.
+     * @return the JCA name of the signature algorithm.
+     * @throws CertificateGeneratorException if the key type is not supported.
+     */
+    public static String forKey(PrivateKey issuerKey) {
+        return switch (issuerKey.getAlgorithm()) {
+            case "RSA" -> "SHA256WithRSAEncryption";
+            case "RSASSA-PSS" -> "SHA256WithRSAAndMGF1";
+            case "EC", "ECDSA" -> forEcKey((ECKey) issuerKey);
+            case "Ed25519", "EdDSA" -> "Ed25519";
+            default -> throw new CertificateGeneratorException("Unsupported issuer key algorithm: " + issuerKey.getAlgorithm());
+        };
+    }
+
+    private static String forEcKey(ECKey issuerKey) {
+        int fieldSize = issuerKey.getParams().getCurve().getField().getFieldSize();
+        if (fieldSize <= 256) {
+            return "SHA256WithECDSA";
+        }
+        return fieldSize <= 384 ? "SHA384WithECDSA" : "SHA512WithECDSA";
+    }
+}
@@ -0,0 +1,225 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.model.GenerationOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Generates the certificates of the TPP files dropped into a folder, for as long as it runs.
+ *
+ * <p>Both JSON files and JSON Lines files are picked up. One {@link CertificateServiceImpl}, and
+ * thus one loaded issuer, serves every file. A file is processed once it has stopped changing for a
+ * short settle delay, so files still being copied are left alone. Processing resumes from the
+ * progress journal of the file: when a file is modified while it waits, or fails and is dropped
+ * again, only the entries not yet written are generated. Once a file has been edited, its journal
+ * no longer matches it and completed entries are recognised by authorization number only, so
+ * entries may be inserted or reordered as well as appended.</p>
+ *
+ * <p>A completed file is moved atomically to the done folder, which must be on the same file system
+ * as the watch folder, together with its journal and dead-letter output, so a later file of the
+ * same name starts from scratch. A file that fails stays where it is and is retried when it
+ * changes.</p>
+ *
+ * <p>For each file the number of certificates, the latency from its detection to its completion and
+ * the throughput are logged, as well as the totals since the daemon started.</p>
+ */
+public class WatchFolderDaemon implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(WatchFolderDaemon.class);
+
+    public static final long DEFAULT_SETTLE_MILLIS = 1_000;
+
+    private final CertificateServiceImpl certificateService;
+    private final Path watchFolder;
+    private final Path doneFolder;
+    private final GenerationOptions options;
+    private final long settleMillis;
+    private final WatchService watchService;
+    private PipelineWarmup warmup;
+
+    // Files waiting to settle, with the time they were first seen and their last observed state
+    private final Map<Path, PendingFile> pendingFiles = new LinkedHashMap<>();
+    private final long startNanos = System.nanoTime();
+    private long completedFiles;
+    private long completedCertificates;
+
+    private record PendingFile(long detectedNanos, FileTime lastModified, long size, long settledSince) {
+    }
+
+    /**
+     * @param certificateService the service generating the certificates of every file.
+     * @param watchFolder        the folder new TPP files are dropped into.
+     * @param doneFolder         the folder completed files are moved to.
+     * @param options            the options each file is processed with; must enable resumption.
+     * @param settleMillis       how long a file must stay unchanged before it is processed.
+     * @throws IOException if the folder cannot be watched.
+     */
+    public WatchFolderDaemon(CertificateServiceImpl certificateService, Path watchFolder, Path doneFolder,
+                             GenerationOptions options, long settleMillis) throws IOException {
+        if (!options.resume()) {
+            throw new IllegalArgumentException("The watch-folder daemon processes files with resumption enabled");
+        }
+        this.certificateService = certificateService;
+        this.watchFolder = watchFolder;
+        this.doneFolder = Files.createDirectories(doneFolder);
+        this.options = options;
+        this.settleMillis = settleMillis;
+        this.watchService = watchFolder.getFileSystem().newWatchService();
+        watchFolder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * Warms up the generation pipeline with the given warm-up before watching, so that the first
+     * file dropped is generated at steady-state speed.
+     *
+     * @return this daemon.
+     */
+    public WatchFolderDaemon withWarmup(PipelineWarmup warmup) {
+        this.warmup = warmup;
+        return this;
+    }
+
+    /**
+     * Processes the files already present in the watch folder and then every new or modified one,
+     * until the daemon is closed or the thread interrupted. The warm-up, if any, runs first, and the
+     * daemon reports ready once it is done.
+     */
+    public void run() {
+        if (warmup != null) {
+            warmup.run();
+        }
+        logger.info("Watching {} for TPP files, completed files are moved to {}", watchFolder, doneFolder);
+        try (Stream<Path> existing = Files.list(watchFolder)) {
+            existing.filter(MultiInputGenerator::isInput).sorted().forEach(this::detected);
+        } catch (IOException e) {
+            throw new CertificateGeneratorException("Could not list " + watchFolder, e);
+        }
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = pendingFiles.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(settleMillis / 4 + 1, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            rescan();
+                        } else if (MultiInputGenerator.isInput(watchFolder.resolve((Path) event.context()))) {
+                            detected(watchFolder.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                }
+                processSettledFiles();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // closed by close()
+        }
+        logger.info("Stopped watching {}", watchFolder);
+    }
+
+    private void rescan() {
+        try (Stream<Path> files = Files.list(watchFolder)) {
+            files.filter(MultiInputGenerator::isInput).forEach(this::detected);
+        } catch (IOException e) {
+            logger.error("Could not list {}", watchFolder, e);
+        }
+    }
+
+    private void detected(Path file) {
+        long now = System.nanoTime();
+        pendingFiles.merge(file, new PendingFile(now, null, -1, now),
+                (previous, ignored) -> new PendingFile(previous.detectedNanos(), null, -1, now));
+    }
+
+    private void processSettledFiles() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Path, PendingFile>> entries = pendingFiles.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Path, PendingFile> entry = entries.next();
+            Path file = entry.getKey();
+            PendingFile pending = entry.getValue();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // Removed or renamed before it settled
+                entries.remove();
+                continue;
+            }
+            if (!attributes.lastModifiedTime().equals(pending.lastModified()) || attributes.size() != pending.size()) {
+                entry.setValue(new PendingFile(pending.detectedNanos(), attributes.lastModifiedTime(), attributes.size(), now));
+            } else if (now - pending.settledSince() >= TimeUnit.MILLISECONDS.toNanos(settleMillis)) {
+                entries.remove();
+                process(file, pending.detectedNanos());
+            }
+        }
+    }
+
+    private void process(Path file, long detectedNanos) {
+        long start = System.nanoTime();
+        Optional<Long> written;
+        try {
+            written = certificateService.processFile(file, options);
+        } catch (RuntimeException e) {
+            logger.error("Could not process {}, it will be retried when it changes", file, e);
+            return;
+        }
+        if (written.isEmpty()) {
+            logger.error("Could not process {}, it will be retried when it changes", file);
+            return;
+        }
+        try {
+            // The journal first: should the move of the file fail, it is processed again from scratch
+            moveToDone(CertificateServiceImpl.journalFile(file, options));
+            moveToDone(CertificateServiceImpl.deadLetterFile(file, options));
+            moveToDone(file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Could not move {} to {}", file, doneFolder, e);
+            return;
+        }
+
+        long end = System.nanoTime();
+        completedFiles++;
+        completedCertificates += written.get();
+        logger.info("{}: {} certificates in {} ms ({} certificates/s), {} ms after it was detected",
+                file.getFileName(), written.get(), TimeUnit.NANOSECONDS.toMillis(end - start),
+                rate(written.get(), end - start), TimeUnit.NANOSECONDS.toMillis(end - detectedNanos));
+        logger.info("{} files and {} certificates completed since start ({} certificates/s)",
+                completedFiles, completedCertificates, rate(completedCertificates, end - startNanos));
+    }
+
+    private static long rate(long count, long nanos) {
+        return nanos > 0 ? count * TimeUnit.SECONDS.toNanos(1) / nanos : 0;
+    }
+
+    // An earlier file of the same name is kept under a suffixed name rather than overwritten
+    private void moveToDone(Path file, CopyOption... copyOptions) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        Path target = doneFolder.resolve(file.getFileName());
+        for (int i = 1; Files.exists(target); i++) {
+            target = doneFolder.resolve(file.getFileName() + "." + i);
+        }
+        Files.move(file, target, copyOptions);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -0,0 +1,50 @@
+package dev.kaly7.service.api;
+
+import dev.kaly7.model.CertificateRequest;
+import dev.kaly7.model.CertificateResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * Generates certificates in memory, without reading or writing files, for callers that embed the
+ * generator.
+ *
+ * <p>Certificates are generated on an executor chosen by the caller. Requests are validated as the
+ * entries of a TPP file are; an invalid request fails its future, or the stream it is part of, with
+ * a {@link dev.kaly7.exception.CertificateGeneratorException} naming the violations.</p>
+ */
+public interface AsyncCertificateService {
+
+    /**
+     * Generates the certificate of a single request.
+     *
+     * @param request the certificate request.
+     * @return a future completed with the response, or exceptionally if the request is invalid or
+     * generation fails.
+     */
+    CompletableFuture<CertificateResponse> generateAsync(CertificateRequest request);
+
+    /**
+     * Generates the certificates of the given requests as they are demanded.
+     *
+     * <p>The iterable is read only as subscribers request responses, and each subscription reads it
+     * from the start.</p>
+     *
+     * @param requests the certificate requests.
+     * @return a publisher of the responses, in the order of the requests.
+     */
+    Flow.Publisher<CertificateResponse> generateAll(Iterable<? extends CertificateRequest> requests);
+
+    /**
+     * Generates the certificates of the requests of a publisher.
+     *
+     * <p>Requests are only taken from the publisher as the subscriber demands responses, and at
+     * most a bounded number are generated at the same time. Cancelling the subscription cancels the
+     * upstream subscription and the generation of the requests not yet started.</p>
+     *
+     * @param requests the publisher of the certificate requests, subscribed to once per subscriber.
+     * @return a publisher of the responses, in the order of the requests.
+     */
+    Flow.Publisher<CertificateResponse> generateAll(Flow.Publisher<? extends CertificateRequest> requests);
+}
@@ -1,6 +1,10 @@
 package dev.kaly7.service.api;
 
+import dev.kaly7.model.GenerationOptions;
+
 public interface CertificateService {
 
     void generatePemFilesCerts(String tppJsonFilePath, String targetFolder);
+
+    void generateCertificates(String tppJsonFilePath, GenerationOptions options);
 }
@@ -0,0 +1,40 @@
+package dev.kaly7.service.api;
+
+import dev.kaly7.model.IssuedCertificate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Destination of the certificates issued during a batch.
+ *
+ * <p>A sink receives each certificate as soon as it has been issued and must not keep a reference to
+ * it once {@link #write} returns, so that a batch never holds more than the certificates in flight.
+ * Implementations are called concurrently from the batch workers.</p>
+ *
+ * <p>A sink is closed once the batch is over, which lets a sink that gathers the certificates of the
+ * whole batch into one file write it.</p>
+ */
+@FunctionalInterface
+public interface CertificateSink extends Closeable {
+
+    /**
+     * Writes an issued certificate and its private key.
+     *
+     * @param authorizationNumber the authorization number the certificate was issued for.
+     * @param issued              the issued certificate and key.
+     * @return the location the certificate was written to, recorded in the progress journal.
+     * @throws IOException if the certificate could not be written.
+     */
+    Path write(String authorizationNumber, IssuedCertificate issued) throws IOException;
+
+    /**
+     * Writes what the sink still holds once the batch is over. Does nothing by default.
+     *
+     * @throws IOException if it could not be written.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,77 @@
+package dev.kaly7.model;
+
+import dev.kaly7.service.ExportUtil;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateEncodingException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactCertificateResponseTest {
+
+    private final IssuedCertificate issued = issued();
+
+    // A self-signed certificate with a key of the size the service generates
+    private static IssuedCertificate issued() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            KeyPair keyPair = generator.generateKeyPair();
+            X500Name subject = new X500Name("CN=Fake NCA,O=Fictional Corporation AG,C=DE");
+            Instant now = Instant.now();
+            return new IssuedCertificate(new JcaX509CertificateConverter().getCertificate(
+                    new JcaX509v3CertificateBuilder(subject, BigInteger.ONE, Date.from(now),
+                            Date.from(now.plus(365, ChronoUnit.DAYS)), subject, keyPair.getPublic())
+                            .build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate()))),
+                    keyPair.getPrivate());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void testAccessors_RenderTheSamePemAsCertificateResponse() throws CertificateEncodingException {
+        CertificateResponse response = new CertificateResponse(
+                ExportUtil.exportToString().apply(issued.certificate()),
+                ExportUtil.exportToString().apply(issued.privateKey()));
+        CompactCertificateResponse compact = CompactCertificateResponse.of(issued);
+
+        assertEquals(response.encodedCert(), compact.encodedCert());
+        assertEquals(response.privateKey(), compact.privateKey());
+        assertEquals(response, compact.toCertificateResponse());
+
+        ByteBuffer der = compact.certificateDer();
+        assertEquals(ByteBuffer.wrap(issued.certificate().getEncoded()), der);
+        assertThrows(ReadOnlyBufferException.class, () -> der.put(0, (byte) 0));
+        assertEquals(ByteBuffer.wrap(issued.privateKey().getEncoded()), compact.privateKeyDer());
+        assertFalse(compact.toString().contains(compact.privateKey()));
+    }
+
+    @Test
+    void testFootprint_IsSmallerThanPemStrings() {
+        CertificateResponse response = new CertificateResponse(
+                ExportUtil.exportToString().apply(issued.certificate()),
+                ExportUtil.exportToString().apply(issued.privateKey()));
+        CompactCertificateResponse compact = CompactCertificateResponse.of(issued);
+
+        long pemBytes = GraphLayout.parseInstance(response).totalSize();
+        long compactBytes = GraphLayout.parseInstance(compact).totalSize();
+        // Base64 and the PEM armour cost a third more than the DER; strings are compact, one byte per character
+        assertTrue(pemBytes > compactBytes * 1.3, String.format(
+                "Retained heap per response: %d bytes as PEM strings, %d bytes compact (%.2fx)",
+                pemBytes, compactBytes, (double) pemBytes / compactBytes));
+    }
+}
@@ -0,0 +1,192 @@
+package dev.kaly7.service;
+
+import dev.kaly7.model.GenerationOptions;
+import dev.kaly7.model.IngestedRequest;
+import dev.kaly7.model.IssuedCertificate;
+import dev.kaly7.model.RequestRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class AdaptiveBatchExecutorTest {
+
+    private static final int ENTRY_SIZE = 64 * 1024;
+    private static final long HEAP_BUDGET = 2L * 1024 * 1024;
+    // What the JVM holds besides the entries in flight: the journal of completed entries, caches, buffers
+    private static final long HEAP_SLACK = 6L * 1024 * 1024;
+
+    @TempDir
+    Path folder;
+
+    private static String entry(long index) {
+        return "{\"authorizationNumber\":\"PSDDE-FAKENCA-" + index + "\",\"roles\":[\"PISP\"],"
+                + "\"organizationName\":\"Fictional Corporation AG\",\"organizationUnit\":\"Information Technology\","
+                + "\"domainComponent\":\"public.corporation.de\",\"localityName\":\"Nuremberg\","
+                + "\"stateOrProvinceName\":\"Bayern\",\"countryCode\":\"DE\",\"validity\":365,"
+                + "\"commonName\":\"Fake NCA\",\"ocspCheckNeeded\":false}";
+    }
+
+    // The heap one more entry retains, as an entry between ingestion and write holds it
+    private static long measuredBytesPerEntry() {
+        CertificateServiceImpl certificateService = new CertificateServiceImpl(new IssuerDataService(new KeysProvider()));
+        Object[] entries = new Object[4];
+        for (int i = 0; i < 2; i++) {
+            IngestedRequest request = certificateService.ingestRecord.apply(new RequestRecord(i, i + 1L, entry(i))).orElseThrow();
+            IssuedCertificate issued = certificateService.issueCertificate.apply(request.request());
+            entries[2 * i] = request;
+            entries[2 * i + 1] = issued;
+        }
+        // The difference leaves out what entries share, such as the issuer chain
+        return GraphLayout.parseInstance(entries).totalSize() - GraphLayout.parseInstance(entries[0], entries[1]).totalSize();
+    }
+
+    @Test
+    void testEstimatedBytesPerEntry_CoversAMeasuredEntry() {
+        long measured = measuredBytesPerEntry();
+
+        // Room for the encodings written out of it, without reserving much more than an entry needs
+        assertTrue(measured * 2 <= CertificateServiceImpl.ESTIMATED_BYTES_PER_ENTRY
+                        && CertificateServiceImpl.ESTIMATED_BYTES_PER_ENTRY <= measured * 4,
+                "Measured " + measured + " bytes per entry for an estimate of " + CertificateServiceImpl.ESTIMATED_BYTES_PER_ENTRY);
+    }
+
+    @Test
+    void testProcessFile_LiveHeapStaysWithinHeapBudget() throws Exception {
+        int entries = 3000;
+        // Entries that would not fit in the budget several times over if the batch retained them
+        assertTrue(entries * measuredBytesPerEntry() > 4 * (HEAP_BUDGET + HEAP_SLACK));
+        Path input = folder.resolve("requests.json");
+        try (BufferedWriter writer = Files.newBufferedWriter(input)) {
+            writer.write("[");
+            for (int i = 0; i < entries; i++) {
+                writer.write((i == 0 ? "" : ",") + entry(i) + "\n");
+            }
+            writer.write("]");
+        }
+        // EC subject keys, fresh for every entry as in a real batch but quick to generate
+        KeyPairGenerator keyGenerator = KeyPairGenerator.getInstance("EC");
+        keyGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        CertificateServiceImpl certificateService = new CertificateServiceImpl(new IssuerDataService(new KeysProvider()))
+                .detached(request -> keyGenerator.generateKeyPair());
+        GenerationOptions options = GenerationOptions.builder(folder.resolve("certs").toString())
+                .heapBudgetBytes(HEAP_BUDGET)
+                .build();
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long baseline = liveHeap(memory);
+        AtomicLong peakLiveHeap = new AtomicLong(baseline);
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peakLiveHeap.accumulateAndGet(liveHeap(memory), Math::max);
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        sampler.start();
+        Optional<Long> written;
+        try {
+            written = certificateService.processFile(input, options);
+        } finally {
+            sampler.interrupt();
+            sampler.join();
+        }
+
+        assertEquals(Optional.of((long) entries), written);
+        long growth = peakLiveHeap.get() - baseline;
+        assertTrue(growth <= HEAP_BUDGET + HEAP_SLACK,
+                "Live heap grew by " + growth + " bytes for a budget of " + HEAP_BUDGET);
+    }
+
+    // What survives a full collection
+    private static long liveHeap(MemoryMXBean memory) {
+        memory.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    @Test
+    void testRun_LiveEntriesStayWithinHeapBudget() {
+        // Enough entries that the batch could never fit in the heap if they were retained
+        long entries = Runtime.getRuntime().maxMemory() / ENTRY_SIZE * 2;
+        assumeTrue(entries <= 200_000, "Heap too large for the test to run in reasonable time");
+
+        AtomicLong liveBytes = new AtomicLong();
+        AtomicLong peakLiveBytes = new AtomicLong();
+
+        try (AdaptiveBatchExecutor executor = AdaptiveBatchExecutor.forHeapBudget(HEAP_BUDGET, ENTRY_SIZE)) {
+            // What is not kept for the entries parsed ahead
+            assertEquals(AdaptiveBatchExecutor.maxInFlight(HEAP_BUDGET - HEAP_BUDGET / AdaptiveBatchExecutor.READ_AHEAD_SHARE,
+                    ENTRY_SIZE), executor.maxInFlight());
+            long processed = executor.run(
+                    LongStream.range(0, entries).mapToObj(ordinal -> {
+                        byte[] payload = new byte[ENTRY_SIZE];
+                        peakLiveBytes.accumulateAndGet(liveBytes.addAndGet(payload.length), Math::max);
+                        return payload;
+                    }),
+                    payload -> {
+                        payload[0] = 1;
+                        return payload;
+                    },
+                    payload -> liveBytes.addAndGet(-payload.length));
+
+            assertEquals(entries, processed);
+        }
+
+        assertTrue(peakLiveBytes.get() <= HEAP_BUDGET + ENTRY_SIZE,
+                "Peak live bytes " + peakLiveBytes.get() + " exceeded the budget of " + HEAP_BUDGET);
+    }
+
+    @Test
+    void testRun_EntriesInFlightStayWithinLimit() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peakInFlight = new AtomicInteger();
+
+        try (AdaptiveBatchExecutor executor = new AdaptiveBatchExecutor(new ConcurrencyController(4, 4, 2, 1), 8, 5)) {
+            long processed = executor.run(
+                    LongStream.range(0, 2000).boxed().peek(ordinal ->
+                            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max)),
+                    ordinal -> ordinal * 2,
+                    doubled -> inFlight.decrementAndGet());
+
+            assertEquals(2000, processed);
+        }
+        assertEquals(0, inFlight.get());
+        assertTrue(peakInFlight.get() <= 8, "Peak in flight " + peakInFlight.get());
+    }
+
+    @Test
+    void testRun_IoFailureStopsTheBatch() {
+        AtomicLong written = new AtomicLong();
+
+        try (AdaptiveBatchExecutor executor = new AdaptiveBatchExecutor(new ConcurrencyController(1, 1, 1, 1), 1, 5)) {
+            IllegalStateException failure = assertThrows(IllegalStateException.class, () ->
+                    executor.run(LongStream.range(0, 1000).boxed(), ordinal -> ordinal, ordinal -> {
+                        if (ordinal == 10) {
+                            throw new IllegalStateException("entry " + ordinal);
+                        }
+                        written.incrementAndGet();
+                    }));
+            assertEquals("entry 10", failure.getMessage());
+        }
+        assertEquals(10, written.get());
+    }
+}
@@ -0,0 +1,195 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.model.CertificateRequest;
+import dev.kaly7.model.CertificateResponse;
+import dev.kaly7.model.PspRole;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncCertificateServiceImplTest {
+
+    private final CertificateServiceImpl certificateService = new CertificateServiceImpl(new IssuerDataService(new KeysProvider()));
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final AsyncCertificateServiceImpl asyncService = new AsyncCertificateServiceImpl(certificateService, executor, 2);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static CertificateRequest request(int number) {
+        return new CertificateRequest("PSDDE-FAKENCA-" + number, List.of(PspRole.PISP), "Fictional Corporation AG",
+                "Information Technology", "public.corporation.de", "Nuremberg", "Bayern", "DE", 365, "Fake NCA", false);
+    }
+
+    @Test
+    void testGenerateAsync_CompletesWithTheCertificate() throws Exception {
+        CertificateResponse response = asyncService.generateAsync(request(1)).get(30, TimeUnit.SECONDS);
+
+        assertTrue(response.encodedCert().startsWith("-----BEGIN CERTIFICATE-----"));
+        assertTrue(response.privateKey().contains("PRIVATE KEY"));
+    }
+
+    @Test
+    void testGenerateAsync_FailsOnAnInvalidRequest() {
+        CertificateRequest invalid = new CertificateRequest("PSDDE-FAKENCA-1", List.of(), "Fictional Corporation AG",
+                "Information Technology", "public.corporation.de", "Nuremberg", "Bayern", "DE", 365, "Fake NCA", false);
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> asyncService.generateAsync(invalid).get(30, TimeUnit.SECONDS));
+        assertInstanceOf(CertificateGeneratorException.class, e.getCause());
+    }
+
+    @Test
+    void testGenerateAll_DeliversInOrderAndOnlyWhatIsRequested() throws Exception {
+        AtomicInteger read = new AtomicInteger();
+        Iterable<CertificateRequest> requests = () -> IntStream.range(0, 10)
+                .peek(number -> read.incrementAndGet())
+                .mapToObj(AsyncCertificateServiceImplTest::request)
+                .iterator();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        asyncService.generateAll(requests).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertNotNull(subscriber.items.poll(30, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        // One delivered, and no more taken than the demand
+        assertTrue(subscriber.items.isEmpty());
+        assertEquals(1, read.get());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.done.await(60, TimeUnit.SECONDS));
+        assertNull(subscriber.error);
+        assertEquals(9, subscriber.items.size());
+        assertEquals(10, read.get());
+    }
+
+    @Test
+    void testGenerateAll_KeepsTheOrderOfTheRequests() throws Exception {
+        List<CertificateRequest> requests = IntStream.range(0, 6).mapToObj(AsyncCertificateServiceImplTest::request).toList();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        asyncService.generateAll(requests).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertTrue(subscriber.done.await(60, TimeUnit.SECONDS));
+        List<String> subjects = new ArrayList<>();
+        for (CertificateResponse response : subscriber.items) {
+            subjects.add(CertificateRenewer.requestFor(parse(response.encodedCert()), 365).authorizationNumber());
+        }
+        assertEquals(requests.stream().map(CertificateRequest::authorizationNumber).toList(), subjects);
+    }
+
+    @Test
+    void testGenerateAll_EndsWithTheErrorOfAnInvalidRequest() throws Exception {
+        CertificateRequest invalid = new CertificateRequest("PSDDE-FAKENCA-2", List.of(PspRole.PISP), "Fictional Corporation AG",
+                "Information Technology", "public.corporation.de", "Nuremberg", "Bayern", "XX", 365, "Fake NCA", false);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        asyncService.generateAll(List.of(request(1), invalid, request(3))).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertTrue(subscriber.done.await(60, TimeUnit.SECONDS));
+        assertInstanceOf(CertificateGeneratorException.class, subscriber.error);
+        assertTrue(subscriber.items.size() <= 1);
+    }
+
+    @Test
+    void testCancel_StopsReadingTheRequests() {
+        // Tasks only run when the test runs them, so every step happens on this thread in a known order
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        AsyncCertificateServiceImpl manualService = new AsyncCertificateServiceImpl(certificateService, tasks::add, 2);
+        ManualPublisher upstream = new ManualPublisher();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        manualService.generateAll(upstream).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(2, upstream.requested);
+
+        upstream.subscriber.onNext(request(0));
+        upstream.subscriber.onNext(request(1));
+        assertEquals(2, tasks.size());
+        tasks.poll().run();
+        assertEquals(1, subscriber.items.size());
+        assertEquals(3, upstream.requested);
+
+        subscriber.subscription.cancel();
+
+        assertTrue(upstream.cancelled);
+        // The request already handed over is dropped, and later ones are ignored
+        upstream.subscriber.onNext(request(2));
+        tasks.forEach(Runnable::run);
+        assertEquals(1, subscriber.items.size());
+        assertEquals(3, upstream.requested);
+        assertEquals(1, subscriber.done.getCount());
+    }
+
+    private static X509Certificate parse(String pem) throws CertificateException {
+        String base64 = pem.replace("-----BEGIN CERTIFICATE-----", "").replace("-----END CERTIFICATE-----", "").strip();
+        return (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(Base64.getMimeDecoder().decode(base64)));
+    }
+
+    // Emits only what the test hands to its subscriber, recording the demand and the cancellation
+    private static final class ManualPublisher implements Flow.Publisher<CertificateRequest> {
+        Flow.Subscriber<? super CertificateRequest> subscriber;
+        long requested;
+        boolean cancelled;
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super CertificateRequest> subscriber) {
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    requested += n;
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    private static final class RecordingSubscriber implements Flow.Subscriber<CertificateResponse> {
+        final BlockingQueue<CertificateResponse> items = new LinkedBlockingQueue<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(CertificateResponse item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
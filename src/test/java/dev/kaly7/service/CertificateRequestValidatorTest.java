@@ -0,0 +1,72 @@
+package dev.kaly7.service;
+
+import dev.kaly7.model.CertificateRequest;
+import dev.kaly7.model.PspRole;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Size;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CertificateRequestValidatorTest {
+
+    private final CertificateRequestValidator validator = new CertificateRequestValidator();
+
+    private static CertificateRequest request(String authorizationNumber, List<PspRole> roles, String countryCode, int validity) {
+        return new CertificateRequest(authorizationNumber, roles, "Fictional Corporation AG", "Information Technology",
+                "public.corporation.de", "Nuremberg", "Bayern", countryCode, validity, "Fake NCA", false);
+    }
+
+    @Test
+    void testValidate_ValidRequest() {
+        assertTrue(validator.validate(request("PSDDE-FAKENCA-87B2AC", List.of(PspRole.PISP, PspRole.AISP), "DE", -265)).isEmpty());
+    }
+
+    @Test
+    void testValidate_InvalidRequest() {
+        List<String> violations = validator.validate(
+                request("../PSDDE", List.of(PspRole.PISP, PspRole.PISP), "XX", 400));
+
+        assertEquals(4, violations.size(), violations::toString);
+    }
+
+    @Test
+    void testValidate_AuthorizationNumberWithPathElements() {
+        for (String authorizationNumber : List.of(".", "..", "PSDDE/1", "PSDDE\\1", "PSDDE..1")) {
+            assertEquals(List.of("authorizationNumber must not contain path elements"),
+                    validator.validate(request(authorizationNumber, List.of(PspRole.PISP), "DE", 1)), authorizationNumber);
+        }
+        assertTrue(validator.validate(request("PSDDE.1", List.of(PspRole.PISP), "DE", 1)).isEmpty());
+    }
+
+    @Test
+    void testValidate_AuthorizationNumberWithControlCharacters() {
+        for (String authorizationNumber : List.of("PSDDE\t1", "PSDDE\n1", "PSDDE\r1", "PSDDE-1\0", "PSDDE-1\u0085")) {
+            assertEquals(List.of("authorizationNumber must not contain control characters"),
+                    validator.validate(request(authorizationNumber, List.of(PspRole.PISP), "DE", 1)));
+        }
+    }
+
+    @Test
+    void testValidate_RoleCount() {
+        assertEquals(1, validator.validate(request("PSDDE-1", List.of(), "DE", 1)).size());
+        assertEquals(1, validator.validate(request("PSDDE-1",
+                List.of(PspRole.PISP, PspRole.AISP, PspRole.PIISP, PspRole.ASPSP), "DE", 1)).size());
+        assertEquals(1, validator.validate(request("PSDDE-1", null, "DE", 1)).size());
+    }
+
+    @Test
+    void testBoundsMatchRecordAnnotations() throws NoSuchFieldException {
+        Size roles = CertificateRequest.class.getDeclaredField("roles").getAnnotation(Size.class);
+        Min min = CertificateRequest.class.getDeclaredField("validity").getAnnotation(Min.class);
+        Max max = CertificateRequest.class.getDeclaredField("validity").getAnnotation(Max.class);
+
+        assertEquals(roles.min(), CertificateRequestValidator.MIN_ROLES);
+        assertEquals(roles.max(), CertificateRequestValidator.MAX_ROLES);
+        assertEquals(min.value(), CertificateRequestValidator.MIN_VALIDITY);
+        assertEquals(max.value(), CertificateRequestValidator.MAX_VALIDITY);
+    }
+}
@@ -0,0 +1,69 @@
+package dev.kaly7.service;
+
+import dev.kaly7.model.CertificateRequest;
+import dev.kaly7.model.GenerationOptions;
+import dev.kaly7.model.PspRole;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CertificateVerifierTest {
+
+    private final IssuerDataService issuerDataService = new IssuerDataService(new KeysProvider());
+    private final CertificateServiceImpl certificateService = new CertificateServiceImpl(issuerDataService);
+    private final CertificateVerifier verifier = new CertificateVerifier(issuerDataService.getIssuerPublicKey().orElseThrow(),
+            issuerDataService.getIssuerData().x500name());
+
+    private static CertificateRequest request(List<PspRole> roles, int validity, boolean ocspCheckNeeded) {
+        return new CertificateRequest("PSDDE-FAKENCA-1", roles, "Fictional Corporation AG", "Information Technology",
+                "public.corporation.de", "Nuremberg", "Bayern", "DE", validity, "Fake NCA", ocspCheckNeeded);
+    }
+
+    @Test
+    void testVerify_IssuedCertificatesPass() {
+        List<CertificateRequest> requests = List.of(
+                request(List.of(PspRole.PISP), -265, false),
+                request(List.of(PspRole.AISP, PspRole.PIISP, PspRole.ASPSP), 365, true));
+
+        for (CertificateRequest request : requests) {
+            X509Certificate certificate = certificateService.issueCertificate.apply(request).certificate();
+            assertEquals(List.of(), verifier.verify(request, certificate));
+        }
+    }
+
+    @Test
+    void testVerify_DetectsMismatches() throws GeneralSecurityException {
+        CertificateRequest request = request(List.of(PspRole.PISP, PspRole.AISP), 30, false);
+        X509Certificate certificate = certificateService.issueCertificate.apply(request).certificate();
+
+        List<String> problems = verifier.verify(request(List.of(PspRole.PISP), 31, true), certificate);
+        assertEquals(3, problems.size(), problems.toString());
+        assertTrue(problems.get(0).startsWith("notAfter"));
+        assertTrue(problems.get(1).startsWith("PSD2 roles"));
+        assertTrue(problems.get(2).startsWith("OCSP no-check extension is present"));
+
+        PublicKey otherKey = KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic();
+        problems = new CertificateVerifier(otherKey, issuerDataService.getIssuerData().x500name()).verify(request, certificate);
+        assertEquals(1, problems.size(), problems.toString());
+        assertTrue(problems.get(0).startsWith("signature does not verify"));
+    }
+
+    @Test
+    void testProcessFile_VerifiesEveryCertificate(@TempDir Path targetFolder) {
+        Path tppJsonFile = Paths.get(Objects.requireNonNull(getClass().getClassLoader().getResource("testTpp.json")).getPath());
+        GenerationOptions options = GenerationOptions.builder(targetFolder.toString()).verifySampleRate(1.0).build();
+
+        assertEquals(Optional.of(4L), certificateService.processFile(tppJsonFile, options));
+    }
+}
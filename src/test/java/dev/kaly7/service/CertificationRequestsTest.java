@@ -0,0 +1,145 @@
+package dev.kaly7.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.kaly7.model.CertificateRequest;
+import dev.kaly7.model.GenerationOptions;
+import dev.kaly7.model.IssuedCertificate;
+import dev.kaly7.model.PspRole;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CertificationRequestsTest {
+
+    private final CertificateServiceImpl certificateService = new CertificateServiceImpl(new IssuerDataService(new KeysProvider()));
+
+    @TempDir
+    Path folder;
+
+    private static KeyPair keyPair() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        return generator.generateKeyPair();
+    }
+
+    private static byte[] csr(KeyPair keyPair) throws Exception {
+        return new JcaPKCS10CertificationRequestBuilder(new X500Name("CN=Fictional Corporation AG"), keyPair.getPublic())
+                .build(new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate()))
+                .getEncoded();
+    }
+
+    private static String pem(byte[] der) {
+        return "-----BEGIN CERTIFICATE REQUEST-----\n" + Base64.getMimeEncoder().encodeToString(der)
+                + "\n-----END CERTIFICATE REQUEST-----\n";
+    }
+
+    private static CertificateRequest request(String authorizationNumber) {
+        return new CertificateRequest(authorizationNumber, List.of(PspRole.PISP), "Fictional Corporation AG",
+                "Information Technology", "public.corporation.de", "Nuremberg", "Bayern", "DE", 365, "Fake NCA", false);
+    }
+
+    @Test
+    void testVerify_AcceptsSignedRequestsAndRejectsOthers() throws Exception {
+        KeyPair keyPair = keyPair();
+        byte[] der = csr(keyPair);
+
+        assertEquals(Optional.empty(), CertificationRequests.verify(pem(der)));
+        assertEquals(Optional.empty(), CertificationRequests.verify(Base64.getEncoder().encodeToString(der)));
+        assertEquals(keyPair.getPublic(), CertificationRequests.publicKey(pem(der)));
+
+        // Flips a bit of the signature, at the end of the request
+        der[der.length - 1] ^= 1;
+        assertTrue(CertificationRequests.verify(pem(der)).isPresent());
+        assertTrue(CertificationRequests.verify("not a request").isPresent());
+    }
+
+    @Test
+    void testIssueCertificate_UsesTheKeyOfTheRequestWithoutPrivateKey() throws Exception {
+        KeyPair keyPair = keyPair();
+        CertificateRequest request = request("PSDDE-FAKENCA-1").withCsr(pem(csr(keyPair)));
+
+        assertEquals(List.of(), new CertificateRequestValidator().validate(request));
+        IssuedCertificate issued = certificateService.issueCertificate.apply(request);
+        assertEquals(keyPair.getPublic(), issued.certificate().getPublicKey());
+        assertNull(issued.privateKey());
+        assertNull(certificateService.generateResponse.apply(request).privateKey());
+    }
+
+    @Test
+    void testProcessFile_IssuesForTheRequestsOfTheCsrFolder() throws Exception {
+        KeyPair keyPair = keyPair();
+        Path csrFolder = Files.createDirectories(folder.resolve("csr"));
+        Files.write(csrFolder.resolve("PSDDE-FAKENCA-1.csr"), pem(csr(keyPair)).getBytes(StandardCharsets.US_ASCII));
+        byte[] forged = csr(keyPair);
+        forged[forged.length - 1] ^= 1;
+        Files.write(csrFolder.resolve("PSDDE-FAKENCA-2.csr"), pem(forged).getBytes(StandardCharsets.US_ASCII));
+        Path input = folder.resolve("tpps.jsonl");
+        Files.writeString(input, String.join("\n",
+                tpp("PSDDE-FAKENCA-1"), tpp("PSDDE-FAKENCA-2"), tpp("PSDDE-FAKENCA-3")) + "\n");
+
+        Path target = folder.resolve("certs");
+        Optional<Long> written = certificateService.processFile(input,
+                GenerationOptions.builder(target.toString()).csrFolder(csrFolder.toString()).build());
+
+        // The forged request and the one without request are rejected
+        assertEquals(Optional.of(1L), written);
+        Path tppFolder = target.resolve("PSDDE-FAKENCA-1");
+        assertFalse(Files.exists(tppFolder.resolve("PSDDE-FAKENCA-1-privateKey.key")));
+        X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(
+                new ByteArrayInputStream(ExpiryIndex.readDer(tppFolder.resolve("PSDDE-FAKENCA-1-encodedCert.pem"))));
+        assertEquals(keyPair.getPublic(), certificate.getPublicKey());
+        assertFalse(Files.exists(target.resolve("PSDDE-FAKENCA-2")));
+        assertFalse(Files.exists(target.resolve("PSDDE-FAKENCA-3")));
+    }
+
+    @Test
+    void testRead_DecodesBinaryDerAsWellAsPem() throws Exception {
+        KeyPair keyPair = keyPair();
+        byte[] der = csr(keyPair);
+        Files.write(folder.resolve("PSDDE-FAKENCA-1.csr"), der);
+        Files.write(folder.resolve("PSDDE-FAKENCA-2.csr"), pem(der).getBytes(StandardCharsets.US_ASCII));
+
+        for (String authorizationNumber : List.of("PSDDE-FAKENCA-1", "PSDDE-FAKENCA-2")) {
+            String csr = CertificationRequests.read(folder, authorizationNumber).orElseThrow();
+            assertEquals(Optional.empty(), CertificationRequests.verify(csr));
+            assertEquals(keyPair.getPublic(), CertificationRequests.publicKey(csr));
+        }
+        assertEquals(Optional.empty(), CertificationRequests.read(folder, "PSDDE-FAKENCA-3"));
+    }
+
+    private static String tpp(String authorizationNumber) {
+        return "{\"authorizationNumber\":\"" + authorizationNumber + "\",\"roles\":[\"PISP\"],"
+                + "\"organizationName\":\"Fictional Corporation AG\",\"organizationUnit\":\"Information Technology\","
+                + "\"domainComponent\":\"public.corporation.de\",\"localityName\":\"Nuremberg\","
+                + "\"stateOrProvinceName\":\"Bayern\",\"countryCode\":\"DE\",\"validity\":365,"
+                + "\"commonName\":\"Fake NCA\",\"ocspCheckNeeded\":false}";
+    }
+
+    @Test
+    void testBinding_ReadsAnEmbeddedRequest() throws Exception {
+        String csr = Base64.getEncoder().encodeToString(csr(keyPair()));
+        String json = tpp("PSDDE-FAKENCA-1").replace("}", ",\"csr\":\"" + csr + "\"}");
+
+        CertificateRequest request = new ObjectMapper().readValue(json, CertificateRequest.class);
+
+        assertEquals(csr, request.csr());
+        assertEquals(request("PSDDE-FAKENCA-1").authorizationNumber(), request.authorizationNumber());
+    }
+}
@@ -0,0 +1,65 @@
+package dev.kaly7.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrencyControllerTest {
+
+    // Throughput peaking at 6 workers, then degrading as the workers contend
+    private static double throughput(int workers) {
+        return workers <= 6 ? workers * 10.0 : Math.max(5.0, 60.0 - (workers - 6) * 10.0);
+    }
+
+    @Test
+    void testAdjust_CpuWorkersConvergeOnPeakThroughput() {
+        for (int initial : new int[]{1, 16}) {
+            ConcurrencyController controller = new ConcurrencyController(16, 4, initial, 1);
+
+            int workers = initial;
+            for (int interval = 0; interval < 60; interval++) {
+                workers = controller.adjust(throughput(workers), 0, 1).cpuWorkers();
+            }
+
+            assertEquals(6, workers, "Settled on " + workers + " workers starting from " + initial);
+        }
+    }
+
+    @Test
+    void testAdjust_CpuWorkersHoldThePeakBetweenProbes() {
+        ConcurrencyController controller = new ConcurrencyController(16, 4, 1, 1);
+        int workers = 1;
+        for (int interval = 0; interval < 20; interval++) {
+            workers = controller.adjust(throughput(workers), 0, 1).cpuWorkers();
+        }
+
+        // Off the peak for one interval per probe only, instead of flapping around it
+        int offPeak = 0;
+        for (int interval = 0; interval < 10 * ConcurrencyController.PROBE_INTERVALS; interval++) {
+            workers = controller.adjust(throughput(workers), 0, 1).cpuWorkers();
+            if (workers != 6) {
+                offPeak++;
+                assertEquals(1, Math.abs(workers - 6), "Probed " + workers + " workers");
+            }
+        }
+        assertTrue(offPeak <= 10, offPeak + " intervals off the peak");
+    }
+
+    @Test
+    void testAdjust_IoWorkersFollowTheQueue() {
+        ConcurrencyController controller = new ConcurrencyController(4, 8, 4, 1);
+
+        // A growing backlog adds writers, one per interval
+        int ioWorkers = 1;
+        for (int depth = 10; depth <= 50; depth += 10) {
+            ioWorkers = controller.adjust(40, depth, ioWorkers).ioWorkers();
+        }
+        assertEquals(6, ioWorkers);
+
+        // An empty queue with idle writers removes them again
+        for (int interval = 0; interval < 10; interval++) {
+            ioWorkers = controller.adjust(40, 0, 0).ioWorkers();
+        }
+        assertEquals(1, ioWorkers);
+    }
+}
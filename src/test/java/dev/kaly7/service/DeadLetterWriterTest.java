@@ -0,0 +1,86 @@
+package dev.kaly7.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.kaly7.model.GenerationOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeadLetterWriterTest {
+
+    private final CertificateServiceImpl certificateService = new CertificateServiceImpl(new IssuerDataService(new KeysProvider()));
+
+    @TempDir
+    Path folder;
+
+    private static String entry(String authorizationNumber, int validity, String localityName) {
+        return "{\"authorizationNumber\":\"" + authorizationNumber + "\",\"roles\":[\"PISP\"],"
+                + "\"organizationName\":\"Fictional Corporation AG\",\"organizationUnit\":\"Information Technology\","
+                + "\"domainComponent\":\"public.corporation.de\","
+                + (localityName == null ? "" : "\"localityName\":\"" + localityName + "\",")
+                + "\"stateOrProvinceName\":\"Bayern\",\"countryCode\":\"DE\",\"validity\":" + validity + ","
+                + "\"commonName\":\"Fake NCA\",\"ocspCheckNeeded\":false}";
+    }
+
+    @Test
+    void testProcessFile_SetsFailedEntriesAsideAndCompletesTheOthers() throws IOException {
+        List<String> lines = List.of(
+                entry("PSDDE-FAKENCA-1", 365, "Nuremberg"),
+                "{\"authorizationNumber\":",
+                entry("PSDDE-FAKENCA-3", 100000, "Nuremberg"),
+                // No locality: binds and validates, but cannot be issued
+                entry("PSDDE-FAKENCA-4", 365, null),
+                entry("PSDDE-FAKENCA-5", 365, "Nuremberg"));
+        Path input = Files.write(folder.resolve("requests.jsonl"), lines);
+        GenerationOptions options = GenerationOptions.builder(folder.resolve("certs").toString()).build();
+
+        assertEquals(Optional.of(2L), certificateService.processFile(input, options));
+
+        assertTrue(Files.exists(folder.resolve("certs/PSDDE-FAKENCA-1/PSDDE-FAKENCA-1-encodedCert.pem")));
+        assertTrue(Files.exists(folder.resolve("certs/PSDDE-FAKENCA-5/PSDDE-FAKENCA-5-encodedCert.pem")));
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<JsonNode> deadLetters = Files.readAllLines(CertificateServiceImpl.deadLetterFile(input, options)).stream()
+                .map(line -> {
+                    try {
+                        return objectMapper.readTree(line);
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                })
+                .sorted((a, b) -> Long.compare(a.get("ordinal").asLong(), b.get("ordinal").asLong()))
+                .toList();
+        assertEquals(List.of(1L, 2L, 3L), deadLetters.stream().map(node -> node.get("ordinal").asLong()).toList());
+        assertEquals(List.of("validation", "validation", "generation"),
+                deadLetters.stream().map(node -> node.get("stage").asText()).toList());
+        for (JsonNode deadLetter : deadLetters) {
+            int ordinal = deadLetter.get("ordinal").asInt();
+            assertEquals(ordinal + 1, deadLetter.get("lineNumber").asInt());
+            assertEquals(lines.get(ordinal), deadLetter.get("payload").asText());
+            assertEquals("400", deadLetter.get("error").get("code").asText());
+            assertFalse(deadLetter.get("error").get("message").asText().isBlank());
+        }
+        assertTrue(deadLetters.get(1).get("error").get("message").asText().contains("validity"));
+    }
+
+    @Test
+    void testProcessFile_LeavesNoDeadLetterWhenEveryEntrySucceeds() throws IOException {
+        Path input = Files.write(folder.resolve("requests.jsonl"), List.of(entry("PSDDE-FAKENCA-1", 365, "Nuremberg")));
+        GenerationOptions options = GenerationOptions.builder(folder.resolve("certs").toString()).build();
+        Path deadLetterFile = CertificateServiceImpl.deadLetterFile(input, options);
+        Files.createDirectories(deadLetterFile.getParent());
+        Files.writeString(deadLetterFile, "{\"ordinal\":0}\n");
+        assertFalse(MultiInputGenerator.isInput(deadLetterFile));
+
+        assertEquals(Optional.of(1L), certificateService.processFile(input, options));
+
+        assertFalse(Files.exists(deadLetterFile));
+    }
+}
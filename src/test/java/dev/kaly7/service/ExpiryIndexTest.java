@@ -0,0 +1,171 @@
+package dev.kaly7.service;
+
+import dev.kaly7.model.CertificateRequest;
+import dev.kaly7.model.IssuedCertificate;
+import dev.kaly7.model.OutputEncoding;
+import dev.kaly7.model.PspRole;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpiryIndexTest {
+
+    private final IssuerDataService issuerDataService = new IssuerDataService(new KeysProvider());
+    private final CertificateServiceImpl certificateService = new CertificateServiceImpl(issuerDataService);
+
+    @TempDir
+    Path targetFolder;
+
+    private static CertificateRequest request(String authorizationNumber, List<PspRole> roles, int validity, boolean ocspCheckNeeded) {
+        return new CertificateRequest(authorizationNumber, roles, "Fictional Corporation AG", "Information Technology",
+                "public.corporation.de", "Nuremberg", "Bayern", "DE", validity, "Fake NCA", ocspCheckNeeded);
+    }
+
+    private X509Certificate write(CertificateRequest request, Path outputFolder, OutputEncoding encoding) throws IOException {
+        IssuedCertificate issued = certificateService.issueCertificate.apply(request);
+        new FileCertificateSink(outputFolder, encoding).write(request.authorizationNumber(), issued);
+        return issued.certificate();
+    }
+
+    private static Path certificateFile(Path outputFolder, String authorizationNumber, OutputEncoding encoding) {
+        return outputFolder.resolve(authorizationNumber)
+                .resolve(authorizationNumber + (encoding == OutputEncoding.DER ? "-encodedCert.der" : "-encodedCert.pem"));
+    }
+
+    private static X509Certificate read(Path file) throws IOException, GeneralSecurityException {
+        return (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(ExpiryIndex.readDer(file)));
+    }
+
+    @Test
+    void testOpen_IndexesExpiryOfPemAndDerFiles() throws IOException {
+        X509Certificate expired = write(request("PSDDE-FAKENCA-1", List.of(PspRole.PISP), -265, false), targetFolder, OutputEncoding.PEM);
+        X509Certificate expiring = write(request("PSDDE-FAKENCA-2", List.of(PspRole.AISP), 10, true), targetFolder, OutputEncoding.DER);
+        write(request("PSDDE-FAKENCA-3", List.of(PspRole.ASPSP), 300, false), targetFolder.resolve("shard-0-of-2"), OutputEncoding.PEM);
+
+        ExpiryIndex index = ExpiryIndex.open(targetFolder);
+        assertEquals(3, index.size());
+        assertTrue(Files.exists(targetFolder.resolve(ExpiryIndex.INDEX_FILE)));
+
+        List<ExpiryIndex.Entry> entries = index.expiringWithin(Duration.ofDays(30));
+        assertEquals(List.of(certificateFile(targetFolder, "PSDDE-FAKENCA-1", OutputEncoding.PEM),
+                        certificateFile(targetFolder, "PSDDE-FAKENCA-2", OutputEncoding.DER)),
+                entries.stream().map(ExpiryIndex.Entry::certificate).toList());
+        assertEquals(expired.getNotAfter().toInstant(), entries.get(0).notAfter());
+        assertEquals(expired.getNotBefore().getTime() / 1000, entries.get(0).notBefore().getEpochSecond());
+        assertEquals(expiring.getNotAfter().toInstant(), entries.get(1).notAfter());
+        assertEquals(3, index.expiringWithin(Duration.ofDays(400)).size());
+    }
+
+    @Test
+    void testOpen_ReadsOnlyChangedFiles() throws IOException {
+        write(request("PSDDE-FAKENCA-1", List.of(PspRole.PISP), 10, false), targetFolder, OutputEncoding.PEM);
+        write(request("PSDDE-FAKENCA-2", List.of(PspRole.AISP), 20, false), targetFolder, OutputEncoding.PEM);
+        ExpiryIndex.open(targetFolder);
+
+        // An unchanged file keeps the dates of the index file, even wrong ones
+        Path indexFile = targetFolder.resolve(ExpiryIndex.INDEX_FILE);
+        List<String> lines = Files.readAllLines(indexFile);
+        String[] fields = lines.get(1).split("\t");
+        fields[3] = "0";
+        Files.write(indexFile, List.of(lines.get(0), String.join("\t", fields), lines.get(2)));
+        ExpiryIndex index = ExpiryIndex.open(targetFolder);
+        assertEquals(Instant.EPOCH, index.expiringWithin(Duration.ofDays(15)).get(0).notAfter());
+
+        // A changed file is read again, a removed one dropped
+        Path first = certificateFile(targetFolder, "PSDDE-FAKENCA-1", OutputEncoding.PEM);
+        Files.setLastModifiedTime(first, FileTime.from(Instant.now().plusSeconds(5)));
+        Files.delete(certificateFile(targetFolder, "PSDDE-FAKENCA-2", OutputEncoding.PEM));
+        index = ExpiryIndex.open(targetFolder);
+        assertEquals(1, index.size());
+        assertNotEquals(Instant.EPOCH, index.expiringWithin(Duration.ofDays(15)).get(0).notAfter());
+        assertEquals(2, Files.readAllLines(indexFile).size());
+    }
+
+    @Test
+    void testRenew_ReissuesWithSameSubjectAndRoles() throws IOException, GeneralSecurityException {
+        CertificateRequest expired = request("PSDDE-FAKENCA-1", List.of(PspRole.AISP, PspRole.PISP), -265, false);
+        CertificateRequest expiring = request("PSDDE-FAKENCA-2", List.of(PspRole.ASPSP), 5, true);
+        write(expired, targetFolder, OutputEncoding.PEM);
+        write(expiring, targetFolder, OutputEncoding.DER);
+
+        List<ExpiryIndex.Entry> entries = ExpiryIndex.open(targetFolder).expiringWithin(Duration.ofDays(30));
+        assertEquals(2, new CertificateRenewer(certificateService).renew(entries, 90, 64L * 1024 * 1024));
+
+        assertEquals(List.of(), ExpiryIndex.open(targetFolder).expiringWithin(Duration.ofDays(30)));
+        CertificateVerifier verifier = new CertificateVerifier(issuerDataService.getIssuerPublicKey().orElseThrow(),
+                issuerDataService.getIssuerData().x500name());
+        for (CertificateRequest original : List.of(expired, expiring)) {
+            OutputEncoding encoding = original == expired ? OutputEncoding.PEM : OutputEncoding.DER;
+            X509Certificate renewed = read(certificateFile(targetFolder, original.authorizationNumber(), encoding));
+            CertificateRequest renewal = new CertificateRequest(original.authorizationNumber(), original.roles(),
+                    original.organizationName(), original.organizationUnit(), original.domainComponent(),
+                    original.localityName(), original.stateOrProvinceName(), original.countryCode(), 90,
+                    original.commonName(), original.ocspCheckNeeded());
+            assertEquals(renewal, CertificateRenewer.requestFor(renewed, 90));
+            assertEquals(List.of(), verifier.verify(renewal, renewed));
+        }
+    }
+
+    @Test
+    void testRenew_RecordsTheNewSerialNumbersInTheJournals() throws IOException, GeneralSecurityException {
+        Path shardFolder = targetFolder.resolve("shard-0-of-1");
+        X509Certificate expired = write(request("PSDDE-FAKENCA-1", List.of(PspRole.PISP), -265, false), shardFolder, OutputEncoding.PEM);
+        X509Certificate valid = write(request("PSDDE-FAKENCA-2", List.of(PspRole.AISP), 300, false), shardFolder, OutputEncoding.PEM);
+        Path journal = shardFolder.resolve("tpps.json.journal");
+        Files.write(journal, List.of("#input\t0\t0\t00",
+                "0\tPSDDE-FAKENCA-1\t" + expired.getSerialNumber().toString(16) + "\t" + shardFolder.resolve("PSDDE-FAKENCA-1"),
+                "1\tPSDDE-FAKENCA-2\t" + valid.getSerialNumber().toString(16) + "\t" + shardFolder.resolve("PSDDE-FAKENCA-2")));
+        // A keystore is skipped rather than indexed
+        Files.write(shardFolder.resolve("tpps.p12"), new byte[]{0x30, 0x00});
+
+        ExpiryIndex index = ExpiryIndex.open(targetFolder);
+        assertEquals(2, index.size());
+        assertEquals(1, new CertificateRenewer(certificateService).renew(index.expiringWithin(Duration.ofDays(30)), 90, 64L * 1024 * 1024));
+
+        X509Certificate renewed = read(certificateFile(shardFolder, "PSDDE-FAKENCA-1", OutputEncoding.PEM));
+        assertEquals(List.of(new ProgressJournal.Entry(0, "PSDDE-FAKENCA-1", renewed.getSerialNumber().toString(16),
+                                shardFolder.resolve("PSDDE-FAKENCA-1").toString()),
+                        new ProgressJournal.Entry(1, "PSDDE-FAKENCA-2", valid.getSerialNumber().toString(16),
+                                shardFolder.resolve("PSDDE-FAKENCA-2").toString())),
+                ProgressJournal.readEntries(journal));
+        assertTrue(Files.readAllLines(journal).get(0).startsWith("#input"));
+
+        assertTrue(ShardMerger.merge(targetFolder).isClean());
+        assertEquals(List.of(renewed.getSerialNumber(), valid.getSerialNumber()).stream().sorted().map(serial -> serial.toString(16)).toList(),
+                Files.readAllLines(targetFolder.resolve(ShardMerger.SERIAL_INDEX_FILE)));
+    }
+
+    @Test
+    void testRenew_KeepsTheKeyOfACertificateIssuedForACertificationRequest() throws Exception {
+        KeyPair holderKeys = certificateService.generateKeyPair.get();
+        IssuedCertificate issued = certificateService.issueCertificateFor.apply(
+                request("PSDDE-FAKENCA-1", List.of(PspRole.PISP), -265, false), holderKeys.getPublic());
+        new FileCertificateSink(targetFolder, OutputEncoding.PEM).write("PSDDE-FAKENCA-1", issued);
+
+        List<ExpiryIndex.Entry> entries = ExpiryIndex.open(targetFolder).expiringWithin(Duration.ofDays(30));
+        assertEquals(1, new CertificateRenewer(certificateService).renew(entries, 90, 64L * 1024 * 1024));
+
+        X509Certificate renewed = read(certificateFile(targetFolder, "PSDDE-FAKENCA-1", OutputEncoding.PEM));
+        assertNotEquals(issued.certificate(), renewed);
+        assertEquals(holderKeys.getPublic(), renewed.getPublicKey());
+        try (Stream<Path> files = Files.list(targetFolder.resolve("PSDDE-FAKENCA-1"))) {
+            assertEquals(List.of("PSDDE-FAKENCA-1-encodedCert.pem"), files.map(file -> file.getFileName().toString()).toList());
+        }
+    }
+}
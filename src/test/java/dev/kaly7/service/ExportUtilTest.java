@@ -0,0 +1,23 @@
+package dev.kaly7.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ExportUtilTest {
+
+    @Test
+    void testExportPrivateKeyToPemBytes_MatchesExportToString() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(2048);
+        KeyPair keyPair = keyGen.generateKeyPair();
+
+        assertEquals(ExportUtil.exportToString().apply(keyPair.getPrivate()),
+                new String(ExportUtil.exportPrivateKeyToPemBytes(keyPair.getPrivate()), StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,153 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.model.CertificateRequest;
+import dev.kaly7.model.IssuedCertificate;
+import dev.kaly7.model.OutputEncoding;
+import dev.kaly7.model.PspRole;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntermediateCaTest {
+
+    private final IssuerDataService root = new IssuerDataService(new KeysProvider());
+    private final X509Certificate rootCertificate = root.getIssuerCertificate().orElseThrow();
+
+    @TempDir
+    Path targetFolder;
+
+    private static CertificateRequest request(String authorizationNumber, String countryCode) {
+        return new CertificateRequest(authorizationNumber, List.of(PspRole.PISP), "Fictional Corporation AG",
+                "Information Technology", "public.corporation.de", "Nuremberg", "Bayern", countryCode, 365, "Fake NCA", false);
+    }
+
+    @Test
+    void testCreate_IssuesACountryIntermediateSignedByTheRoot() throws Exception {
+        IssuerDataService intermediate = IntermediateCa.create(root, "FR");
+        X509Certificate certificate = intermediate.getIssuerCertificate().orElseThrow();
+
+        certificate.verify(rootCertificate.getPublicKey());
+        assertEquals(new X500Name("C=FR, O=Fake NCA FR, CN=FR Intermediate NCA"), intermediate.getIssuerData().x500name());
+        assertEquals(0, certificate.getBasicConstraints());
+        assertFalse(certificate.getNotAfter().after(rootCertificate.getNotAfter()));
+        assertEquals(List.of(certificate, rootCertificate), intermediate.getIssuerChain());
+    }
+
+    @Test
+    void testCountryIntermediates_IssueEachCountryThroughItsOwnIntermediate() throws Exception {
+        CertificateServiceImpl certificateService = new CertificateServiceImpl(root).withCountryIntermediates();
+
+        IssuedCertificate german = certificateService.issueCertificate.apply(request("PSDDE-FAKENCA-1", "DE"));
+        IssuedCertificate otherGerman = certificateService.issueCertificate.apply(request("PSDDE-FAKENCA-2", "DE"));
+        IssuedCertificate french = certificateService.issueCertificate.apply(request("PSDFR-FAKENCA-1", "FR"));
+
+        X509Certificate germanNca = german.chain().get(0);
+        assertEquals(List.of(germanNca, rootCertificate), german.chain());
+        assertEquals(germanNca, otherGerman.chain().get(0));
+        assertNotEquals(germanNca, french.chain().get(0));
+
+        german.certificate().verify(germanNca.getPublicKey());
+        assertTrue(new CertificateVerifier(germanNca.getPublicKey(), new X500Name("C=DE, O=Fake NCA DE, CN=DE Intermediate NCA"))
+                .verify(request("PSDDE-FAKENCA-1", "DE"), german.certificate()).isEmpty());
+        assertEquals(germanNca.getSubjectX500Principal(), german.certificate().getIssuerX500Principal());
+    }
+
+    @Test
+    void testCountryIntermediates_CreateOneIntermediatePerCountryUnderConcurrentIssuance() throws Exception {
+        CertificateServiceImpl certificateService = new CertificateServiceImpl(root).withCountryIntermediates();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<IssuedCertificate>> issued = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                CertificateRequest request = request("PSDDE-FAKENCA-" + i, i % 2 == 0 ? "DE" : "FR");
+                issued.add(executor.submit(() -> certificateService.issueCertificate.apply(request)));
+            }
+
+            Set<X509Certificate> intermediates = new HashSet<>();
+            for (Future<IssuedCertificate> certificate : issued) {
+                intermediates.add(certificate.get().chain().get(0));
+            }
+            assertEquals(2, intermediates.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testCountryIntermediates_ReuseTheIntermediateKeptByAPreviousRun() throws Exception {
+        Path caFolder = targetFolder.resolve(IntermediateCa.FOLDER);
+        IssuedCertificate first = new CertificateServiceImpl(root).withCountryIntermediates(caFolder)
+                .issueCertificate.apply(request("PSDDE-FAKENCA-1", "DE"));
+        // Another process, such as the next shard or a resumed batch
+        IssuedCertificate second = new CertificateServiceImpl(root).withCountryIntermediates(caFolder)
+                .issueCertificate.apply(request("PSDDE-FAKENCA-2", "DE"));
+
+        assertTrue(Files.exists(caFolder.resolve("DE.p12")));
+        assertEquals(first.chain(), second.chain());
+        second.certificate().verify(first.chain().get(0).getPublicKey());
+    }
+
+    @Test
+    void testLoadOrCreate_RefusesAnIntermediateOfAnotherRoot() {
+        Path caFolder = targetFolder.resolve(IntermediateCa.FOLDER);
+        IssuerDataService otherRoot = IntermediateCa.create(root, "AT");
+        IntermediateCa.loadOrCreate(otherRoot, "DE", caFolder);
+
+        assertThrows(CertificateGeneratorException.class, () -> IntermediateCa.loadOrCreate(root, "DE", caFolder));
+    }
+
+    @Test
+    void testIssuedCertificates_NameTheKeyOfTheirIssuer() throws Exception {
+        IssuedCertificate issued = new CertificateServiceImpl(root).withCountryIntermediates()
+                .issueCertificate.apply(request("PSDDE-FAKENCA-1", "DE"));
+        X509Certificate intermediate = issued.chain().get(0);
+
+        assertArrayEquals(SubjectKeyIdentifier.getInstance(JcaX509ExtensionUtils.parseExtensionValue(
+                        intermediate.getExtensionValue(Extension.subjectKeyIdentifier.getId()))).getKeyIdentifier(),
+                AuthorityKeyIdentifier.getInstance(JcaX509ExtensionUtils.parseExtensionValue(
+                        issued.certificate().getExtensionValue(Extension.authorityKeyIdentifier.getId()))).getKeyIdentifier());
+    }
+
+    @Test
+    void testFileSink_WritesTheChainOfCertificatesIssuedByAnIntermediate() throws Exception {
+        CertificateServiceImpl certificateService = new CertificateServiceImpl(root).withCountryIntermediates();
+        IssuedCertificate issued = certificateService.issueCertificate.apply(request("PSDDE-FAKENCA-1", "DE"));
+
+        Path tppFolder = new FileCertificateSink(targetFolder, OutputEncoding.PEM).write("PSDDE-FAKENCA-1", issued);
+
+        try (InputStream input = Files.newInputStream(tppFolder.resolve("PSDDE-FAKENCA-1-chain.pem"))) {
+            assertEquals(List.of(issued.certificate(), issued.chain().get(0), rootCertificate),
+                    CertificateFactory.getInstance("X.509").generateCertificates(input));
+        }
+    }
+
+    @Test
+    void testRootIssuer_WritesNoChainFile() throws Exception {
+        IssuedCertificate issued = new CertificateServiceImpl(root).issueCertificate.apply(request("PSDDE-FAKENCA-1", "DE"));
+
+        Path tppFolder = new FileCertificateSink(targetFolder, OutputEncoding.PEM).write("PSDDE-FAKENCA-1", issued);
+
+        assertEquals(List.of(rootCertificate), issued.chain());
+        assertFalse(Files.exists(tppFolder.resolve("PSDDE-FAKENCA-1-chain.pem")));
+    }
+}
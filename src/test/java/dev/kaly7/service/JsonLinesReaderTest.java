@@ -0,0 +1,121 @@
+package dev.kaly7.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.kaly7.model.GenerationOptions;
+import dev.kaly7.model.RequestRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonLinesReaderTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void testRead_KeepsOrdinalsAndLineNumbersAcrossRanges() throws IOException {
+        Path file = folder.resolve("requests.jsonl");
+        int entries = 0;
+        long lines = 0;
+        long size = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            // Several ranges worth of entries, with blank lines and CRLF line breaks here and there
+            while (size < 3L * JsonLinesReader.RANGE_BYTES) {
+                if (entries % 100 == 0) {
+                    writer.write("   \n");
+                    size += 4;
+                    lines++;
+                }
+                String line = "{\"authorizationNumber\":\"PSDDE-FAKENCA-" + entries + "\"}" + (entries % 3 == 0 ? "\r\n" : "\n");
+                writer.write(line);
+                size += line.length();
+                entries++;
+                lines++;
+            }
+            writer.write("{\"authorizationNumber\":\"PSDDE-FAKENCA-" + entries + "\"}");
+            entries++;
+            lines++;
+        }
+
+        List<RequestRecord> records;
+        try (Stream<RequestRecord> stream = JsonLinesReader.read(file, Optional::of)) {
+            records = stream.toList();
+        }
+
+        assertEquals(entries, records.size());
+        assertEquals(Files.size(file), records.get(records.size() - 1).endOffset());
+        List<String> fileLines = Files.readAllLines(file);
+        assertEquals(lines, fileLines.size());
+        byte[] content = Files.readAllBytes(file);
+        for (int i = 0; i < records.size(); i++) {
+            RequestRecord record = records.get(i);
+            assertEquals(i, record.ordinal());
+            // Each entry ends past its line break, the last one at the end of the file
+            assertTrue(record.endOffset() == content.length || content[(int) record.endOffset() - 1] == '\n');
+            assertEquals("{\"authorizationNumber\":\"PSDDE-FAKENCA-" + i + "\"}", record.payload());
+            assertEquals(fileLines.get((int) record.lineNumber() - 1).strip(), record.payload());
+        }
+    }
+
+    @Test
+    void testRead_ParsesNoMoreRangesAheadThanItHasPermits() throws IOException {
+        Path file = folder.resolve("requests.jsonl");
+        String line = "{\"authorizationNumber\":\"PSDDE-FAKENCA-00000000\"}\n";
+        int entriesPerRange = JsonLinesReader.RANGE_BYTES / line.length() + 1;
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (int i = 0; i < 8 * entriesPerRange; i++) {
+                writer.write(line);
+            }
+        }
+        Semaphore readAhead = new Semaphore(1);
+        AtomicLong parsed = new AtomicLong();
+
+        long consumed = 0;
+        long maxAhead = 0;
+        try (Stream<RequestRecord> stream = JsonLinesReader.read(file, record -> {
+            parsed.incrementAndGet();
+            return Optional.of(record);
+        }, readAhead)) {
+            Iterator<RequestRecord> records = stream.iterator();
+            while (records.hasNext() && consumed < 5L * entriesPerRange) {
+                records.next();
+                maxAhead = Math.max(maxAhead, parsed.get() - ++consumed);
+            }
+        }
+
+        assertTrue(maxAhead <= entriesPerRange, maxAhead + " entries parsed ahead, " + entriesPerRange + " per range");
+        // Given back when the stream is closed before its end
+        assertEquals(1, readAhead.availablePermits());
+    }
+
+    @Test
+    void testProcessFile_GeneratesFromJsonLines() throws IOException {
+        Path tppJsonFile = Paths.get(Objects.requireNonNull(getClass().getClassLoader().getResource("testTpp.json")).getPath());
+        Path jsonLinesFile = folder.resolve("testTpp.jsonl");
+        ObjectMapper objectMapper = new ObjectMapper();
+        try (BufferedWriter writer = Files.newBufferedWriter(jsonLinesFile)) {
+            for (JsonNode entry : objectMapper.readTree(tppJsonFile.toFile())) {
+                writer.write(objectMapper.writeValueAsString(entry));
+                writer.newLine();
+            }
+        }
+        GenerationOptions options = GenerationOptions.builder(folder.resolve("certs").toString()).build();
+
+        assertEquals(Optional.of(4L), new CertificateServiceImpl().processFile(jsonLinesFile, options));
+    }
+}
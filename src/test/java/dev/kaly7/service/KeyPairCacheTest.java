@@ -0,0 +1,103 @@
+package dev.kaly7.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyPairCacheTest {
+
+    @TempDir
+    Path folder;
+
+    private final AtomicInteger generated = new AtomicInteger();
+
+    private final Supplier<KeyPair> generator = () -> {
+        generated.incrementAndGet();
+        try {
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC");
+            keyGen.initialize(new ECGenParameterSpec("secp256r1"));
+            return keyGen.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    };
+
+    @Test
+    void testGet_ReusesKeysAcrossInstancesAndNamespaces() {
+        KeyPair first = new KeyPairCache(folder, null, KeyPairCache.DEFAULT_MAX_BYTES).get("PSDDE-FAKENCA-1", generator);
+
+        KeyPairCache reopened = new KeyPairCache(folder, null, KeyPairCache.DEFAULT_MAX_BYTES);
+        KeyPair second = reopened.get("PSDDE-FAKENCA-1", generator);
+        assertArrayEquals(first.getPrivate().getEncoded(), second.getPrivate().getEncoded());
+        assertArrayEquals(first.getPublic().getEncoded(), second.getPublic().getEncoded());
+        assertEquals(1, reopened.hits());
+        assertEquals(1, generated.get());
+
+        KeyPair otherSeed = new KeyPairCache(folder, "other-seed", KeyPairCache.DEFAULT_MAX_BYTES).get("PSDDE-FAKENCA-1", generator);
+        assertFalse(Arrays.equals(first.getPrivate().getEncoded(), otherSeed.getPrivate().getEncoded()));
+        assertEquals(2, generated.get());
+    }
+
+    @Test
+    void testGet_RegeneratesCorruptedEntries() throws IOException {
+        KeyPairCache cache = new KeyPairCache(folder, null, KeyPairCache.DEFAULT_MAX_BYTES);
+        KeyPair original = cache.get("PSDDE-FAKENCA-1", generator);
+
+        Path entry = entries().get(0);
+        byte[] content = Files.readAllBytes(entry);
+        content[content.length / 2] ^= 1;
+        Files.write(entry, content);
+
+        KeyPair regenerated = cache.get("PSDDE-FAKENCA-1", generator);
+        assertFalse(Arrays.equals(original.getPrivate().getEncoded(), regenerated.getPrivate().getEncoded()));
+        assertEquals(1, cache.corrupted());
+        assertEquals(2, generated.get());
+        assertEquals(1, entries().size());
+    }
+
+    @Test
+    void testGet_EvictsLeastRecentlyUsedEntries() throws IOException {
+        KeyPairCache unbounded = new KeyPairCache(folder, null, KeyPairCache.DEFAULT_MAX_BYTES);
+        unbounded.get("PSDDE-FAKENCA-0", generator);
+        long entrySize = Files.size(entries().get(0));
+
+        // Room for three entries: the fourth evicts down to 90% of the bound
+        KeyPairCache cache = new KeyPairCache(folder, null, entrySize * 3);
+        cache.get("PSDDE-FAKENCA-1", generator);
+        cache.get("PSDDE-FAKENCA-2", generator);
+        for (Path entry : entries()) {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+        }
+        cache.get("PSDDE-FAKENCA-0", generator);
+        cache.get("PSDDE-FAKENCA-3", generator);
+
+        // The entries not used since the bound was set go first, the one just used stays
+        assertEquals(2, cache.evicted());
+        assertEquals(2, entries().size());
+        generated.set(0);
+        cache.get("PSDDE-FAKENCA-0", generator);
+        cache.get("PSDDE-FAKENCA-3", generator);
+        assertEquals(0, generated.get());
+    }
+
+    private List<Path> entries() throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.filter(file -> file.toString().endsWith(".kp")).toList();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package dev.kaly7.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class KeysProviderTest {
+
+    @Test
+    void testLoad_DerMatchesPem() {
+        KeysProvider pemProvider = new KeysProvider("certificates/MyRootCA.key", "certificates/MyRootCA.pem");
+        KeysProvider derProvider = new KeysProvider("certificates/MyRootCA.p8", "certificates/MyRootCA.der");
+
+        PrivateKey pemKey = pemProvider.loadPrivateKey.get();
+        X509Certificate pemCertificate = pemProvider.loadCertificate.get();
+
+        assertArrayEquals(pemKey.getEncoded(), derProvider.loadPrivateKey.get().getEncoded());
+        assertEquals(pemCertificate, derProvider.loadCertificate.get());
+    }
+}
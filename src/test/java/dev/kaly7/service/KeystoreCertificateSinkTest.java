@@ -0,0 +1,118 @@
+package dev.kaly7.service;
+
+import dev.kaly7.model.CertificateRequest;
+import dev.kaly7.model.IssuedCertificate;
+import dev.kaly7.model.PspRole;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeystoreCertificateSinkTest {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private final IssuerDataService issuerDataService = new IssuerDataService(new KeysProvider());
+    private final CertificateServiceImpl certificateService = new CertificateServiceImpl(issuerDataService);
+    private final List<X509Certificate> chain = List.of(issuerDataService.getIssuerCertificate().orElseThrow());
+
+    @TempDir
+    Path targetFolder;
+
+    private IssuedCertificate issue(String authorizationNumber) {
+        return certificateService.issueCertificate.apply(new CertificateRequest(authorizationNumber, List.of(PspRole.PISP),
+                "Fictional Corporation AG", "Information Technology", "public.corporation.de", "Nuremberg", "Bayern",
+                "DE", 365, "Fake NCA", false));
+    }
+
+    private static KeyStore load(Path file) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = Files.newInputStream(file)) {
+            keyStore.load(input, PASSWORD);
+        }
+        return keyStore;
+    }
+
+    @Test
+    void testPerTpp_WritesAKeystoreWithTheChainForEachCertificate() throws IOException, GeneralSecurityException {
+        IssuedCertificate issued = issue("PSDDE-FAKENCA-1");
+        try (KeystoreCertificateSink sink = KeystoreCertificateSink.perTpp(targetFolder, new Pkcs12Encoder(PASSWORD))) {
+            assertEquals(targetFolder.resolve("PSDDE-FAKENCA-1"), sink.write("PSDDE-FAKENCA-1", issued));
+        }
+
+        KeyStore keyStore = load(targetFolder.resolve("PSDDE-FAKENCA-1").resolve("PSDDE-FAKENCA-1.p12"));
+        assertEquals(List.of("psdde-fakenca-1"), Collections.list(keyStore.aliases()));
+        assertEquals(issued.privateKey(), keyStore.getKey("PSDDE-FAKENCA-1", PASSWORD));
+        Certificate[] storedChain = keyStore.getCertificateChain("PSDDE-FAKENCA-1");
+        assertArrayEquals(new Certificate[]{issued.certificate(), chain.get(0)}, storedChain);
+    }
+
+    @Test
+    void testBundle_WritesEveryCertificateIntoOneKeystoreOnClose() throws IOException, GeneralSecurityException {
+        Path bundle = targetFolder.resolve(KeystoreCertificateSink.bundleName(Path.of("tpps.jsonl")));
+        List<IssuedCertificate> issued = IntStream.range(0, 5).mapToObj(i -> issue("PSDDE-FAKENCA-" + i)).toList();
+
+        try (KeystoreCertificateSink sink = KeystoreCertificateSink.bundle(bundle, new Pkcs12Encoder(PASSWORD))) {
+            // Written from several threads, as by the batch workers
+            IntStream.range(0, issued.size()).parallel().forEach(i -> {
+                try {
+                    assertEquals(bundle, sink.write("PSDDE-FAKENCA-" + i, issued.get(i)));
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            assertFalse(Files.exists(bundle));
+            assertThrows(IOException.class, () -> sink.write("PSDDE-FAKENCA-0", issued.get(0)));
+        }
+
+        assertEquals(targetFolder.resolve("tpps.p12"), bundle);
+        KeyStore keyStore = load(bundle);
+        assertEquals(issued.size(), keyStore.size());
+        for (int i = 0; i < issued.size(); i++) {
+            String alias = "PSDDE-FAKENCA-" + i;
+            assertEquals(issued.get(i).privateKey(), keyStore.getKey(alias, PASSWORD));
+            assertEquals(issued.get(i).certificate(), keyStore.getCertificate(alias));
+            assertEquals(chain.get(0), keyStore.getCertificateChain(alias)[1]);
+        }
+        // The entries spilled to disk until the bundle was assembled are gone
+        try (Stream<Path> files = Files.list(targetFolder)) {
+            assertEquals(List.of(bundle), files.toList());
+        }
+    }
+
+    @Test
+    void testEncode_StreamsTheSameKeystoreFromSpilledEntries() throws IOException {
+        Pkcs12Encoder encoder = new Pkcs12Encoder(PASSWORD);
+        List<Pkcs12Encoder.Entry> entries = IntStream.range(0, 3)
+                .mapToObj(i -> encoder.encodeEntry("PSDDE-FAKENCA-" + i, issue("PSDDE-FAKENCA-" + i))).toList();
+        Path keyBags = targetFolder.resolve("keys");
+        Path certificateBags = targetFolder.resolve("certs");
+        try (OutputStream keys = Files.newOutputStream(keyBags); OutputStream certificates = Files.newOutputStream(certificateBags)) {
+            for (Pkcs12Encoder.Entry entry : entries) {
+                keys.write(entry.key().getEncoded(ASN1Encoding.DER));
+                certificates.write(entry.certificate().getEncoded(ASN1Encoding.DER));
+            }
+        }
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        encoder.encode(keyBags, certificateBags, chain, streamed);
+
+        assertArrayEquals(encoder.encode(entries, chain), streamed.toByteArray());
+    }
+}
@@ -0,0 +1,64 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.model.GenerationOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiInputGeneratorTest {
+
+    private final CertificateServiceImpl certificateService = new CertificateServiceImpl(new IssuerDataService(new KeysProvider()));
+
+    @TempDir
+    Path folder;
+
+    private Path copyTestTpp(Path target) throws IOException {
+        Path testTpp = Paths.get(Objects.requireNonNull(getClass().getClassLoader().getResource("testTpp.json")).getPath());
+        Files.createDirectories(target.getParent());
+        return Files.copy(testTpp, target);
+    }
+
+    @Test
+    void testExpand_ResolvesFilesFoldersAndGlobs() throws IOException {
+        Path a = copyTestTpp(folder.resolve("in/a.json"));
+        Path b = copyTestTpp(folder.resolve("in/b.json"));
+        Path c = copyTestTpp(folder.resolve("in/nested/c.json"));
+        Files.writeString(folder.resolve("in/notes.txt"), "not an input");
+
+        assertEquals(List.of(a, b), MultiInputGenerator.expand(List.of(folder.resolve("in").toString())));
+        assertEquals(List.of(c, a), MultiInputGenerator.expand(List.of(c.toString(), folder + "/in/a.*")));
+        assertEquals(List.of(a, b, c), MultiInputGenerator.expand(List.of(folder + "/in/**.json")));
+        assertThrows(CertificateGeneratorException.class, () -> MultiInputGenerator.expand(List.of(folder + "/missing.json")));
+    }
+
+    @Test
+    void testGenerate_WritesEachInputIntoItsOwnFolderOrMerged() throws IOException {
+        Path a = copyTestTpp(folder.resolve("in/a.json"));
+        Path b = copyTestTpp(folder.resolve("in/b.json"));
+        MultiInputGenerator generator = new MultiInputGenerator(certificateService);
+
+        List<MultiInputGenerator.InputResult> results = generator.generate(List.of(a, b),
+                GenerationOptions.builder(folder.resolve("perInput").toString()).build(), true);
+        assertEquals(List.of(4L, 4L), results.stream().map(MultiInputGenerator.InputResult::written).toList());
+        assertEquals(folder.resolve("perInput/a"), results.get(0).outputFolder());
+        assertTrue(Files.exists(folder.resolve("perInput/b/b.json.journal")));
+
+        results = generator.generate(List.of(a, b), GenerationOptions.builder(folder.resolve("merged").toString()).build(), false);
+        assertTrue(results.stream().allMatch(MultiInputGenerator.InputResult::succeeded));
+        assertTrue(Files.exists(folder.resolve("merged/a.json.journal")));
+        assertTrue(Files.exists(folder.resolve("merged/b.json.journal")));
+
+        Path sameName = copyTestTpp(folder.resolve("other/a.json"));
+        assertThrows(CertificateGeneratorException.class, () -> generator.generate(List.of(a, sameName),
+                GenerationOptions.builder(folder.resolve("merged").toString()).build(), false));
+    }
+}
@@ -0,0 +1,50 @@
+package dev.kaly7.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineWarmupTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void testRun_IssuesWithinTheLimitsAndWritesNothing() throws IOException {
+        Path keyCacheFolder = folder.resolve("keys");
+        CertificateServiceImpl certificateService = new CertificateServiceImpl(new IssuerDataService(new KeysProvider()))
+                .withKeyCache(new KeyPairCache(keyCacheFolder, null, KeyPairCache.DEFAULT_MAX_BYTES))
+                .withCountryIntermediates();
+
+        PipelineWarmup.Report report = new PipelineWarmup(certificateService)
+                .withLimits(2 * PipelineWarmup.ROUND_SIZE, Duration.ofSeconds(60))
+                .run();
+
+        assertTrue(report.certificates() > 0 && report.certificates() <= 2 * PipelineWarmup.ROUND_SIZE);
+        assertTrue(report.firstMillis() > 0);
+        assertTrue(report.steadyMillis() > 0);
+        assertTrue(report.keyGenerationMillis() > 0);
+        // Neither keys cached nor files written, whatever the service is configured with
+        assertEquals(0, regularFiles(folder));
+    }
+
+    @Test
+    void testWithLimits_RejectsNonPositiveLimits() {
+        PipelineWarmup warmup = new PipelineWarmup(new CertificateServiceImpl(new IssuerDataService(new KeysProvider())));
+        assertThrows(IllegalArgumentException.class, () -> warmup.withLimits(0, Duration.ofSeconds(1)));
+        assertThrows(IllegalArgumentException.class, () -> warmup.withLimits(1, Duration.ZERO));
+    }
+
+    private static long regularFiles(Path folder) throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+}
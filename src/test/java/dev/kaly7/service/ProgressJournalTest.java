@@ -0,0 +1,131 @@
+package dev.kaly7.service;
+
+import dev.kaly7.exception.CertificateGeneratorException;
+import dev.kaly7.model.GenerationOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProgressJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path input() throws IOException {
+        return Files.writeString(tempDir.resolve("testTpp.json"), "[{\"authorizationNumber\":\"PSDAT-1\"}]");
+    }
+
+    @Test
+    void testResume_SkipsCompletedEntries() throws IOException {
+        Path journalFile = tempDir.resolve("testTpp.json.journal");
+        Path input = input();
+        try (ProgressJournal journal = ProgressJournal.open(journalFile, input, false)) {
+            journal.record(0, "PSDAT-1", BigInteger.valueOf(0), tempDir.resolve("PSDAT-1"));
+            journal.record(1, "PSDAT-2", BigInteger.valueOf(1), tempDir.resolve("PSDAT-2"));
+            journal.record(3, "PSDAT-4", BigInteger.valueOf(3), tempDir.resolve("PSDAT-4"));
+        }
+        // Simulate a crash in the middle of an append
+        Files.writeString(journalFile, "4\tPSDAT-", StandardOpenOption.APPEND);
+
+        try (ProgressJournal journal = ProgressJournal.open(journalFile, input, true)) {
+            assertTrue(journal.isCompleted(1));
+            assertFalse(journal.isCompleted(2), "Ordinals after the first gap must not be skipped by position");
+            assertTrue(journal.isCompleted("PSDAT-4"));
+            assertFalse(journal.isCompleted("PSDAT-"));
+            journal.record(2, "PSDAT-3", BigInteger.valueOf(2), tempDir.resolve("PSDAT-3"));
+        }
+
+        assertEquals(5, Files.readAllLines(journalFile).size());
+        assertEquals(4, ProgressJournal.readEntries(journalFile).size());
+    }
+
+    @Test
+    void testResume_MatchesByAuthorizationNumberOnlyWhenTheInputChanged() throws IOException {
+        Path journalFile = tempDir.resolve("testTpp.json.journal");
+        Path input = input();
+        try (ProgressJournal journal = ProgressJournal.open(journalFile, input, false)) {
+            journal.record(0, "PSDAT-1", BigInteger.valueOf(0), tempDir.resolve("PSDAT-1"));
+            journal.record(1, "PSDAT-2", BigInteger.valueOf(1), tempDir.resolve("PSDAT-2"));
+        }
+        // An entry inserted at the top shifts the others
+        Files.writeString(input, "[{\"authorizationNumber\":\"PSDAT-0\"},{\"authorizationNumber\":\"PSDAT-1\"}]");
+        Files.setLastModifiedTime(input, FileTime.fromMillis(Files.getLastModifiedTime(input).toMillis() + 1000));
+
+        try (ProgressJournal journal = ProgressJournal.open(journalFile, input, true)) {
+            assertFalse(journal.isCompleted(0), "Positions recorded for another input must not be trusted");
+            assertFalse(journal.isCompleted("PSDAT-0"));
+            assertTrue(journal.isCompleted("PSDAT-1"));
+            journal.record(0, "PSDAT-0", BigInteger.valueOf(2), tempDir.resolve("PSDAT-0"));
+        }
+
+        assertEquals(List.of(-1L, -1L, 0L), ProgressJournal.readEntries(journalFile).stream()
+                .map(ProgressJournal.Entry::ordinal).toList());
+        try (ProgressJournal journal = ProgressJournal.open(journalFile, input, true)) {
+            assertTrue(journal.isCompleted(0));
+            assertFalse(journal.isCompleted(1));
+        }
+    }
+
+    @Test
+    void testProcessFile_ResumesAnInputWithAnEntryInsertedBeforeCompletedOnes() throws IOException {
+        Path input = tempDir.resolve("requests.jsonl");
+        Path targetFolder = tempDir.resolve("certs");
+        GenerationOptions options = GenerationOptions.builder(targetFolder.toString()).resume(true).build();
+        CertificateServiceImpl certificateService = new CertificateServiceImpl(new IssuerDataService(new KeysProvider()));
+        Files.write(input, List.of(entry("PSDDE-FAKENCA-1"), entry("PSDDE-FAKENCA-2")));
+        assertEquals(Optional.of(2L), certificateService.processFile(input, options));
+
+        Files.write(input, List.of(entry("PSDDE-FAKENCA-0"), entry("PSDDE-FAKENCA-1"), entry("PSDDE-FAKENCA-2")));
+        Files.setLastModifiedTime(input, FileTime.fromMillis(Files.getLastModifiedTime(input).toMillis() + 1000));
+
+        assertEquals(Optional.of(1L), certificateService.processFile(input, options));
+        assertTrue(Files.exists(targetFolder.resolve("PSDDE-FAKENCA-0/PSDDE-FAKENCA-0-encodedCert.pem")));
+    }
+
+    private static String entry(String authorizationNumber) {
+        return "{\"authorizationNumber\":\"" + authorizationNumber + "\",\"roles\":[\"PISP\"],"
+                + "\"organizationName\":\"Fictional Corporation AG\",\"organizationUnit\":\"Information Technology\","
+                + "\"domainComponent\":\"public.corporation.de\",\"localityName\":\"Nuremberg\","
+                + "\"stateOrProvinceName\":\"Bayern\",\"countryCode\":\"DE\",\"validity\":365,"
+                + "\"commonName\":\"Fake NCA\",\"ocspCheckNeeded\":false}";
+    }
+
+    @Test
+    void testReadEntries_ReadsLinesWithoutSerialNumberAndRejectsMalformedOnes() throws IOException {
+        Path journalFile = tempDir.resolve("testTpp.json.journal");
+        Files.writeString(journalFile, "0\tPSDAT-1\tcerts/PSDAT-1\n1\tPSDAT-2\t1f\tcerts/PSDAT-2\n");
+
+        assertEquals(List.of(new ProgressJournal.Entry(0, "PSDAT-1", null, "certs/PSDAT-1"),
+                        new ProgressJournal.Entry(1, "PSDAT-2", "1f", "certs/PSDAT-2")),
+                ProgressJournal.readEntries(journalFile));
+        try (ProgressJournal journal = ProgressJournal.open(journalFile, input(), true)) {
+            assertTrue(journal.isCompleted("PSDAT-1"));
+        }
+
+        Files.writeString(journalFile, "0\tPSDAT-1\n", StandardOpenOption.APPEND);
+        assertThrows(CertificateGeneratorException.class, () -> ProgressJournal.readEntries(journalFile));
+        assertThrows(CertificateGeneratorException.class, () -> ProgressJournal.open(journalFile, input(), true));
+    }
+
+    @Test
+    void testOpen_WithoutResumeStartsEmpty() throws IOException {
+        Path journalFile = tempDir.resolve("testTpp.json.journal");
+        Files.writeString(journalFile, "0\tPSDAT-1\t1f\tcerts/PSDAT-1\n");
+
+        try (ProgressJournal journal = ProgressJournal.open(journalFile, input(), false)) {
+            assertFalse(journal.isCompleted(0));
+            assertFalse(journal.isCompleted("PSDAT-1"));
+        }
+        assertTrue(ProgressJournal.readEntries(journalFile).isEmpty());
+    }
+}
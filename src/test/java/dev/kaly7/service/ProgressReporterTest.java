@@ -0,0 +1,58 @@
+package dev.kaly7.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProgressReporterTest {
+
+    @Test
+    void testProgress_ReportsRatesErrorsAndEta() throws InterruptedException {
+        try (ProgressReporter progress = ProgressReporter.start("tpp.jsonl", 1000, TimeUnit.HOURS.toMillis(1))) {
+            Thread[] workers = new Thread[4];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Thread(() -> {
+                    for (int j = 0; j < 50; j++) {
+                        progress.completed();
+                        progress.advanced(1);
+                    }
+                    progress.failed();
+                });
+                workers[i].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertEquals(200, progress.completedCount());
+            assertEquals(4, progress.failedCount());
+
+            String line = progress.progress(System.nanoTime());
+            assertTrue(line.startsWith("tpp.jsonl: 200 written ("), line);
+            assertTrue(line.contains("4 errors, 20% of the input, ETA "), line);
+        }
+    }
+
+    @Test
+    void testProgress_OmitsEtaWithoutTotal() {
+        try (ProgressReporter progress = ProgressReporter.start("tpp.json", 0, TimeUnit.HOURS.toMillis(1))) {
+            progress.completed();
+            String line = progress.progress(System.nanoTime());
+            assertTrue(line.endsWith("0 errors"), line);
+        }
+        assertEquals("1:01:01", ProgressReporter.duration(3661));
+    }
+
+    @Test
+    void testProgress_TakesTheFurthestPositionReached() {
+        try (ProgressReporter progress = ProgressReporter.start("tpp.jsonl", 1000, TimeUnit.HOURS.toMillis(1))) {
+            // Reported out of order by parallel readers
+            progress.advancedTo(600);
+            progress.advancedTo(250);
+            assertTrue(progress.progress(System.nanoTime()).contains("60% of the input"));
+            progress.advancedTo(1000);
+            assertTrue(progress.progress(System.nanoTime()).contains("100% of the input"));
+        }
+    }
+}
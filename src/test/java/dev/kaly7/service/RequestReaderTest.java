@@ -0,0 +1,35 @@
+package dev.kaly7.service;
+
+import dev.kaly7.model.RequestRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestReaderTest {
+
+    @Test
+    void testRead_TracksOrdinalAndLine() throws IOException {
+        Path tppJsonFile = Path.of(Objects.requireNonNull(getClass().getClassLoader().getResource("testTpp.json")).getPath());
+
+        try (Stream<RequestRecord> records = RequestReader.read(tppJsonFile)) {
+            List<RequestRecord> list = records.toList();
+            assertEquals(4, list.size());
+            assertEquals(3, list.get(3).ordinal());
+            assertEquals(2, list.get(0).lineNumber());
+            assertTrue(list.get(1).payload().contains("PSDAT-FAKENCA-87B2AC2"));
+            // Each entry ends at its closing brace, the last one just before the end of the array
+            String content = Files.readString(tppJsonFile);
+            for (RequestRecord record : list) {
+                assertEquals('}', content.charAt((int) record.endOffset() - 1));
+            }
+            assertEquals(content.lastIndexOf('}') + 1, list.get(3).endOffset());
+        }
+    }
+}
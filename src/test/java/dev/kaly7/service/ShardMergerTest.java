@@ -0,0 +1,80 @@
+package dev.kaly7.service;
+
+import dev.kaly7.model.GenerationOptions;
+import dev.kaly7.model.ShardSpec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardMergerTest {
+
+    @TempDir
+    Path targetFolder;
+
+    @Test
+    void testShards_PartitionEveryEntryExactlyOnce() {
+        for (ShardSpec.Partitioning partitioning : ShardSpec.Partitioning.values()) {
+            List<ShardSpec> shards = List.of(ShardSpec.parse("0/3", partitioning),
+                    ShardSpec.parse("1/3", partitioning), ShardSpec.parse("2/3", partitioning));
+
+            LongStream.range(0, 500).forEach(ordinal -> assertEquals(1, shards.stream()
+                    .filter(shard -> shard.acceptsOrdinal(ordinal))
+                    .filter(shard -> shard.acceptsAuthorizationNumber("PSDDE-FAKENCA-" + ordinal))
+                    .count()));
+        }
+    }
+
+    @Test
+    void testParse_InvalidShard() {
+        assertThrows(IllegalArgumentException.class, () -> ShardSpec.parse("3/3", ShardSpec.Partitioning.INDEX));
+        assertThrows(IllegalArgumentException.class, () -> ShardSpec.parse("1", ShardSpec.Partitioning.INDEX));
+    }
+
+    @Test
+    void testMerge_DetectsCollisionsAndMissingShards() throws IOException {
+        writeJournal("shard-0-of-3", "0\tPSDDE-1\t1f\tcerts/shard-0-of-3/PSDDE-1\n3\tPSDDE-4\t2a\tcerts/shard-0-of-3/PSDDE-4\n");
+        writeJournal("shard-2-of-3", "2\tPSDDE-3\t1f\tcerts/shard-2-of-3/PSDDE-3\n5\tPSDDE-4\t3b\tcerts/shard-2-of-3/PSDDE-4\n");
+
+        ShardMerger.MergeReport report = ShardMerger.merge(targetFolder);
+
+        assertFalse(report.isClean());
+        assertEquals(2, report.shards());
+        assertEquals(4, report.entries());
+        assertEquals(List.of(1), report.missingShards());
+        assertEquals(List.of("1f"), report.serialCollisions());
+        assertEquals(List.of("PSDDE-4"), report.authorizationNumberCollisions());
+        assertEquals(4, Files.readAllLines(targetFolder.resolve(ShardMerger.MANIFEST_FILE)).size());
+        assertEquals(List.of("1f", "2a", "3b"), Files.readAllLines(targetFolder.resolve(ShardMerger.SERIAL_INDEX_FILE)));
+    }
+
+    @Test
+    void testProcessFile_HashShardValidatesOnlyItsOwnEntries() throws IOException {
+        ShardSpec shard = ShardSpec.parse("0/2", ShardSpec.Partitioning.HASH);
+        // Entries that fail validation, so that each one validated shows in the dead-letter file
+        List<String> authorizationNumbers = IntStream.range(0, 20).mapToObj(i -> "PSDDE-FAKENCA-" + i).toList();
+        Path input = Files.write(targetFolder.resolve("requests.jsonl"), authorizationNumbers.stream()
+                .map(authorizationNumber -> "{\"authorizationNumber\":\"" + authorizationNumber + "\",\"roles\":[\"PISP\"],"
+                        + "\"organizationName\":\"Fictional Corporation AG\",\"countryCode\":\"DE\",\"validity\":100000}")
+                .toList());
+        GenerationOptions options = GenerationOptions.builder(targetFolder.resolve("certs").toString()).shard(shard).build();
+
+        assertEquals(Optional.of(0L), new CertificateServiceImpl(new IssuerDataService(new KeysProvider())).processFile(input, options));
+
+        assertEquals(authorizationNumbers.stream().filter(shard::acceptsAuthorizationNumber).count(),
+                Files.readAllLines(CertificateServiceImpl.deadLetterFile(input, options)).size());
+    }
+
+    private void writeJournal(String shardFolder, String content) throws IOException {
+        Path folder = Files.createDirectories(targetFolder.resolve(shardFolder));
+        Files.writeString(folder.resolve("testTpp.json.journal"), content);
+    }
+}
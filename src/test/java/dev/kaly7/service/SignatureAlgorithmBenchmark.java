@@ -0,0 +1,97 @@
+package dev.kaly7.service;
+
+import dev.kaly7.model.IssuerData;
+import dev.kaly7.model.SubjectData;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.qualified.QCStatement;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the certificates issued per second with each supported issuer key type, with all
+ * processors signing in parallel. Subject key generation is left out, so that the figures reflect
+ * the cost of the issuer signature alone.
+ *
+ * <p>Not part of the regular test run, start it with:</p>
+ * <pre>
+ * mvn test -Dtest=SignatureAlgorithmBenchmark
+ * </pre>
+ */
+class SignatureAlgorithmBenchmark {
+
+    private static final int WARM_UP = 200;
+    private static final int CERTIFICATES = 2_000;
+
+    @Test
+    void benchmarkIssuerAlgorithms() throws GeneralSecurityException {
+        Map<String, IssuerData> issuers = new LinkedHashMap<>();
+        issuers.put("RSA-2048 PKCS#1 v1.5", issuer(keyPair("RSA", 2048), "SHA256WithRSAEncryption"));
+        issuers.put("RSA-2048 PSS", issuer(keyPair("RSA", 2048), "SHA256WithRSAAndMGF1"));
+        issuers.put("EC P-256", issuer(ecKeyPair("secp256r1"), null));
+        issuers.put("EC P-384", issuer(ecKeyPair("secp384r1"), null));
+        issuers.put("Ed25519", issuer(keyPair("Ed25519", 0), null));
+
+        KeyPair subjectKeys = keyPair("RSA", 2048);
+        SubjectData subjectData = new SubjectData(subjectKeys.getPrivate(), subjectKeys.getPublic(),
+                new X500Name("CN=Benchmark TPP, C=DE"), BigInteger.ONE, new Date(),
+                new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(365)), false);
+        QCStatement qcStatement = new QCStatement(new ASN1ObjectIdentifier("0.4.0.19495.2"));
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        System.out.printf("Issuer algorithm benchmark, %d certificates on %d threads%n", CERTIFICATES, threads);
+        issuers.forEach((name, issuerData) -> {
+            CertificateServiceImpl service = new CertificateServiceImpl(new IssuerDataService(issuerData));
+            run(service, subjectData, qcStatement, WARM_UP, threads);
+
+            long start = System.nanoTime();
+            run(service, subjectData, qcStatement, CERTIFICATES, threads);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("  %-22s %-26s %10.0f certs/s%n", name, issuerData.signatureAlgorithm(), CERTIFICATES / seconds);
+        });
+    }
+
+    private static void run(CertificateServiceImpl service, SubjectData subjectData, QCStatement qcStatement,
+                            int certificates, int threads) {
+        // As many signing workers as threads, with nothing to write
+        try (AdaptiveBatchExecutor executor = new AdaptiveBatchExecutor(new ConcurrencyController(threads, 1, threads, 1),
+                threads * 4, AdaptiveBatchExecutor.DEFAULT_INTERVAL_MILLIS)) {
+            long issued = executor.run(LongStream.range(0, certificates).boxed(),
+                    i -> service.generateX509Certificate.apply(subjectData, qcStatement),
+                    certificate -> assertEquals(subjectData.x500name(),
+                            X500Name.getInstance(certificate.getSubjectX500Principal().getEncoded())));
+            assertEquals(certificates, issued);
+        }
+    }
+
+    private static IssuerData issuer(KeyPair keyPair, String signatureAlgorithm) {
+        return new IssuerData(new X500Name("CN=Benchmark NCA, O=Fake NCA, C=DE"), keyPair.getPrivate(),
+                signatureAlgorithm != null ? signatureAlgorithm : SignatureAlgorithms.forKey(keyPair.getPrivate()));
+    }
+
+    private static KeyPair keyPair(String algorithm, int keySize) throws GeneralSecurityException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance(algorithm);
+        if (keySize > 0) {
+            keyGen.initialize(keySize);
+        }
+        return keyGen.generateKeyPair();
+    }
+
+    private static KeyPair ecKeyPair(String curve) throws GeneralSecurityException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC");
+        keyGen.initialize(new ECGenParameterSpec(curve));
+        return keyGen.generateKeyPair();
+    }
+}
@@ -0,0 +1,64 @@
+package dev.kaly7.service;
+
+import dev.kaly7.model.GenerationOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WatchFolderDaemonTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void testRun_ProcessesDroppedFilesAndMovesThemToDone() throws Exception {
+        Path watchFolder = Files.createDirectories(root.resolve("incoming"));
+        Path doneFolder = root.resolve("done");
+        Path targetFolder = root.resolve("certs");
+        GenerationOptions options = GenerationOptions.builder(targetFolder.toString()).resume(true).build();
+        Path tppJsonFile = Paths.get(Objects.requireNonNull(getClass().getClassLoader().getResource("testTpp.json")).getPath());
+
+        try (WatchFolderDaemon daemon = new WatchFolderDaemon(new CertificateServiceImpl(), watchFolder, doneFolder, options, 100)) {
+            Thread thread = new Thread(daemon::run, "watch-folder-daemon");
+            thread.start();
+
+            // Written under another name first, so that the daemon only ever sees a complete file
+            Path partial = Files.copy(tppJsonFile, watchFolder.resolve("batch.json.part"));
+            Files.move(partial, watchFolder.resolve("batch.json"));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (!Files.exists(doneFolder.resolve("batch.json")) && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+            daemon.close();
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        assertTrue(Files.exists(doneFolder.resolve("batch.json")));
+        assertTrue(Files.exists(doneFolder.resolve("batch.json.journal")));
+        assertFalse(Files.exists(watchFolder.resolve("batch.json")));
+        assertEquals(4, countCertificateFolders(targetFolder));
+    }
+
+    @Test
+    void testConstructor_RequiresResumption() {
+        GenerationOptions options = GenerationOptions.builder(root.toString()).build();
+        assertThrows(IllegalArgumentException.class,
+                () -> new WatchFolderDaemon(new CertificateServiceImpl(), root, root.resolve("done"), options, 100));
+    }
+
+    private static long countCertificateFolders(Path targetFolder) throws IOException {
+        try (Stream<Path> children = Files.list(targetFolder)) {
+            return children.filter(Files::isDirectory).count();
+        }
+    }
+}